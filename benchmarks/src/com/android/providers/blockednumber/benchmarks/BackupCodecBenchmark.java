@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber.benchmarks;
+
+import com.android.providers.blockednumber.BackupCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding backup entities and of reading and writing the backup state, which holds one
+ * id per blocked number.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BackupCodecBenchmark {
+    @Param({"100", "10000"})
+    public int numBlockedNumbers;
+
+    private BackupCodec.State mBackupState;
+    private byte[] mEncodedState;
+    private byte[] mEntity;
+
+    @Setup
+    public void setUp() throws IOException {
+        final int[] ids = new int[numBlockedNumbers];
+        for (int i = 0; i < numBlockedNumbers; i++) {
+            ids[i] = i + 1;
+        }
+        mBackupState = new BackupCodec.State(BackupCodec.STATE_VERSION_4, numBlockedNumbers, ids);
+        mEncodedState = writeState();
+        mEntity = BackupCodec.encodeBlockedNumber("(650) 555-1212", "+16505551212");
+    }
+
+    @Benchmark
+    public byte[] encodeBlockedNumber() throws IOException {
+        return BackupCodec.encodeBlockedNumber("(650) 555-1212", "+16505551212");
+    }
+
+    @Benchmark
+    public BackupCodec.Entry decodeBlockedNumber() throws IOException {
+        return BackupCodec.decodeBlockedNumber(1, mEntity);
+    }
+
+    @Benchmark
+    public byte[] writeState() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupCodec.writeState(out, mBackupState);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public BackupCodec.State readState() throws IOException {
+        return BackupCodec.readState(new ByteArrayInputStream(mEncodedState));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber.benchmarks;
+
+import com.android.providers.blockednumber.BlockedNumberBloomFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching cost of the bloom filter that answers most {@code isBlocked} calls before SQLite is
+ * consulted, for block lists of increasing size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BloomFilterBenchmark {
+    private static final int NUM_LOOKUPS = 1024;
+
+    @Param({"100", "10000", "1000000"})
+    public int numBlockedNumbers;
+
+    private BlockedNumberBloomFilter mFilter;
+    private String[] mBlocked;
+    private String[] mNotBlocked;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mFilter = BlockedNumberBloomFilter.create(numBlockedNumbers, 0.01, 16 * 1024 * 1024);
+        for (int i = 0; i < numBlockedNumbers; i++) {
+            mFilter.put(e164(i));
+        }
+        mBlocked = new String[NUM_LOOKUPS];
+        mNotBlocked = new String[NUM_LOOKUPS];
+        for (int i = 0; i < NUM_LOOKUPS; i++) {
+            mBlocked[i] = e164((int) ((long) i * numBlockedNumbers / NUM_LOOKUPS));
+            mNotBlocked[i] = e164(numBlockedNumbers + i);
+        }
+    }
+
+    private static String e164(int i) {
+        return "+1650" + String.format("%07d", i);
+    }
+
+    @Benchmark
+    public boolean mightContain_blocked() {
+        return mFilter.mightContain(mBlocked[mIndex++ & (NUM_LOOKUPS - 1)]);
+    }
+
+    @Benchmark
+    public boolean mightContain_notBlocked() {
+        return mFilter.mightContain(mNotBlocked[mIndex++ & (NUM_LOOKUPS - 1)]);
+    }
+}
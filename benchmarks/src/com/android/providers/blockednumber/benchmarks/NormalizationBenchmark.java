@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber.benchmarks;
+
+import com.android.providers.blockednumber.NumberNormalizer;
+
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of deriving the {@code e164_number} column, which runs on every insert and every
+ * {@code isBlocked} call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NormalizationBenchmark {
+    /**
+     * Host equivalent of {@code PhoneNumberUtils.formatNumberToE164}; the environment is the
+     * default country ISO.
+     */
+    private static final NumberNormalizer.E164Formatter<String> FORMATTER =
+            (countryIso, rawNumber) -> {
+                final PhoneNumberUtil util = PhoneNumberUtil.getInstance();
+                try {
+                    final PhoneNumber number = util.parse(rawNumber, countryIso);
+                    if (util.isValidNumber(number)) {
+                        return util.format(number, PhoneNumberUtil.PhoneNumberFormat.E164);
+                    }
+                } catch (NumberParseException e) {
+                    // Fall through.
+                }
+                return null;
+            };
+
+    @Param({"+16505551212", "(650) 555-1212", "6505551212", "spam@example.com", "*67"})
+    public String rawNumber;
+
+    private String mCountryIso;
+
+    @Setup
+    public void setUp() {
+        mCountryIso = "US";
+        // Load the metadata outside of the measurement.
+        FORMATTER.formatNumberToE164(mCountryIso, "+16505551212");
+    }
+
+    @Benchmark
+    public String getE164Number() {
+        return NumberNormalizer.getE164Number(mCountryIso, rawNumber, null, FORMATTER);
+    }
+
+    @Benchmark
+    public String getE164Number_incomingE164() {
+        return NumberNormalizer.getE164Number(mCountryIso, rawNumber, "+16505551212", FORMATTER);
+    }
+}
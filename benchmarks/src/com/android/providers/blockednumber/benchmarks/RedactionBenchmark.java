@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber.benchmarks;
+
+import com.android.providers.blockednumber.PhoneNumberRedactor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of obfuscating numbers for logging.  Run with {@code -prof gc} to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedactionBenchmark {
+    private static final int NUM_DIALABLE_DIGITS_TO_LOG = 2;
+
+    @Param({"+16505551212", "(650) 555-1212", "spam@example.com"})
+    public String number;
+
+    private final StringBuilder mBuilder = new StringBuilder(64);
+
+    @Benchmark
+    public String obfuscatePhoneNumber() {
+        return PhoneNumberRedactor.obfuscatePhoneNumber(number, NUM_DIALABLE_DIGITS_TO_LOG);
+    }
+
+    @Benchmark
+    public int obfuscatePhoneNumber_reusedBuilder() {
+        mBuilder.setLength(0);
+        PhoneNumberRedactor.obfuscatePhoneNumber(mBuilder, number, NUM_DIALABLE_DIGITS_TO_LOG);
+        return mBuilder.length();
+    }
+}
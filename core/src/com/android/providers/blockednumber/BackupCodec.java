@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes and decodes the backup entities and the backup state file written by
+ * {@code BlockedNumberBackupAgent}.
+ */
+public final class BackupCodec {
+    /** Version of the single row backup entities, keyed by row id. */
+    public static final int VERSION = 1;
+
+    /** Version of the bucket entities, each holding the rows of one range of ids. */
+    public static final int BUCKET_VERSION = 2;
+
+    /**
+     * Version of the bucket entities holding a row that expires, which end with the expiry time
+     * of each row.  Buckets without one keep {@link #BUCKET_VERSION}, so that older versions can
+     * still restore them.
+     */
+    public static final int BUCKET_VERSION_EXPIRY = 3;
+
+    /** {@link Entry#expiresAt} of a row that does not expire. */
+    public static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    /** Number of consecutive ids covered by one bucket entity. */
+    public static final int BUCKET_SIZE = 256;
+
+    private static final String BUCKET_KEY_PREFIX = "bucket_";
+
+    /** Set in a bucket's flags when its payload is deflated. */
+    private static final int BUCKET_FLAG_DEFLATED = 1;
+
+    /**
+     * Versions of the state file, which is kept on the device between backup passes.  Versions 1
+     * and 2 record the ids of single row entities, version 3 the ids of the rows in the bucket
+     * entities, version 4 adds the change journal generation they were read at, and version 5 the
+     * id of the database they were read from.
+     */
+    public static final int STATE_VERSION_1 = 1;
+    public static final int STATE_VERSION_2 = 2;
+    public static final int STATE_VERSION_3 = 3;
+    public static final int STATE_VERSION_4 = 4;
+    public static final int STATE_VERSION_5 = 5;
+
+    /** {@link State#generation} when it is not known. */
+    public static final long NO_GENERATION = -1;
+
+    private BackupCodec() {
+    }
+
+    /**
+     * Thrown when data was written by a newer version of the format than this one supports.
+     */
+    public static class UnsupportedVersionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public UnsupportedVersionException(int version, int supportedVersion) {
+            super("Backup version " + version + " is newer than the current supported version, "
+                    + supportedVersion);
+        }
+
+        UnsupportedVersionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A blocked number read from a backup entity.
+     */
+    public static final class Entry {
+        /** The row id on the device that was backed up. */
+        public final int id;
+        public final String originalNumber;
+        public final String e164Number;
+        /** When the block ends, in milliseconds since the epoch, or {@link #NO_EXPIRY}. */
+        public final long expiresAt;
+
+        public Entry(int id, String originalNumber, String e164Number) {
+            this(id, originalNumber, e164Number, NO_EXPIRY);
+        }
+
+        public Entry(int id, String originalNumber, String e164Number, long expiresAt) {
+            this.id = id;
+            this.originalNumber = originalNumber;
+            this.e164Number = e164Number;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static @NonNull byte[] encodeBlockedNumber(@Nullable String originalNumber,
+            @Nullable String e164Number) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(VERSION);
+        writeString(dataOutputStream, originalNumber);
+        writeString(dataOutputStream, e164Number);
+        dataOutputStream.flush();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Decodes a single row entity.
+     *
+     * @param id The row id, from the entity key.
+     */
+    public static @NonNull Entry decodeBlockedNumber(int id, @NonNull byte[] data)
+            throws IOException {
+        DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(data));
+        int version = dataInput.readInt();
+        if (version > VERSION) {
+            throw new UnsupportedVersionException(version, VERSION);
+        }
+        return new Entry(id, readString(dataInput), readString(dataInput));
+    }
+
+    /**
+     * @return The bucket holding {@code id}.
+     */
+    public static int getBucket(int id) {
+        return id / BUCKET_SIZE;
+    }
+
+    public static @NonNull String getBucketKey(int bucket) {
+        return BUCKET_KEY_PREFIX + bucket;
+    }
+
+    /**
+     * @return The bucket named by {@code key}, or -1 if it is not a bucket key.
+     * @throws NumberFormatException If {@code key} is a malformed bucket key.
+     */
+    public static int parseBucketKey(@NonNull String key) {
+        if (!key.startsWith(BUCKET_KEY_PREFIX)) {
+            return -1;
+        }
+        final int bucket = Integer.parseInt(key.substring(BUCKET_KEY_PREFIX.length()));
+        if (bucket < 0) {
+            throw new NumberFormatException("Negative bucket in " + key);
+        }
+        return bucket;
+    }
+
+    /**
+     * Accumulates the rows of one bucket, in ascending id order, and encodes them as a bucket
+     * entity.  Can be reused for the next bucket after {@link #clear()}.
+     */
+    public static final class BucketWriter {
+        private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+        private final DataOutputStream mBodyOut = new DataOutputStream(mBody);
+        private final ByteArrayOutputStream mDeflated = new ByteArrayOutputStream();
+        private final Deflater mDeflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final int[] mIds = new int[BUCKET_SIZE];
+        private final long[] mExpiresAt = new long[BUCKET_SIZE];
+        private boolean mExpires;
+        private int mCount;
+        private int mBucket = -1;
+
+        public void add(int id, @Nullable String originalNumber, @Nullable String e164Number)
+                throws IOException {
+            add(id, originalNumber, e164Number, NO_EXPIRY);
+        }
+
+        /**
+         * @param expiresAt When the block ends, in milliseconds since the epoch, or
+         *                  {@link #NO_EXPIRY}.
+         */
+        public void add(int id, @Nullable String originalNumber, @Nullable String e164Number,
+                long expiresAt) throws IOException {
+            if (mCount == 0) {
+                mBucket = BackupCodec.getBucket(id);
+            } else if (BackupCodec.getBucket(id) != mBucket || id <= mIds[mCount - 1]) {
+                throw new IllegalArgumentException("id " + id + " is out of order");
+            }
+            writeVarint(mBodyOut, id - (mCount == 0 ? mBucket * BUCKET_SIZE : mIds[mCount - 1]));
+            writeString(mBodyOut, originalNumber);
+            writeString(mBodyOut, e164Number);
+            mExpiresAt[mCount] = expiresAt;
+            mExpires |= expiresAt != NO_EXPIRY;
+            mIds[mCount++] = id;
+        }
+
+        public int getBucket() {
+            return mBucket;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public int getId(int index) {
+            return mIds[index];
+        }
+
+        /**
+         * @return The bucket entity, deflated when that makes it smaller.
+         */
+        public @NonNull byte[] encode() throws IOException {
+            mBodyOut.flush();
+            final byte[] rows = mBody.toByteArray();
+            final byte[] body;
+            if (mExpires) {
+                body = Arrays.copyOf(rows, rows.length + mCount * Long.BYTES);
+                final ByteBuffer expiries = ByteBuffer.wrap(body, rows.length,
+                        mCount * Long.BYTES);
+                for (int i = 0; i < mCount; i++) {
+                    expiries.putLong(mExpiresAt[i]);
+                }
+            } else {
+                body = rows;
+            }
+
+            mDeflated.reset();
+            mDeflater.reset();
+            mDeflater.setInput(body);
+            mDeflater.finish();
+            final byte[] buffer = new byte[512];
+            while (!mDeflater.finished()) {
+                mDeflated.write(buffer, 0, mDeflater.deflate(buffer));
+            }
+            final boolean deflate = mDeflated.size() < body.length;
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    9 + (deflate ? mDeflated.size() : body.length));
+            final DataOutputStream dataOutputStream = new DataOutputStream(out);
+            dataOutputStream.writeInt(mExpires ? BUCKET_VERSION_EXPIRY : BUCKET_VERSION);
+            dataOutputStream.writeByte(deflate ? BUCKET_FLAG_DEFLATED : 0);
+            writeVarint(dataOutputStream, mCount);
+            if (deflate) {
+                mDeflated.writeTo(dataOutputStream);
+            } else {
+                dataOutputStream.write(body);
+            }
+            dataOutputStream.flush();
+            return out.toByteArray();
+        }
+
+        public void clear() {
+            mBody.reset();
+            mExpires = false;
+            mCount = 0;
+            mBucket = -1;
+        }
+
+        /** Releases the deflater.  The writer must not be used afterwards. */
+        public void close() {
+            mDeflater.end();
+        }
+    }
+
+    /**
+     * Decodes a bucket entity written by {@link BucketWriter#encode()}.
+     *
+     * @param bucket The bucket, from the entity key.
+     */
+    public static @NonNull List<Entry> decodeBucket(int bucket, @NonNull byte[] data)
+            throws IOException {
+        DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(data));
+        final int version = dataInput.readInt();
+        if (version > BUCKET_VERSION_EXPIRY) {
+            throw new UnsupportedVersionException(version, BUCKET_VERSION_EXPIRY);
+        }
+        final int flags = dataInput.readUnsignedByte();
+        final int count = readVarint(dataInput);
+        if (count < 0 || count > BUCKET_SIZE) {
+            throw new IOException("Invalid bucket size " + count);
+        }
+        if ((flags & BUCKET_FLAG_DEFLATED) != 0) {
+            dataInput = new DataInputStream(new InflaterInputStream(dataInput));
+        }
+        final int[] ids = new int[count];
+        final String[] originalNumbers = new String[count];
+        final String[] e164Numbers = new String[count];
+        long id = (long) bucket * BUCKET_SIZE;
+        for (int i = 0; i < count; i++) {
+            id += readVarint(dataInput) & 0xffffffffL;
+            ids[i] = (int) id;
+            originalNumbers[i] = readString(dataInput);
+            e164Numbers[i] = readString(dataInput);
+        }
+        final List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final long expiresAt =
+                    version >= BUCKET_VERSION_EXPIRY ? dataInput.readLong() : NO_EXPIRY;
+            entries.add(new Entry(ids[i], originalNumbers[i], e164Numbers[i], expiresAt));
+        }
+        return entries;
+    }
+
+    static void writeString(DataOutputStream dataOutputStream, @Nullable String value)
+            throws IOException {
+        if (value == null) {
+            dataOutputStream.writeBoolean(false);
+        } else {
+            dataOutputStream.writeBoolean(true);
+            dataOutputStream.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    static String readString(DataInputStream dataInputStream) throws IOException {
+        if (dataInputStream.readBoolean()) {
+            return dataInputStream.readUTF();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * The state kept between backup passes.
+     */
+    public static final class State {
+        /** The state version, which tells how {@link #ids} were backed up. */
+        public final int version;
+        /**
+         * The id of the database {@link #ids} were read from, or 0 before
+         * {@link #STATE_VERSION_5}.  Row ids and generations start over when the database is
+         * recreated, so they are only comparable within one database.
+         */
+        public final long databaseId;
+        /**
+         * The change journal generation the backup is up to date with, or
+         * {@link #NO_GENERATION}.
+         */
+        public final long generation;
+        /** The ids of the backed up rows, in ascending order. */
+        public final int[] ids;
+
+        public State(int version, long databaseId, long generation, @NonNull int[] ids) {
+            this.version = version;
+            this.databaseId = databaseId;
+            this.generation = generation;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * Reads the state written by the previous backup pass, in any state format.  An empty stream
+     * is an empty state.
+     *
+     * @param in The state, ideally buffered.
+     */
+    public static @NonNull State readState(@NonNull InputStream in) throws IOException {
+        final DataInputStream dataInputStream = new DataInputStream(in);
+        final int version;
+        try {
+            version = dataInputStream.readInt();
+        } catch (EOFException e) {
+            return new State(STATE_VERSION_5, 0, NO_GENERATION, new int[0]);
+        }
+        switch (version) {
+            case STATE_VERSION_1:
+                return new State(version, 0, NO_GENERATION, readStateV1(dataInputStream));
+            case STATE_VERSION_2:
+            case STATE_VERSION_3:
+                return new State(version, 0, NO_GENERATION, readStateV2(dataInputStream));
+            case STATE_VERSION_4:
+            case STATE_VERSION_5:
+                final long databaseId =
+                        version >= STATE_VERSION_5 ? dataInputStream.readLong() : 0;
+                final long generation = dataInputStream.readLong();
+                return new State(version, databaseId, generation,
+                        readStateV2(dataInputStream));
+            default:
+                throw new UnsupportedVersionException("State version " + version
+                        + " is not supported");
+        }
+    }
+
+    /** Version 1 is a plain list of ints up to the end of the stream. */
+    private static int[] readStateV1(DataInputStream in) throws IOException {
+        int[] ids = new int[64];
+        int count = 0;
+        while (true) {
+            final int id;
+            try {
+                id = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Versions 2 to 5 end with a varint count followed by the varint gaps between the sorted ids.
+     */
+    private static int[] readStateV2(DataInputStream in) throws IOException {
+        final int count = readVarint(in);
+        if (count < 0) {
+            throw new IOException("Invalid id count " + count);
+        }
+        // Grow as the ids are read, rather than trusting the count for the allocation.
+        int[] ids = new int[Math.min(count, 1024)];
+        long id = 0;
+        for (int i = 0; i < count; i++) {
+            id += readVarint(in) & 0xffffffffL;
+            if (id > Integer.MAX_VALUE) {
+                throw new IOException("Invalid id " + id);
+            }
+            if (i == ids.length) {
+                ids = Arrays.copyOf(ids, (int) Math.min(count, (long) i * 2));
+            }
+            ids[i] = (int) id;
+        }
+        return ids;
+    }
+
+    /**
+     * Writes {@code state} in the current state format, {@link #STATE_VERSION_5}, regardless of
+     * its version.  The caller is responsible for buffering and flushing {@code out}.
+     */
+    public static void writeState(@NonNull OutputStream out, @NonNull State state)
+            throws IOException {
+        final DataOutputStream dataOutputStream = new DataOutputStream(out);
+        dataOutputStream.writeInt(STATE_VERSION_5);
+        dataOutputStream.writeLong(state.databaseId);
+        dataOutputStream.writeLong(state.generation);
+        writeVarint(dataOutputStream, state.ids.length);
+        int previous = 0;
+        for (int id : state.ids) {
+            if (id < previous) {
+                throw new IllegalArgumentException("ids are not sorted");
+            }
+            writeVarint(dataOutputStream, id - previous);
+            previous = id;
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the canonical forms of the numbers in the blocked table.
+ *
+ * <p>A negative answer from {@link #mightContain} means the key was never added.  Bits are kept
+ * in an {@link AtomicLongArray}, so lookups never take a lock and may run concurrently with
+ * {@link #put}.
+ */
+public class BlockedNumberBloomFilter {
+    private static final int FILE_MAGIC = 0x424e4246; // "BNBF"
+    private static final int FILE_VERSION = 1;
+
+    private static final int MIN_NUM_BITS = 1024;
+    private static final int MAX_NUM_HASHES = 16;
+    private static final double LN2 = Math.log(2);
+
+    private final int mNumBits;
+    private final int mNumHashes;
+    private final AtomicLongArray mBits;
+    private final AtomicInteger mNumKeys;
+
+    private BlockedNumberBloomFilter(int numBits, int numHashes, long[] bits, int numKeys) {
+        mNumBits = numBits;
+        mNumHashes = numHashes;
+        mBits = new AtomicLongArray(bits);
+        mNumKeys = new AtomicInteger(numKeys);
+    }
+
+    /**
+     * Creates an empty filter sized for {@code expectedKeys} keys at a false positive rate of
+     * {@code fpp}, but never larger than {@code maxBytes}.
+     */
+    public static @NonNull BlockedNumberBloomFilter create(int expectedKeys, double fpp,
+            int maxBytes) {
+        if (expectedKeys < 1 || fpp <= 0 || fpp >= 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Invalid bloom filter parameters: expectedKeys="
+                    + expectedKeys + ", fpp=" + fpp + ", maxBytes=" + maxBytes);
+        }
+        final long optimalBits = (long) Math.ceil(-expectedKeys * Math.log(fpp) / (LN2 * LN2));
+        final long maxBits = Math.min((long) maxBytes * 8, Integer.MAX_VALUE - 63);
+        long numBits = Math.max(MIN_NUM_BITS, Math.min(optimalBits, maxBits));
+        numBits = (numBits + 63) & ~63L;
+        final int numHashes = (int) Math.max(1, Math.min(MAX_NUM_HASHES,
+                Math.round((double) numBits / expectedKeys * LN2)));
+        return new BlockedNumberBloomFilter((int) numBits, numHashes,
+                new long[(int) (numBits >>> 6)], 0);
+    }
+
+    /**
+     * Adds {@code key} to the filter.
+     */
+    public void put(@NonNull String key) {
+        final long hash = hash64(key, 0);
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= mNumHashes; i++) {
+            final int bit = bitIndex(h1 + i * h2);
+            final int word = bit >>> 6;
+            final long mask = 1L << bit;
+            long old;
+            do {
+                old = mBits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!mBits.compareAndSet(word, old, old | mask));
+        }
+        mNumKeys.incrementAndGet();
+    }
+
+    /**
+     * @return {@code false} if {@code key} was definitely never added, {@code true} if it might
+     * have been.
+     */
+    public boolean mightContain(@NonNull String key) {
+        final long hash = hash64(key, 0);
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= mNumHashes; i++) {
+            final int bit = bitIndex(h1 + i * h2);
+            if ((mBits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int bitIndex(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % mNumBits;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units of {@code key}, followed by the MurmurHash3
+     * finalizer so that both halves are usable for double hashing.  Does not allocate.
+     */
+    static long hash64(@NonNull String key, long seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return The number of keys added, counting duplicates.
+     */
+    public int getNumKeys() {
+        return mNumKeys.get();
+    }
+
+    public int getNumBits() {
+        return mNumBits;
+    }
+
+    public int getNumHashes() {
+        return mNumHashes;
+    }
+
+    public int getSizeBytes() {
+        return mNumBits / 8;
+    }
+
+    /**
+     * @return The false positive rate expected for the current number of keys.
+     */
+    public double getExpectedFpp() {
+        return Math.pow(1 - Math.exp(-(double) mNumHashes * getNumKeys() / mNumBits), mNumHashes);
+    }
+
+    /**
+     * @return A copy of this filter which is not affected by later calls to {@link #put}.
+     */
+    public @NonNull BlockedNumberBloomFilter copy() {
+        final long[] bits = new long[mBits.length()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = mBits.get(i);
+        }
+        return new BlockedNumberBloomFilter(mNumBits, mNumHashes, bits, getNumKeys());
+    }
+
+    public void writeTo(@NonNull DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(mNumBits);
+        out.writeInt(mNumHashes);
+        out.writeInt(getNumKeys());
+        for (int i = 0; i < mBits.length(); i++) {
+            out.writeLong(mBits.get(i));
+        }
+    }
+
+    public static @NonNull BlockedNumberBloomFilter readFrom(@NonNull DataInputStream in)
+            throws IOException {
+        if (in.readInt() != FILE_MAGIC) {
+            throw new IOException("Not a bloom filter file");
+        }
+        final int version = in.readInt();
+        if (version != FILE_VERSION) {
+            throw new IOException("Unsupported bloom filter version " + version);
+        }
+        final int numBits = in.readInt();
+        final int numHashes = in.readInt();
+        final int numKeys = in.readInt();
+        if (numBits < MIN_NUM_BITS || (numBits & 63) != 0 || numHashes < 1
+                || numHashes > MAX_NUM_HASHES || numKeys < 0) {
+            throw new IOException("Corrupt bloom filter header");
+        }
+        final long[] bits = new long[numBits >>> 6];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BlockedNumberBloomFilter(numBits, numHashes, bits, numKeys);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Format of the read-only snapshot of the blocked keys (original and E164 numbers) that the
+ * provider shares with system clients, and lookups over it without copying.
+ *
+ * <p>Layout, little endian:
+ * <pre>
+ *   int magic, int format version, long list generation, int key count n, int expiring keys m
+ *   int[n + 1] key offsets into the string table, the keys sorted by their UTF-8 bytes
+ *   (int key index, long expires at)[m], sorted by key index
+ *   byte[] string table: the UTF-8 keys, back to back
+ * </pre>
+ *
+ * <p>A number is blocked if the snapshot contains the number or its E164 form, the same rule as
+ * {@code BlockedNumberContract.isBlocked}.  A key that expires is only contained until its expiry
+ * time, so a snapshot stays correct without being rebuilt when a block ends.
+ */
+public final class BlockedNumberSnapshot {
+    public static final int MAGIC = 0x53534e42; // "BNSS"
+    public static final int FORMAT_VERSION = 2;
+
+    /** Expiry time of a key that does not expire. */
+    public static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private static final int GENERATION_OFFSET = 8;
+    private static final int KEY_COUNT_OFFSET = 16;
+    private static final int EXPIRING_COUNT_OFFSET = 20;
+    private static final int HEADER_SIZE = 24;
+    private static final int EXPIRY_SIZE = 12;
+
+    private BlockedNumberSnapshot() {
+    }
+
+    /**
+     * @return The distinct UTF-8 encoded {@code keys}, sorted as the snapshot expects.
+     */
+    public static @NonNull byte[][] sortKeys(@NonNull Collection<String> keys) {
+        final byte[][] encoded = new byte[keys.size()][];
+        int i = 0;
+        for (String key : keys) {
+            encoded[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(encoded, BlockedNumberSnapshot::compare);
+        int unique = 0;
+        for (i = 0; i < encoded.length; i++) {
+            if (unique == 0 || compare(encoded[unique - 1], encoded[i]) != 0) {
+                encoded[unique++] = encoded[i];
+            }
+        }
+        return Arrays.copyOf(encoded, unique);
+    }
+
+    /**
+     * @return The size of the snapshot of {@code sortedKeys}.
+     */
+    public static int getSize(@NonNull byte[][] sortedKeys) {
+        return getSize(sortedKeys, null);
+    }
+
+    /**
+     * @param expiresAt The expiry time of each of {@code sortedKeys}, in milliseconds since the
+     *                  epoch or {@link #NO_EXPIRY}, or {@code null} if none expires.
+     * @return The size of the snapshot of {@code sortedKeys}.
+     */
+    public static int getSize(@NonNull byte[][] sortedKeys, @Nullable long[] expiresAt) {
+        long size = HEADER_SIZE + 4L * (sortedKeys.length + 1)
+                + (long) EXPIRY_SIZE * getExpiringCount(expiresAt);
+        for (byte[] key : sortedKeys) {
+            size += key.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keys: " + sortedKeys.length);
+        }
+        return (int) size;
+    }
+
+    private static int getExpiringCount(@Nullable long[] expiresAt) {
+        int count = 0;
+        if (expiresAt != null) {
+            for (long time : expiresAt) {
+                if (time != NO_EXPIRY) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the snapshot of {@code sortedKeys}, as returned by {@link #sortKeys}, at the start of
+     * {@code out}, which must have {@link #getSize} bytes left.
+     */
+    public static void write(@NonNull ByteBuffer out, long generation,
+            @NonNull byte[][] sortedKeys) {
+        write(out, generation, sortedKeys, null);
+    }
+
+    /**
+     * Same as {@link #write(ByteBuffer, long, byte[][])}, for keys that may expire.
+     *
+     * @param expiresAt The expiry time of each of {@code sortedKeys}, in milliseconds since the
+     *                  epoch or {@link #NO_EXPIRY}, or {@code null} if none expires.
+     */
+    public static void write(@NonNull ByteBuffer out, long generation,
+            @NonNull byte[][] sortedKeys, @Nullable long[] expiresAt) {
+        if (expiresAt != null && expiresAt.length != sortedKeys.length) {
+            throw new IllegalArgumentException("Expected " + sortedKeys.length + " expiry times");
+        }
+        final ByteBuffer buf = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putInt(FORMAT_VERSION);
+        buf.putLong(generation);
+        buf.putInt(sortedKeys.length);
+        buf.putInt(getExpiringCount(expiresAt));
+        int offset = 0;
+        for (byte[] key : sortedKeys) {
+            buf.putInt(offset);
+            offset += key.length;
+        }
+        buf.putInt(offset);
+        for (int i = 0; expiresAt != null && i < expiresAt.length; i++) {
+            if (expiresAt[i] != NO_EXPIRY) {
+                buf.putInt(i);
+                buf.putLong(expiresAt[i]);
+            }
+        }
+        for (byte[] key : sortedKeys) {
+            buf.put(key);
+        }
+    }
+
+    /**
+     * @return The list generation {@code snapshot} was taken at.
+     * @throws IllegalArgumentException if {@code snapshot} is not in a supported format.
+     */
+    public static long getGeneration(@NonNull ByteBuffer snapshot) {
+        final ByteBuffer buf = checkHeader(snapshot);
+        return buf.getLong(GENERATION_OFFSET);
+    }
+
+    /**
+     * @return The number of keys in {@code snapshot}.
+     * @throws IllegalArgumentException if {@code snapshot} is not in a supported format.
+     */
+    public static int getKeyCount(@NonNull ByteBuffer snapshot) {
+        return checkHeader(snapshot).getInt(KEY_COUNT_OFFSET);
+    }
+
+    /**
+     * Same as {@link #contains(ByteBuffer, String, long)} at the current time.
+     */
+    public static boolean contains(@NonNull ByteBuffer snapshot, @NonNull String key) {
+        return contains(snapshot, key, System.currentTimeMillis());
+    }
+
+    /**
+     * @param nowMillis The current time in milliseconds since the epoch.
+     * @return Whether {@code snapshot} holds {@code key} and it has not expired by
+     * {@code nowMillis}.  Binary search; allocates only the encoded key.
+     * @throws IllegalArgumentException if {@code snapshot} is not in a supported format.
+     */
+    public static boolean contains(@NonNull ByteBuffer snapshot, @NonNull String key,
+            long nowMillis) {
+        final ByteBuffer buf = checkHeader(snapshot);
+        final byte[] encoded = key.getBytes(StandardCharsets.UTF_8);
+        final int count = buf.getInt(KEY_COUNT_OFFSET);
+        final int expiries = HEADER_SIZE + 4 * (count + 1);
+        final int expiringCount = buf.getInt(EXPIRING_COUNT_OFFSET);
+        final int strings = expiries + EXPIRY_SIZE * expiringCount;
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int start = buf.getInt(HEADER_SIZE + 4 * mid);
+            final int end = buf.getInt(HEADER_SIZE + 4 * (mid + 1));
+            final int cmp = compare(buf, strings + start, end - start, encoded);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return getExpiresAt(buf, expiries, expiringCount, mid) > nowMillis;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The expiry time of the key at {@code index}, found by binary search of the
+     * {@code count} expiry entries at {@code offset}.
+     */
+    private static long getExpiresAt(ByteBuffer buf, int offset, int count, int index) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int entry = offset + EXPIRY_SIZE * mid;
+            final int cmp = Integer.compare(buf.getInt(entry), index);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return buf.getLong(entry + 4);
+            }
+        }
+        return NO_EXPIRY;
+    }
+
+    private static ByteBuffer checkHeader(ByteBuffer snapshot) {
+        final ByteBuffer buf = snapshot.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a blocked number snapshot");
+        }
+        if (buf.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + buf.getInt(4));
+        }
+        return buf;
+    }
+
+    private static int compare(ByteBuffer buf, int offset, int length, byte[] key) {
+        final int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            final int cmp = Integer.compare(buf.get(offset + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        final int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            final int cmp = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+}
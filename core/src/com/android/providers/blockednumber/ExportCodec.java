@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Format of the blocked list export stream.
+ *
+ * <p>Layout, big endian:
+ * <pre>
+ *   int magic, int format version
+ *   varint column count n, n modified UTF-8 column names (the columns besides the id)
+ *   rows, in ascending id order: varint id delta from the previous row (from 0 for the first),
+ *       then n nullable strings
+ *   varint 0
+ * </pre>
+ *
+ * <p>Ids are strictly increasing, so a delta of 0 ends the stream; a stream without it was cut
+ * short.
+ */
+public final class ExportCodec {
+    public static final int MAGIC = 0x424e4558; // "BNEX"
+    public static final int FORMAT_VERSION = 1;
+
+    private ExportCodec() {
+    }
+
+    /**
+     * A row of the export.
+     */
+    public static final class Row {
+        public final long id;
+        /** The values of {@link Reader#getColumns()}. */
+        public final String[] values;
+
+        public Row(long id, @NonNull String[] values) {
+            this.id = id;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Writes an export stream, one row at a time.
+     */
+    public static final class Writer {
+        private final DataOutputStream mOut;
+        private final int mColumnCount;
+        private long mLastId;
+
+        public Writer(@NonNull OutputStream out, @NonNull String[] columns) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+            mColumnCount = columns.length;
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(FORMAT_VERSION);
+            writeVarlong(mOut, columns.length);
+            for (String column : columns) {
+                mOut.writeUTF(column);
+            }
+        }
+
+        /**
+         * @param id Greater than the id of the previous row.
+         * @param values One value per column.
+         */
+        public void add(long id, @NonNull String[] values) throws IOException {
+            if (id <= mLastId) {
+                throw new IllegalArgumentException("id " + id + " is out of order");
+            }
+            if (values.length != mColumnCount) {
+                throw new IllegalArgumentException("Expected " + mColumnCount + " values");
+            }
+            writeVarlong(mOut, id - mLastId);
+            for (String value : values) {
+                BackupCodec.writeString(mOut, value);
+            }
+            mLastId = id;
+        }
+
+        /** Ends the stream and flushes it.  Does not close the output stream. */
+        public void finish() throws IOException {
+            writeVarlong(mOut, 0);
+            mOut.flush();
+        }
+    }
+
+    /**
+     * Reads an export stream, one row at a time.
+     */
+    public static final class Reader {
+        private final DataInputStream mIn;
+        private final String[] mColumns;
+        private long mLastId;
+        private boolean mFinished;
+
+        public Reader(@NonNull InputStream in) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(in));
+            if (mIn.readInt() != MAGIC) {
+                throw new IOException("Not a blocked number export");
+            }
+            final int version = mIn.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported export version " + version);
+            }
+            final long columnCount = readVarlong(mIn);
+            if (columnCount > Short.MAX_VALUE) {
+                throw new IOException("Too many columns: " + columnCount);
+            }
+            mColumns = new String[(int) columnCount];
+            for (int i = 0; i < mColumns.length; i++) {
+                mColumns[i] = mIn.readUTF();
+            }
+        }
+
+        /** @return The names of the columns besides the id. */
+        public @NonNull String[] getColumns() {
+            return mColumns.clone();
+        }
+
+        /**
+         * @return The next row, or {@code null} at the end of the stream.
+         * @throws java.io.EOFException if the stream was cut short.
+         */
+        public @Nullable Row next() throws IOException {
+            if (mFinished) {
+                return null;
+            }
+            final long delta = readVarlong(mIn);
+            if (delta == 0) {
+                mFinished = true;
+                return null;
+            }
+            final String[] values = new String[mColumns.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = BackupCodec.readString(mIn);
+            }
+            mLastId += delta;
+            return new Row(mLastId, values);
+        }
+    }
+
+    private static void writeVarlong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarlong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed memory estimate of the most frequently screened numbers, blocked or not.
+ *
+ * <p>Every number is counted under a keyed 64-bit hash of its dialable characters, so
+ * "+1-408-454-1111" and "+14084541111" count as one number; the sketch never holds the numbers
+ * themselves.  The hashes are spread over {@link #STRIPE_COUNT} stripes, each with its own lock,
+ * so concurrent lookups rarely contend.  A stripe counts its numbers in a count-min sketch of
+ * {@link #DEPTH} rows of {@link #WIDTH} counters, and keeps its heaviest numbers in a fixed
+ * number of space-saving slots: a number that is not in a slot takes the lightest slot once its
+ * sketch estimate exceeds that slot's count.  Counts are overestimates, by at most the error
+ * reported with each entry.
+ *
+ * <p>Counts are halved at the end of every window, so they decay with a half-life of one
+ * window and recent traffic dominates.  {@link #record} takes constant time and never allocates.
+ */
+public final class HeavyHitterSketch {
+    /** A power of two. */
+    public static final int STRIPE_COUNT = 8;
+    public static final int DEPTH = 4;
+    /** The counters per row of each stripe; a power of two. */
+    public static final int WIDTH = 256;
+
+    private static final int MIN_STRIPE_CAPACITY = 4;
+
+    /** The hash of a number and its estimated count, as returned by {@link #getTop}. */
+    public static final class Entry {
+        /** The keyed hash of the number, as returned by {@link #getHash}. */
+        public final long hash;
+        /** The decayed count; an overestimate by at most {@link #error}. */
+        public final long count;
+        public final long error;
+
+        Entry(long hash, long count, long error) {
+            this.hash = hash;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    private static final class Stripe {
+        final long[] mSketch = new long[DEPTH * WIDTH];
+
+        // Space-saving slots; a slot is free when its count is 0.
+        final long[] mSlotHashes;
+        final long[] mSlotCounts;
+        final long[] mSlotErrors;
+
+        /** Decayed count of the numbers recorded in this stripe. */
+        long mTotal;
+
+        /** The window the counts were last decayed in. */
+        long mWindow;
+
+        Stripe(int capacity) {
+            mSlotHashes = new long[capacity];
+            mSlotCounts = new long[capacity];
+            mSlotErrors = new long[capacity];
+        }
+
+        void add(long hash) {
+            mTotal++;
+
+            // Always counted in the sketch, so an evicted number keeps its history.
+            final int h1 = (int) hash;
+            final int h2 = (int) (hash >>> 32) | 1;
+            long estimate = Long.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                estimate = Math.min(estimate, mSketch[index(i, h1, h2)]);
+            }
+            estimate++;
+            // Conservative update: only the counters below the new estimate grow, which keeps
+            // collisions from inflating the estimates of light numbers.
+            for (int i = 0; i < DEPTH; i++) {
+                final int index = index(i, h1, h2);
+                mSketch[index] = Math.max(mSketch[index], estimate);
+            }
+
+            int lightest = 0;
+            for (int i = 0; i < mSlotHashes.length; i++) {
+                if (mSlotCounts[i] != 0 && mSlotHashes[i] == hash) {
+                    mSlotCounts[i]++;
+                    return;
+                }
+                if (mSlotCounts[i] < mSlotCounts[lightest]) {
+                    lightest = i;
+                }
+            }
+            // A free slot is always the lightest.
+            if (estimate > mSlotCounts[lightest]) {
+                mSlotHashes[lightest] = hash;
+                mSlotCounts[lightest] = estimate;
+                mSlotErrors[lightest] = estimate - 1;
+            }
+        }
+
+        /**
+         * Halves all counts once per window elapsed since the last decay.
+         */
+        void decay(long window) {
+            if (window <= mWindow) {
+                return;
+            }
+            final int shift = (int) Math.min(window - mWindow, Long.SIZE - 1);
+            mWindow = window;
+            for (int i = 0; i < mSketch.length; i++) {
+                mSketch[i] >>>= shift;
+            }
+            for (int i = 0; i < mSlotCounts.length; i++) {
+                mSlotCounts[i] >>>= shift;
+                mSlotErrors[i] >>>= shift;
+            }
+            mTotal >>>= shift;
+        }
+    }
+
+    private final long mSalt;
+    private final long mWindowMillis;
+
+    private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+
+    /** Start of the first window, set by the first call. */
+    private final AtomicLong mOriginMillis = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param capacity The number of heavy hitters tracked.  Each stripe has slots for twice its
+     *                 share, so that heavy hitters hashed to the same stripe are all kept.
+     * @param windowMillis The decay half-life.
+     * @param salt Key of the number hashes.
+     */
+    public HeavyHitterSketch(int capacity, long windowMillis, long salt) {
+        if (capacity <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or window "
+                    + windowMillis);
+        }
+        mSalt = salt;
+        mWindowMillis = windowMillis;
+        final int stripeCapacity = Math.min(capacity, Math.max(MIN_STRIPE_CAPACITY,
+                2 * ((capacity + STRIPE_COUNT - 1) / STRIPE_COUNT)));
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * Counts one screening of {@code number}.
+     *
+     * @param nowMillis A monotonic clock, such as {@code SystemClock.elapsedRealtime()}.
+     */
+    public void record(@NonNull String number, long nowMillis) {
+        final long window = getWindow(nowMillis);
+        final long hash = getHash(number);
+        final Stripe stripe = mStripes[(int) (hash >>> 60) & (STRIPE_COUNT - 1)];
+        synchronized (stripe) {
+            stripe.decay(window);
+            stripe.add(hash);
+        }
+    }
+
+    private static int index(int row, int h1, int h2) {
+        return row * WIDTH + ((h1 + row * h2) & (WIDTH - 1));
+    }
+
+    /**
+     * @return Up to {@code max} heavy hitters, heaviest first.
+     */
+    public @NonNull List<Entry> getTop(int max, long nowMillis) {
+        final long window = getWindow(nowMillis);
+        final ArrayList<Entry> entries = new ArrayList<>();
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                stripe.decay(window);
+                for (int i = 0; i < stripe.mSlotCounts.length; i++) {
+                    if (stripe.mSlotCounts[i] != 0) {
+                        entries.add(new Entry(stripe.mSlotHashes[i], stripe.mSlotCounts[i],
+                                stripe.mSlotErrors[i]));
+                    }
+                }
+            }
+        }
+        entries.sort((a, b) -> Long.compare(b.count, a.count));
+        return entries.size() > max ? new ArrayList<>(entries.subList(0, max)) : entries;
+    }
+
+    /**
+     * @return The decayed count of all numbers recorded.
+     */
+    public long getTotal(long nowMillis) {
+        final long window = getWindow(nowMillis);
+        long total = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                stripe.decay(window);
+                total += stripe.mTotal;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of windows elapsed between the first call and {@code nowMillis}.
+     */
+    private long getWindow(long nowMillis) {
+        long origin = mOriginMillis.get();
+        if (origin == Long.MIN_VALUE) {
+            mOriginMillis.compareAndSet(Long.MIN_VALUE, nowMillis);
+            origin = mOriginMillis.get();
+        }
+        return Math.max(0, (nowMillis - origin) / mWindowMillis);
+    }
+
+    /**
+     * Hashes the dialable characters of {@code number}, or all of them if it has none, such as an
+     * email address, keyed by the salt of this sketch.  Lets a caller that already has candidate
+     * numbers tell which of them an {@link Entry} is.
+     */
+    public long getHash(@NonNull String number) {
+        final boolean dialable = PhoneNumberRedactor.getDialableCount(number) > 0;
+        long h = 0xcbf29ce484222325L ^ mSalt;
+        for (int i = 0; i < number.length(); i++) {
+            final char c = number.charAt(i);
+            if (!dialable || PhoneNumberRedactor.isDialable(c)) {
+                h ^= c;
+                h *= 0x100000001b3L;
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
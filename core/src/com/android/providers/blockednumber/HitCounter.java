@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Match counts and last match times of blocked rows, accumulated in memory between flushes to
+ * the database.
+ *
+ * <p>Rows are spread by id over {@link #STRIPE_COUNT} stripes, each an open addressing table
+ * with its own lock, so concurrent lookups rarely contend and recording a hit allocates nothing
+ * once the row is in its stripe.
+ */
+public final class HitCounter {
+    /** A power of two. */
+    public static final int STRIPE_COUNT = 16;
+
+    private static final int MIN_CAPACITY = 8;
+
+    /** Hits taken out of the counter by {@link #drain}, in no particular order. */
+    public static final class Batch {
+        public final long[] ids;
+        public final long[] counts;
+        /** The last hit time of each row, as passed to {@link #record}. */
+        public final long[] lastHitMillis;
+        public final int size;
+
+        Batch(long[] ids, long[] counts, long[] lastHitMillis, int size) {
+            this.ids = ids;
+            this.counts = counts;
+            this.lastHitMillis = lastHitMillis;
+            this.size = size;
+        }
+    }
+
+    private static final class Stripe {
+        /** 0 marks a free slot; row ids start at 1. */
+        long[] mIds = new long[MIN_CAPACITY];
+        long[] mCounts = new long[MIN_CAPACITY];
+        long[] mLastHits = new long[MIN_CAPACITY];
+        int mSize;
+
+        void add(long id, long count, long lastHitMillis) {
+            if ((mSize + 1) * 2 > mIds.length) {
+                rehash(mIds.length * 2);
+            }
+            final int mask = mIds.length - 1;
+            for (int i = mix(id) & mask; ; i = (i + 1) & mask) {
+                if (mIds[i] == id) {
+                    mCounts[i] += count;
+                    mLastHits[i] = Math.max(mLastHits[i], lastHitMillis);
+                    return;
+                }
+                if (mIds[i] == 0) {
+                    mIds[i] = id;
+                    mCounts[i] = count;
+                    mLastHits[i] = lastHitMillis;
+                    mSize++;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return A stripe holding the contents of this one, which is left empty.
+         */
+        Stripe takeAll() {
+            final Stripe taken = new Stripe();
+            final long[] ids = taken.mIds;
+            final long[] counts = taken.mCounts;
+            final long[] lastHits = taken.mLastHits;
+            taken.mIds = mIds;
+            taken.mCounts = mCounts;
+            taken.mLastHits = mLastHits;
+            taken.mSize = mSize;
+            mIds = ids;
+            mCounts = counts;
+            mLastHits = lastHits;
+            mSize = 0;
+            return taken;
+        }
+
+        private void rehash(int newLength) {
+            final long[] ids = mIds;
+            final long[] counts = mCounts;
+            final long[] lastHits = mLastHits;
+            mIds = new long[newLength];
+            mCounts = new long[newLength];
+            mLastHits = new long[newLength];
+            mSize = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != 0) {
+                    add(ids[i], counts[i], lastHits[i]);
+                }
+            }
+        }
+    }
+
+    private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+
+    /** Set by the first hit after a {@link #drain}. */
+    private final AtomicBoolean mPending = new AtomicBoolean();
+
+    public HitCounter() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe();
+        }
+    }
+
+    private static int mix(long id) {
+        final long h = id * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Counts a match of row {@code id}.
+     *
+     * @return {@code true} for the first hit since the last {@link #drain}, so that the caller
+     * schedules a flush.
+     */
+    public boolean record(long id, long nowMillis) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("Invalid row id " + id);
+        }
+        final Stripe stripe = mStripes[(mix(id) >>> 16) & (STRIPE_COUNT - 1)];
+        synchronized (stripe) {
+            stripe.add(id, 1, nowMillis);
+        }
+        return !mPending.get() && mPending.compareAndSet(false, true);
+    }
+
+    /**
+     * @return The number of rows with hits not drained yet.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                size += stripe.mSize;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Takes out all of the hits recorded so far.  A hit recorded concurrently is either in the
+     * returned batch or left for the next one.
+     */
+    public @NonNull Batch drain() {
+        // Cleared first, so a hit that misses this batch schedules another flush.
+        mPending.set(false);
+        final Stripe[] taken = new Stripe[STRIPE_COUNT];
+        int size = 0;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            final Stripe stripe = mStripes[i];
+            synchronized (stripe) {
+                taken[i] = stripe.takeAll();
+            }
+            size += taken[i].mSize;
+        }
+
+        final long[] ids = new long[size];
+        final long[] counts = new long[size];
+        final long[] lastHits = new long[size];
+        int n = 0;
+        for (Stripe stripe : taken) {
+            for (int i = 0; i < stripe.mIds.length; i++) {
+                if (stripe.mIds[i] != 0) {
+                    ids[n] = stripe.mIds[i];
+                    counts[n] = stripe.mCounts[i];
+                    lastHits[n] = stripe.mLastHits[i];
+                    n++;
+                }
+            }
+        }
+        return new Batch(ids, counts, lastHits, size);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+/**
+ * Platform independent rules for deriving the {@code e164_number} column from an
+ * {@code original_number}.  The actual formatting is supplied by the caller, so the same rules
+ * run on the device (with {@code PhoneNumberUtils}) and on the host (with libphonenumber).
+ */
+public final class NumberNormalizer {
+    private NumberNormalizer() {
+    }
+
+    /**
+     * Formats a phone number as E.164.
+     *
+     * @param <T> Whatever the formatter needs to find the current country, e.g. a Context.
+     */
+    public interface E164Formatter<T> {
+        /**
+         * @return The E.164 form of {@code rawNumber}, or {@code null} if it is not valid.
+         */
+        @Nullable String formatNumberToE164(T environment, @NonNull String rawNumber);
+    }
+
+    /**
+     * Converts a phone number to an E164 number.  If {@code incomingE164Number} is provided, it is
+     * returned as is.  If the number is not valid, returns "".
+     *
+     * <p>Special case: if {@code rawNumber} contains '@', it's considered as an email address and
+     * returned unmodified.
+     */
+    public static @NonNull <T> String getE164Number(T environment, @Nullable String rawNumber,
+            @Nullable String incomingE164Number, @NonNull E164Formatter<T> formatter) {
+        if (rawNumber != null && rawNumber.indexOf('@') >= 0) {
+            return rawNumber;
+        }
+        if (incomingE164Number != null && !incomingE164Number.isEmpty()) {
+            return incomingE164Number;
+        }
+        if (rawNumber == null || rawNumber.isEmpty()) {
+            return "";
+        }
+        final String e164 = formatter.formatNumberToE164(environment, rawNumber);
+        return e164 == null ? "" : e164;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Digit substring search over blocked numbers.
+ *
+ * <p>A number is indexed by the trigrams of the digits of its original and E164 forms: every run
+ * of three consecutive digits, ignoring separators, encoded as an int in [0, 999].  A number can
+ * only contain a query's digits if it has all of the query's trigrams, so the index narrows the
+ * candidates, and {@link #getMatchRank} confirms and ranks each of them.
+ */
+public final class NumberSearch {
+    /** The number of digits in a trigram; queries with fewer digits cannot use the index. */
+    public static final int TRIGRAM_LENGTH = 3;
+
+    /** All of the query digits make up the number. */
+    public static final int RANK_EXACT = 0;
+    /** The number starts with the query digits. */
+    public static final int RANK_PREFIX = 1;
+    /** The number ends with the query digits. */
+    public static final int RANK_SUFFIX = 2;
+    /** The query digits are somewhere else in the number. */
+    public static final int RANK_CONTAINS = 3;
+    public static final int NO_MATCH = -1;
+
+    private NumberSearch() {
+    }
+
+    /**
+     * @return The dialable digits 0-9 of {@code number}, in order.
+     */
+    public static @NonNull String getDigits(@Nullable String number) {
+        if (number == null) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            final char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The distinct trigrams of the digits of all {@code numbers}, sorted.
+     */
+    public static @NonNull int[] getTrigrams(@NonNull String... numbers) {
+        int size = 0;
+        for (String number : numbers) {
+            if (number != null) {
+                size += Math.max(0, number.length() - TRIGRAM_LENGTH + 1);
+            }
+        }
+        final int[] trigrams = new int[size];
+        int count = 0;
+        for (String number : numbers) {
+            if (number == null) {
+                continue;
+            }
+            int trigram = 0;
+            int digits = 0;
+            for (int i = 0; i < number.length(); i++) {
+                final char c = number.charAt(i);
+                if (c < '0' || c > '9') {
+                    continue;
+                }
+                trigram = (trigram * 10 + (c - '0')) % 1000;
+                if (++digits >= TRIGRAM_LENGTH) {
+                    trigrams[count++] = trigram;
+                }
+            }
+        }
+        Arrays.sort(trigrams, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || trigrams[unique - 1] != trigrams[i]) {
+                trigrams[unique++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, unique);
+    }
+
+    /**
+     * @param queryDigits The digits searched for, as returned by {@link #getDigits}.
+     * @return The best {@code RANK_*} of {@code queryDigits} in either number form, or
+     * {@link #NO_MATCH}.
+     */
+    public static int getMatchRank(@NonNull String queryDigits, @Nullable String originalNumber,
+            @Nullable String e164Number) {
+        final int originalRank = getMatchRank(queryDigits, getDigits(originalNumber));
+        final int e164Rank = getMatchRank(queryDigits, getDigits(e164Number));
+        if (originalRank == NO_MATCH) {
+            return e164Rank;
+        }
+        if (e164Rank == NO_MATCH) {
+            return originalRank;
+        }
+        return Math.min(originalRank, e164Rank);
+    }
+
+    private static int getMatchRank(String queryDigits, String digits) {
+        if (queryDigits.isEmpty() || digits.isEmpty()) {
+            return NO_MATCH;
+        }
+        if (digits.equals(queryDigits)) {
+            return RANK_EXACT;
+        }
+        if (digits.startsWith(queryDigits)) {
+            return RANK_PREFIX;
+        }
+        if (digits.endsWith(queryDigits)) {
+            return RANK_SUFFIX;
+        }
+        return digits.contains(queryDigits) ? RANK_CONTAINS : NO_MATCH;
+    }
+}
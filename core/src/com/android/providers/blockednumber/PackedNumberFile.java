@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Format of the large, read-mostly blocked number files of the carrier tier: sorted sets of E164
+ * numbers, each packed into a {@code long} by {@link #pack}.
+ *
+ * <p>Layout, little endian, written front to back so the writer needs no seeking:
+ * <pre>
+ *   blocks: runs of up to {@link #BLOCK_SIZE} numbers; the first number of each block is only in
+ *       the index, the others are varint deltas from the previous number
+ *   index: per block, long first number, int offset of the block
+ *   footer: long index offset, long number count, int block count, int block size,
+ *       long sequence number, int format version, int magic
+ * </pre>
+ *
+ * <p>The sequence number is not interpreted by the format; it lets the owner of the file record
+ * which updates it includes.  Version 1 files have no sequence number, which reads as 0.
+ *
+ * <p>A lookup binary searches the index, then decodes at most one block, so a memory mapped file
+ * only pages in what it touches.
+ *
+ * <p>Incremental updates are kept apart in small delta files, see {@link #writeDelta}.
+ */
+public final class PackedNumberFile {
+    public static final int MAGIC = 0x46504e42; // "BNPF"
+    public static final int FORMAT_VERSION = 2;
+
+    public static final int DELTA_MAGIC = 0x44504e42; // "BNPD"
+    public static final int DELTA_FORMAT_VERSION = 1;
+
+    /** The numbers per block. */
+    public static final int BLOCK_SIZE = 128;
+
+    /** Returned by {@link #pack} for a number that is not in E164 format. */
+    public static final long NOT_PACKABLE = -1;
+
+    /** E164 allows at most 15 digits, which fit in a {@code long}. */
+    private static final int MAX_DIGITS = 15;
+
+    private static final int INDEX_ENTRY_SIZE = 12;
+    private static final int FOOTER_SIZE = 40;
+    private static final int FOOTER_SIZE_V1 = 32;
+
+    private PackedNumberFile() {
+    }
+
+    /**
+     * @return {@code e164Number} ("+" then 1 to 15 digits, the first not 0) as a positive
+     * {@code long}, or {@link #NOT_PACKABLE}.
+     */
+    public static long pack(@Nullable String e164Number) {
+        if (e164Number == null || e164Number.length() < 2
+                || e164Number.length() > MAX_DIGITS + 1 || e164Number.charAt(0) != '+'
+                || e164Number.charAt(1) == '0') {
+            return NOT_PACKABLE;
+        }
+        long value = 0;
+        for (int i = 1; i < e164Number.length(); i++) {
+            final char c = e164Number.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_PACKABLE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return The E164 number {@code packed} by {@link #pack}.
+     */
+    public static @NonNull String unpack(long packed) {
+        return "+" + packed;
+    }
+
+    /**
+     * Writes a number file, one number at a time.
+     */
+    public static final class Writer {
+        private final DataOutputStream mOut;
+        private final ByteBuffer mScratch = ByteBuffer.allocate(10);
+        private long[] mBlockFirsts = new long[16];
+        private int[] mBlockOffsets = new int[16];
+        private int mBlockCount;
+        private long mCount;
+        private long mLast = -1;
+        private long mOffset;
+
+        public Writer(@NonNull OutputStream out) {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+        }
+
+        /**
+         * @param packed Greater than the previous number.
+         */
+        public void add(long packed) throws IOException {
+            if (packed <= mLast) {
+                throw new IllegalArgumentException("Number " + packed + " is out of order");
+            }
+            if (mCount % BLOCK_SIZE == 0) {
+                if (mOffset > Integer.MAX_VALUE) {
+                    throw new IOException("File too large");
+                }
+                if (mBlockCount == mBlockFirsts.length) {
+                    mBlockFirsts = Arrays.copyOf(mBlockFirsts, mBlockCount * 2);
+                    mBlockOffsets = Arrays.copyOf(mBlockOffsets, mBlockCount * 2);
+                }
+                mBlockFirsts[mBlockCount] = packed;
+                mBlockOffsets[mBlockCount] = (int) mOffset;
+                mBlockCount++;
+            } else {
+                mScratch.clear();
+                writeVarlong(mScratch, packed - mLast);
+                mOut.write(mScratch.array(), 0, mScratch.position());
+                mOffset += mScratch.position();
+            }
+            mLast = packed;
+            mCount++;
+        }
+
+        /** Same as {@link #finish(long)} with sequence number 0. */
+        public void finish() throws IOException {
+            finish(0);
+        }
+
+        /**
+         * Writes the index and footer and flushes.  Does not close the output stream.
+         *
+         * @param seq The sequence number of the file, see {@link Reader#getSeq}.
+         */
+        public void finish(long seq) throws IOException {
+            final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < mBlockCount; i++) {
+                entry.clear();
+                entry.putLong(mBlockFirsts[i]).putInt(mBlockOffsets[i]);
+                mOut.write(entry.array());
+            }
+            final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            footer.putLong(mOffset).putLong(mCount).putInt(mBlockCount).putInt(BLOCK_SIZE)
+                    .putLong(seq).putInt(FORMAT_VERSION).putInt(MAGIC);
+            mOut.write(footer.array());
+            mOut.flush();
+        }
+    }
+
+    /**
+     * Reads a number file in place, typically memory mapped.  Thread safe.
+     */
+    public static final class Reader {
+        private final ByteBuffer mBuffer;
+        private final int mIndexOffset;
+        private final long mCount;
+        private final int mBlockCount;
+        private final int mBlockSize;
+        private final long mSeq;
+
+        /**
+         * @throws IllegalArgumentException if {@code buffer} is not a supported number file.
+         */
+        public Reader(@NonNull ByteBuffer buffer) {
+            mBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            final int end = mBuffer.capacity();
+            if (end < FOOTER_SIZE_V1 || mBuffer.getInt(end - 4) != MAGIC) {
+                throw new IllegalArgumentException("Not a packed number file");
+            }
+            final int version = mBuffer.getInt(end - 8);
+            final int footer;
+            if (version == FORMAT_VERSION && end >= FOOTER_SIZE) {
+                footer = end - FOOTER_SIZE;
+                mSeq = mBuffer.getLong(footer + 24);
+            } else if (version == 1) {
+                footer = end - FOOTER_SIZE_V1;
+                mSeq = 0;
+            } else {
+                throw new IllegalArgumentException("Unsupported number file version " + version);
+            }
+            final long indexOffset = mBuffer.getLong(footer);
+            mCount = mBuffer.getLong(footer + 8);
+            mBlockCount = mBuffer.getInt(footer + 16);
+            mBlockSize = mBuffer.getInt(footer + 20);
+            if (indexOffset < 0 || indexOffset + (long) mBlockCount * INDEX_ENTRY_SIZE != footer
+                    || mBlockSize <= 0
+                    || mCount > (long) mBlockCount * mBlockSize
+                    || mCount <= (long) (mBlockCount - 1) * mBlockSize) {
+                throw new IllegalArgumentException("Corrupt packed number file");
+            }
+            mIndexOffset = (int) indexOffset;
+        }
+
+        public long size() {
+            return mCount;
+        }
+
+        /**
+         * @return The sequence number passed to {@link Writer#finish(long)}.
+         */
+        public long getSeq() {
+            return mSeq;
+        }
+
+        public boolean contains(long packed) {
+            // The last block starting at or before packed.
+            int low = 0;
+            int high = mBlockCount - 1;
+            int block = -1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final long first = getBlockFirst(mid);
+                if (first == packed) {
+                    return true;
+                } else if (first < packed) {
+                    block = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (block < 0) {
+                return false;
+            }
+            final ByteBuffer buf = mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            buf.position(getBlockOffset(block));
+            long value = getBlockFirst(block);
+            for (int i = 1; i < getBlockLength(block); i++) {
+                value += readVarlong(buf);
+                if (value >= packed) {
+                    return value == packed;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return The numbers in ascending order.
+         */
+        public @NonNull PrimitiveIterator.OfLong iterator() {
+            final ByteBuffer buf = mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            return new PrimitiveIterator.OfLong() {
+                private int mBlock = -1;
+                private int mInBlock;
+                private long mValue;
+                private long mRead;
+
+                @Override
+                public boolean hasNext() {
+                    return mRead < mCount;
+                }
+
+                @Override
+                public long nextLong() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    if (mBlock < 0 || mInBlock == getBlockLength(mBlock)) {
+                        mBlock++;
+                        mInBlock = 0;
+                        buf.position(getBlockOffset(mBlock));
+                        mValue = getBlockFirst(mBlock);
+                    } else {
+                        mValue += readVarlong(buf);
+                    }
+                    mInBlock++;
+                    mRead++;
+                    return mValue;
+                }
+            };
+        }
+
+        private long getBlockFirst(int block) {
+            return mBuffer.getLong(mIndexOffset + block * INDEX_ENTRY_SIZE);
+        }
+
+        private int getBlockOffset(int block) {
+            return mBuffer.getInt(mIndexOffset + block * INDEX_ENTRY_SIZE + 8);
+        }
+
+        private int getBlockLength(int block) {
+            return block < mBlockCount - 1 ? mBlockSize
+                    : (int) (mCount - (long) block * mBlockSize);
+        }
+    }
+
+    /**
+     * An update to a number file: numbers added and removed, each sorted and distinct.
+     */
+    public static final class Delta {
+        public final long[] added;
+        public final long[] removed;
+
+        public Delta(@NonNull long[] added, @NonNull long[] removed) {
+            this.added = added;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * Writes a delta file: int magic, int format version, then the added and the removed numbers,
+     * each as an int count followed by the longs, big endian.
+     */
+    public static void writeDelta(@NonNull OutputStream out, @NonNull Delta delta)
+            throws IOException {
+        final DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+        dataOut.writeInt(DELTA_MAGIC);
+        dataOut.writeInt(DELTA_FORMAT_VERSION);
+        for (long[] numbers : new long[][] {delta.added, delta.removed}) {
+            dataOut.writeInt(numbers.length);
+            for (long number : numbers) {
+                dataOut.writeLong(number);
+            }
+        }
+        dataOut.flush();
+    }
+
+    public static @NonNull Delta readDelta(@NonNull InputStream in) throws IOException {
+        final DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+        if (dataIn.readInt() != DELTA_MAGIC) {
+            throw new IOException("Not a packed number delta");
+        }
+        final int version = dataIn.readInt();
+        if (version != DELTA_FORMAT_VERSION) {
+            throw new IOException("Unsupported delta version " + version);
+        }
+        final long[][] numbers = new long[2][];
+        for (int i = 0; i < numbers.length; i++) {
+            final int count = dataIn.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt packed number delta");
+            }
+            numbers[i] = new long[count];
+            for (int j = 0; j < count; j++) {
+                numbers[i][j] = dataIn.readLong();
+            }
+        }
+        return new Delta(numbers[0], numbers[1]);
+    }
+
+    private static void writeVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long readVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.get() & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
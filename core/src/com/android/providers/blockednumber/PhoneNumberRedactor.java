@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+
+/**
+ * Obfuscates phone numbers for logging.
+ */
+public final class PhoneNumberRedactor {
+    /** Same as {@code PhoneNumberUtils.WILD}. */
+    private static final char WILD = 'N';
+
+    private PhoneNumberRedactor() {
+    }
+
+    /**
+     * Same as {@code PhoneNumberUtils.isDialable(char)}.
+     */
+    public static boolean isDialable(char c) {
+        return (c >= '0' && c <= '9') || c == '*' || c == '#' || c == '+' || c == WILD;
+    }
+
+    /**
+     * Determines the number of dialable characters in a string.
+     * @param toCount The string to count dialable characters in.
+     * @return The count of dialable characters.
+     */
+    public static int getDialableCount(@NonNull String toCount) {
+        int numDialable = 0;
+        for (int i = 0; i < toCount.length(); i++) {
+            if (isDialable(toCount.charAt(i))) {
+                numDialable++;
+            }
+        }
+        return numDialable;
+    }
+
+    /**
+     * Obfuscates a phone number, allowing {@code numDigitsToShow} trailing dialable digits to be
+     * exposed.
+     * @param sb String buffer to write obfuscated number to.
+     * @param phoneNumber The number to obfuscate.
+     */
+    public static void obfuscatePhoneNumber(@NonNull StringBuilder sb,
+            @NonNull String phoneNumber, int numDigitsToShow) {
+        int numDigitsToObfuscate = getDialableCount(phoneNumber) - numDigitsToShow;
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            boolean isDialable = isDialable(c);
+            if (isDialable) {
+                numDigitsToObfuscate--;
+            }
+            sb.append(isDialable && numDigitsToObfuscate >= 0 ? '*' : c);
+        }
+    }
+
+    /**
+     * @return {@code phoneNumber} with all but {@code numDigitsToShow} trailing dialable digits
+     * replaced by '*'.
+     */
+    public static @NonNull String obfuscatePhoneNumber(@NonNull String phoneNumber,
+            int numDigitsToShow) {
+        final StringBuilder sb = new StringBuilder(phoneNumber.length());
+        obfuscatePhoneNumber(sb, phoneNumber, numDigitsToShow);
+        return sb.toString();
+    }
+}
@@ -18,30 +18,33 @@ package com.android.providers.blockednumber;
 
 import com.android.internal.annotations.VisibleForTesting;
 
-import android.annotation.Nullable;
 import android.app.backup.BackupAgent;
 import android.app.backup.BackupDataInput;
 import android.app.backup.BackupDataOutput;
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 import android.os.ParcelFileDescriptor;
+import android.os.Trace;
 import android.provider.BlockedNumberContract;
+import android.text.TextUtils;
+import android.util.IntArray;
 import android.util.Log;
 
 import libcore.io.IoUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 /**
  * A backup agent to enable backup and restore of blocked numbers.
@@ -51,35 +54,101 @@ public class BlockedNumberBackupAgent extends BackupAgent {
             BlockedNumberContract.BlockedNumbers.COLUMN_ID,
             BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
             BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER,
+            BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT,
     };
+    /**
+     * Only the numbers blocked by the user are backed up.  Managed rows belong to their source,
+     * which blocks them again on the new device, and a restored copy could not be removed by it.
+     */
+    private static final String BACKED_UP_SELECTION =
+            BlockedNumberDatabaseHelper.BlockedColumns.SOURCE + " IS NULL";
+
+    /**
+     * The rows a restored number duplicates: the user's own, unless they have expired.  Expired
+     * rows are ignored until the sweep deletes them.  Takes the current time as its argument.
+     */
+    private static final String EXISTING_SELECTION = BACKED_UP_SELECTION + " AND ("
+            + BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT + " IS NULL OR "
+            + BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT + ">?)";
+
     private static final String TAG = "BlockedNumberBackup";
-    private static final int VERSION = 1;
     private static final boolean DEBUG = false; // DO NOT SUBMIT WITH TRUE.
 
+    /**
+     * Restored rows are inserted in bulk inserts of up to this many rows, each applied in one
+     * transaction with one change notification.
+     */
+    @VisibleForTesting
+    static final int RESTORE_BATCH_SIZE = 500;
+
     private int mRestoredCount = 0;
+    private int mRestoreInsertedCount = 0;
+    private int mRestoreSkippedCount = 0;
+
+    /**
+     * Original and E164 numbers already on the device or queued by this restore.  Loaded when
+     * the first restored row is written.  A hit may be a hash collision, so it is confirmed
+     * against {@link #mQueuedNumbers} or the database before a row is skipped.
+     */
+    private BlockedNumberKeySet mExistingKeys;
+
+    /**
+     * Original and E164 numbers queued for the pending insert.  Cleared once it is written, after
+     * which the database confirms them.
+     */
+    private final HashSet<String> mQueuedNumbers = new HashSet<>();
+
+    private BlockedNumberDatabaseHelper mDbHelper;
 
     @Override
     public void onBackup(ParcelFileDescriptor oldState, BackupDataOutput backupDataOutput,
                          ParcelFileDescriptor newState) throws IOException {
         logV("Backing up blocked numbers.");
 
-        DataInputStream dataInputStream =
-                new DataInputStream(new FileInputStream(oldState.getFileDescriptor()));
-        final BackupState state;
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.backup");
         try {
-            state = readState(dataInputStream);
-        } finally {
-            IoUtils.closeQuietly(dataInputStream);
-        }
+            InputStream inputStream = new BufferedInputStream(
+                    new FileInputStream(oldState.getFileDescriptor()));
+            final BackupCodec.State state;
+            try {
+                state = readState(inputStream);
+            } finally {
+                IoUtils.closeQuietly(inputStream);
+            }
 
-        runBackup(state, backupDataOutput, getAllBlockedNumbers());
+            final BlockedNumberDatabaseHelper dbHelper = getDbHelper();
+            final long databaseId = dbHelper.getDatabaseId();
+            // Generations start over when the database is recreated, so the journal only applies
+            // to a state read from this database.
+            final BlockedNumberDatabaseHelper.ChangeSet changes =
+                    isSameDatabase(state, databaseId)
+                            ? dbHelper.getChangesSince(state.generation) : null;
+            final BackupCodec.State newBackupState;
+            if (changes != null) {
+                logV("Backing up " + changes.blockedIds.length + " changes.");
+                newBackupState = runIncrementalBackup(state, backupDataOutput,
+                        changes.blockedIds, changes.toGeneration,
+                        bucket -> queryBucket(dbHelper, bucket));
+            } else {
+                logV("Backing up all blocked numbers.");
+                // Read before the rows, so that changes made during the scan are journaled after
+                // the recorded generation and get backed up by the next pass.
+                final long generation = dbHelper.getChangeGeneration();
+                try (Cursor cursor = queryAllBlockedNumbers(dbHelper)) {
+                    newBackupState = runBackup(state, backupDataOutput, cursor, databaseId,
+                            generation);
+                }
+            }
 
-        DataOutputStream dataOutputStream =
-                new DataOutputStream(new FileOutputStream(newState.getFileDescriptor()));
-        try {
-            writeNewState(dataOutputStream, state);
+            OutputStream outputStream = new BufferedOutputStream(
+                    new FileOutputStream(newState.getFileDescriptor()));
+            try {
+                writeNewState(outputStream, newBackupState);
+            } finally {
+                outputStream.close();
+            }
         } finally {
-            dataOutputStream.close();
+            Trace.traceEnd(Utils.TRACE_TAG);
         }
     }
 
@@ -88,170 +157,484 @@ public class BlockedNumberBackupAgent extends BackupAgent {
                           ParcelFileDescriptor newState) throws IOException {
         logV("Restoring blocked numbers.");
 
-        while (data.readNextHeader()) {
-            BackedUpBlockedNumber blockedNumber = readBlockedNumberFromData(data);
-            if (blockedNumber != null) {
-                writeToProvider(blockedNumber);
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.restore");
+        try {
+            List<BackedUpBlockedNumber> pending = new ArrayList<>(RESTORE_BATCH_SIZE);
+            while (data.readNextHeader()) {
+                readBlockedNumbersFromData(data, pending);
+                if (pending.size() >= RESTORE_BATCH_SIZE) {
+                    writeToProvider(pending);
+                    pending.clear();
+                }
             }
+            writeToProvider(pending);
+            Log.i(TAG, "Restored blocked numbers: inserted=" + mRestoreInsertedCount
+                    + ", skipped=" + mRestoreSkippedCount
+                    + ", unchanged_or_failed=" + (mRestoredCount - mRestoreInsertedCount));
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
         }
     }
 
-    private BackupState readState(DataInputStream dataInputStream) throws IOException {
-        int version = VERSION;
-        if (dataInputStream.available() > 0) {
-            version = dataInputStream.readInt();
-        }
-        BackupState state = new BackupState(version, new TreeSet<Integer>());
-        while (dataInputStream.available() > 0) {
-            state.ids.add(dataInputStream.readInt());
+    private BackupCodec.State readState(InputStream inputStream) {
+        try {
+            return BackupCodec.readState(inputStream);
+        } catch (IOException e) {
+            // Starting over from an empty state re-sends every row, which is always correct.
+            Log.w(TAG, "Unable to read backup state: " + e.getMessage());
+            return new BackupCodec.State(BackupCodec.STATE_VERSION_5, 0,
+                    BackupCodec.NO_GENERATION, new int[0]);
         }
-        return state;
     }
 
-    private void runBackup(BackupState state, BackupDataOutput backupDataOutput,
-                           Iterable<BackedUpBlockedNumber> allBlockedNumbers) throws IOException {
-        SortedSet<Integer> deletedBlockedNumbers = new TreeSet<>(state.ids);
+    /**
+     * @return Whether the rows of {@code state} were read from the database {@code databaseId}.
+     * Older states do not say, so they are assumed to come from another one.
+     */
+    private static boolean isSameDatabase(BackupCodec.State state, long databaseId) {
+        return state.version >= BackupCodec.STATE_VERSION_5 && state.databaseId == databaseId;
+    }
 
-        for (BackedUpBlockedNumber blockedNumber : allBlockedNumbers) {
-            if (state.ids.contains(blockedNumber.id)) {
-                // Existing blocked number: do not delete.
-                deletedBlockedNumbers.remove(blockedNumber.id);
-            } else {
-                logV("Adding blocked number to backup: " + blockedNumber);
-                // New blocked number
-                addToBackup(backupDataOutput, blockedNumber);
-                state.ids.add(blockedNumber.id);
+    /**
+     * Writes the buckets that differ between {@code state} and the rows of {@code cursor} in a
+     * single pass, holding at most one bucket of rows in memory.  Both must be sorted by id.
+     *
+     * <p>Rows are never updated in place, so a bucket changed if and only if its set of ids did.
+     * A state from before buckets were used describes single row entities; those are all removed
+     * and every bucket is written.  Ids start over in a recreated database, so a state from
+     * another database has every bucket written too.
+     *
+     * @param cursor Rows with the columns of {@link #BLOCKED_NUMBERS_PROJECTION}.
+     * @param databaseId The id of the database {@code cursor} reads.
+     * @param generation The change journal generation before {@code cursor} was read.
+     * @return The state after this backup.
+     */
+    @VisibleForTesting
+    static BackupCodec.State runBackup(BackupCodec.State state, BackupDataOutput backupDataOutput,
+            Cursor cursor, long databaseId, long generation) throws IOException {
+        final boolean rewriteAll = !isSameDatabase(state, databaseId);
+        int[] oldIds = state.ids;
+        if (state.version < BackupCodec.STATE_VERSION_3) {
+            for (int id : oldIds) {
+                removeFromBackup(backupDataOutput, Integer.toString(id));
             }
+            oldIds = new int[0];
         }
 
-        for (int id : deletedBlockedNumbers) {
-            logV("Removing blocked number from backup: " + id);
-            removeFromBackup(backupDataOutput, id);
-            state.ids.remove(id);
+        final IntArray newIds = new IntArray();
+        final BackupCodec.BucketWriter bucketWriter = new BackupCodec.BucketWriter();
+        int oldIndex = 0;
+        try {
+            while (cursor.moveToNext()) {
+                final int id = cursor.getInt(0);
+                final int bucket = BackupCodec.getBucket(id);
+                if (bucketWriter.getCount() > 0 && bucketWriter.getBucket() != bucket) {
+                    oldIndex = finishBucket(backupDataOutput, bucketWriter.getBucket(),
+                            bucketWriter, oldIds, oldIndex, rewriteAll);
+                }
+                oldIndex = removeBucketsBefore(backupDataOutput, bucket, oldIds, oldIndex);
+                addRow(bucketWriter, id, cursor);
+                newIds.add(id);
+            }
+            if (bucketWriter.getCount() > 0) {
+                oldIndex = finishBucket(backupDataOutput, bucketWriter.getBucket(), bucketWriter,
+                        oldIds, oldIndex, rewriteAll);
+            }
+            removeBucketsBefore(backupDataOutput, Integer.MAX_VALUE, oldIds, oldIndex);
+        } finally {
+            bucketWriter.close();
         }
+        return new BackupCodec.State(BackupCodec.STATE_VERSION_5, databaseId, generation,
+                newIds.toArray());
     }
 
-    private void addToBackup(BackupDataOutput output, BackedUpBlockedNumber blockedNumber)
+    /**
+     * Adds the row at the position of {@code cursor}, in {@link #BLOCKED_NUMBERS_PROJECTION}.
+     */
+    private static void addRow(BackupCodec.BucketWriter bucketWriter, int id, Cursor cursor)
             throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
-        dataOutputStream.writeInt(VERSION);
-        writeString(dataOutputStream, blockedNumber.originalNumber);
-        writeString(dataOutputStream, blockedNumber.e164Number);
-        dataOutputStream.flush();
-
-        output.writeEntityHeader(Integer.toString(blockedNumber.id), outputStream.size());
-        output.writeEntityData(outputStream.toByteArray(), outputStream.size());
+        bucketWriter.add(id, cursor.getString(1), cursor.getString(2),
+                cursor.isNull(3) ? BackupCodec.NO_EXPIRY : cursor.getLong(3));
     }
 
-    private void writeString(DataOutputStream dataOutputStream, @Nullable String value)
-            throws IOException {
-        if (value == null) {
-            dataOutputStream.writeBoolean(false);
-        } else {
-            dataOutputStream.writeBoolean(true);
-            dataOutputStream.writeUTF(value);
-        }
+    /**
+     * Reads the rows of one bucket, ordered by id.
+     */
+    @VisibleForTesting
+    interface BucketQuery {
+        Cursor queryBucket(int bucket);
     }
 
-    @Nullable
-    private String readString(DataInputStream dataInputStream)
-            throws IOException {
-        if (dataInputStream.readBoolean()) {
-            return dataInputStream.readUTF();
-        } else {
-            return null;
+    /**
+     * Rewrites only the buckets holding {@code changedIds}, as read from the change journal,
+     * instead of scanning the whole table.  {@code state} must have been read from the same
+     * database.
+     *
+     * @param generation The change journal generation of the last of {@code changedIds}.
+     * @return The state after this backup.
+     */
+    @VisibleForTesting
+    static BackupCodec.State runIncrementalBackup(BackupCodec.State state,
+            BackupDataOutput backupDataOutput, int[] changedIds, long generation,
+            BucketQuery bucketQuery) throws IOException {
+        final int[] buckets = new int[changedIds.length];
+        for (int i = 0; i < changedIds.length; i++) {
+            buckets[i] = BackupCodec.getBucket(changedIds[i]);
         }
+        Arrays.sort(buckets);
+
+        final int[] oldIds = state.ids;
+        final IntArray newIds = new IntArray(oldIds.length);
+        final BackupCodec.BucketWriter bucketWriter = new BackupCodec.BucketWriter();
+        int oldIndex = 0;
+        try {
+            for (int i = 0; i < buckets.length; i++) {
+                final int bucket = buckets[i];
+                if (i > 0 && bucket == buckets[i - 1]) {
+                    continue;
+                }
+                // Buckets without changes keep their ids.
+                while (oldIndex < oldIds.length
+                        && BackupCodec.getBucket(oldIds[oldIndex]) < bucket) {
+                    newIds.add(oldIds[oldIndex++]);
+                }
+                try (Cursor cursor = bucketQuery.queryBucket(bucket)) {
+                    while (cursor.moveToNext()) {
+                        final int id = cursor.getInt(0);
+                        addRow(bucketWriter, id, cursor);
+                        newIds.add(id);
+                    }
+                }
+                oldIndex = finishBucket(backupDataOutput, bucket, bucketWriter, oldIds, oldIndex,
+                        /* rewrite =*/ false);
+            }
+            while (oldIndex < oldIds.length) {
+                newIds.add(oldIds[oldIndex++]);
+            }
+        } finally {
+            bucketWriter.close();
+        }
+        return new BackupCodec.State(BackupCodec.STATE_VERSION_5, state.databaseId, generation,
+                newIds.toArray());
     }
 
-    private void removeFromBackup(BackupDataOutput output, int id) throws IOException {
-        output.writeEntityHeader(Integer.toString(id), -1);
+    /**
+     * Writes {@code bucket} from the rows in {@code bucketWriter} if its ids differ from the ones
+     * previously backed up or {@code rewrite} is set, or removes it if it no longer has rows, and
+     * clears the writer.
+     *
+     * @return The index in {@code oldIds} after the bucket.
+     */
+    private static int finishBucket(BackupDataOutput output, int bucket,
+            BackupCodec.BucketWriter bucketWriter, int[] oldIds, int oldIndex, boolean rewrite)
+            throws IOException {
+        boolean changed = rewrite;
+        int i = 0;
+        for (; oldIndex < oldIds.length && BackupCodec.getBucket(oldIds[oldIndex]) == bucket;
+                oldIndex++, i++) {
+            changed |= i >= bucketWriter.getCount() || oldIds[oldIndex] != bucketWriter.getId(i);
+        }
+        changed |= i != bucketWriter.getCount();
+        if (changed) {
+            final String key = BackupCodec.getBucketKey(bucket);
+            if (bucketWriter.getCount() == 0) {
+                logV("Removing bucket from backup: " + bucket);
+                removeFromBackup(output, key);
+            } else {
+                logV("Writing bucket to backup: " + bucket);
+                final byte[] data = bucketWriter.encode();
+                output.writeEntityHeader(key, data.length);
+                output.writeEntityData(data, data.length);
+            }
+        }
+        bucketWriter.clear();
+        return oldIndex;
     }
 
-    private Iterable<BackedUpBlockedNumber> getAllBlockedNumbers() {
-        List<BackedUpBlockedNumber> blockedNumbers = new ArrayList<>();
-        ContentResolver resolver = getContentResolver();
-        Cursor cursor = resolver.query(
-                BlockedNumberContract.BlockedNumbers.CONTENT_URI, BLOCKED_NUMBERS_PROJECTION, null,
-                null, null);
-        if (cursor != null) {
-            try {
-                while (cursor.moveToNext()) {
-                    blockedNumbers.add(createBlockedNumberFromCursor(cursor));
-                }
-            } finally {
-                cursor.close();
+    /**
+     * Removes the previously backed up buckets before {@code bucket}, which no longer have rows.
+     *
+     * @return The index in {@code oldIds} of the first id in or after {@code bucket}.
+     */
+    private static int removeBucketsBefore(BackupDataOutput output, int bucket, int[] oldIds,
+            int oldIndex) throws IOException {
+        while (oldIndex < oldIds.length && BackupCodec.getBucket(oldIds[oldIndex]) < bucket) {
+            final int oldBucket = BackupCodec.getBucket(oldIds[oldIndex]);
+            logV("Removing bucket from backup: " + oldBucket);
+            removeFromBackup(output, BackupCodec.getBucketKey(oldBucket));
+            while (oldIndex < oldIds.length
+                    && BackupCodec.getBucket(oldIds[oldIndex]) == oldBucket) {
+                oldIndex++;
             }
         }
-        return blockedNumbers;
+        return oldIndex;
+    }
+
+    private static void removeFromBackup(BackupDataOutput output, String key) throws IOException {
+        output.writeEntityHeader(key, -1);
+    }
+
+    /**
+     * Reads the database directly rather than through the provider, ordered by id so that
+     * {@link #runBackup} can merge it with the previous state.  The agent runs in the provider's
+     * process.  Rows changed while the cursor is being read are picked up by the next backup.
+     */
+    private static Cursor queryAllBlockedNumbers(BlockedNumberDatabaseHelper dbHelper) {
+        return dbHelper.getReadableDatabase().query(
+                BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS, BLOCKED_NUMBERS_PROJECTION,
+                BACKED_UP_SELECTION, null, null, null,
+                BlockedNumberContract.BlockedNumbers.COLUMN_ID);
     }
 
-    private BackedUpBlockedNumber createBlockedNumberFromCursor(Cursor cursor) {
-        return new BackedUpBlockedNumber(
-                cursor.getInt(0), cursor.getString(1), cursor.getString(2));
+    private static Cursor queryBucket(BlockedNumberDatabaseHelper dbHelper, int bucket) {
+        final long first = (long) bucket * BackupCodec.BUCKET_SIZE;
+        return dbHelper.getReadableDatabase().query(
+                BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS, BLOCKED_NUMBERS_PROJECTION,
+                BACKED_UP_SELECTION + " AND " + BlockedNumberContract.BlockedNumbers.COLUMN_ID
+                        + " BETWEEN ? AND ?",
+                new String[] {Long.toString(first),
+                        Long.toString(first + BackupCodec.BUCKET_SIZE - 1)},
+                null, null, BlockedNumberContract.BlockedNumbers.COLUMN_ID);
     }
 
-    private void writeNewState(DataOutputStream dataOutputStream, BackupState state)
+    private void writeNewState(OutputStream outputStream, BackupCodec.State state)
             throws IOException {
-        dataOutputStream.writeInt(VERSION);
-        for (int i : state.ids) {
-            dataOutputStream.writeInt(i);
-        }
+        BackupCodec.writeState(outputStream, state);
     }
 
-    @Nullable
-    private BackedUpBlockedNumber readBlockedNumberFromData(BackupDataInput data) {
-        int id;
+    /**
+     * Reads the blocked numbers in the current entity, either a bucket or a single row entity
+     * from an older backup, into {@code out}.  Invalid entities are logged and skipped.
+     */
+    private void readBlockedNumbersFromData(BackupDataInput data,
+            List<BackedUpBlockedNumber> out) {
+        final String key = data.getKey();
+        int bucket;
+        int id = -1;
         try {
-            id = Integer.parseInt(data.getKey());
+            bucket = BackupCodec.parseBucketKey(key);
+            if (bucket < 0) {
+                id = Integer.parseInt(key);
+            }
         } catch (NumberFormatException e) {
-            Log.e(TAG, "Unexpected key found in restore: " + data.getKey());
-            return null;
+            Log.e(TAG, "Unexpected key found in restore: " + key);
+            return;
         }
 
         try {
             byte[] byteArray = new byte[data.getDataSize()];
             data.readEntityData(byteArray, 0, byteArray.length);
-            DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(byteArray));
-            int version = dataInput.readInt();
-            if (version > VERSION) {
-                // If somehow we got a backed up row that is newer than the supported file format
-                // we know of, we will log an error and return null to represent an invalid item.
-                String errorMessage = "Backup version " + version + " is newer than the current "
-                        + "supported version, " + VERSION;
-                Log.w(TAG, errorMessage);
-                return null;
+            if (bucket >= 0) {
+                for (BackupCodec.Entry entry : BackupCodec.decodeBucket(bucket, byteArray)) {
+                    out.add(toBackedUpBlockedNumber(entry));
+                }
+            } else {
+                out.add(toBackedUpBlockedNumber(BackupCodec.decodeBlockedNumber(id, byteArray)));
             }
-            BackedUpBlockedNumber blockedNumber =
-                    new BackedUpBlockedNumber(id, readString(dataInput), readString(dataInput));
-            logV("Restoring blocked number: " + blockedNumber);
-            return blockedNumber;
+        } catch (BackupCodec.UnsupportedVersionException e) {
+            // If somehow we got a backed up row that is newer than the supported file format
+            // we know of, we will log an error and skip it as an invalid item.
+            Log.w(TAG, e.getMessage());
         } catch (IOException e) {
-            Log.e(TAG, "Error reading blocked number for: " + id + ": " + e.getMessage());
-            return null;
+            Log.e(TAG, "Error reading blocked numbers for: " + key + ": " + e.getMessage());
         }
     }
 
-    private void writeToProvider(BackedUpBlockedNumber blockedNumber) {
-        mRestoredCount++;
-        ContentValues contentValues = new ContentValues();
+    private static BackedUpBlockedNumber toBackedUpBlockedNumber(BackupCodec.Entry entry) {
+        BackedUpBlockedNumber blockedNumber = new BackedUpBlockedNumber(entry.id,
+                entry.originalNumber, entry.e164Number, entry.expiresAt);
+        logV("Restoring blocked number: " + blockedNumber);
+        return blockedNumber;
+    }
+
+    /**
+     * Inserts those of {@code blockedNumbers} that are not blocked yet, see
+     * {@link #removeExisting}.
+     */
+    private void writeToProvider(List<BackedUpBlockedNumber> blockedNumbers) {
+        try {
+            insertBlockedNumbers(removeExisting(blockedNumbers));
+        } finally {
+            mQueuedNumbers.clear();
+        }
+    }
+
+    /**
+     * Inserts {@code blockedNumbers} with a single bulk insert.  If that fails, they are inserted
+     * one at a time so that each failure is reported and the valid rows still get restored.
+     */
+    private void insertBlockedNumbers(List<BackedUpBlockedNumber> blockedNumbers) {
+        if (blockedNumbers.isEmpty()) {
+            return;
+        }
+        mRestoredCount += blockedNumbers.size();
+        ContentValues[] values = new ContentValues[blockedNumbers.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toContentValues(blockedNumbers.get(i));
+        }
+        try {
+            mRestoreInsertedCount += getContentResolver().bulkInsert(
+                    BlockedNumberContract.BlockedNumbers.CONTENT_URI, values);
+            return;
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to insert " + values.length + " blocked numbers at once, "
+                    + "retrying individually: " + e.getMessage());
+        }
+        for (BackedUpBlockedNumber blockedNumber : blockedNumbers) {
+            writeToProvider(blockedNumber);
+        }
+    }
+
+    /**
+     * @return {@code blockedNumbers} without the numbers that the user already blocks on the device
+     * or earlier in this restore, by original number or by E164 number, and without the blocks
+     * that have ended since the backup.  Skipping them avoids a write per duplicate.  A number
+     * only blocked by a source is restored, so that the user's block outlives the source's.
+     */
+    private List<BackedUpBlockedNumber> removeExisting(List<BackedUpBlockedNumber> blockedNumbers) {
+        if (blockedNumbers.isEmpty()) {
+            return blockedNumbers;
+        }
+        if (mExistingKeys == null) {
+            mExistingKeys = loadExistingKeys();
+        }
+        final long now = System.currentTimeMillis();
+        final List<BackedUpBlockedNumber> result = new ArrayList<>(blockedNumbers.size());
+        for (BackedUpBlockedNumber blockedNumber : blockedNumbers) {
+            if (blockedNumber.expiresAt <= now) {
+                logV("Skipping expired blocked number: " + blockedNumber);
+                mRestoreSkippedCount++;
+                continue;
+            }
+            if (TextUtils.isEmpty(blockedNumber.originalNumber)) {
+                // Invalid; let the provider reject and report it.
+                result.add(blockedNumber);
+                continue;
+            }
+            // The same normalization as the provider's insert.
+            final String e164Number = Utils.getE164Number(
+                    this, blockedNumber.originalNumber, blockedNumber.e164Number);
+            if (isExisting(blockedNumber.originalNumber)
+                    || (!e164Number.isEmpty() && isExisting(e164Number))) {
+                logV("Skipping existing blocked number: " + blockedNumber);
+                mRestoreSkippedCount++;
+                continue;
+            }
+            mExistingKeys.add(blockedNumber.originalNumber);
+            mQueuedNumbers.add(blockedNumber.originalNumber);
+            if (!e164Number.isEmpty()) {
+                mExistingKeys.add(e164Number);
+                mQueuedNumbers.add(e164Number);
+            }
+            result.add(blockedNumber);
+        }
+        return result;
+    }
+
+    /**
+     * @return Whether {@code number} is blocked by the user on the device or queued by this
+     * restore, as an original or E164 number.  Only a hit in {@link #mExistingKeys} reads the
+     * database.
+     */
+    private boolean isExisting(String number) {
+        if (!mExistingKeys.contains(number)) {
+            return false;
+        }
+        if (mQueuedNumbers.contains(number)) {
+            return true;
+        }
+        return DatabaseUtils.queryNumEntries(getDbHelper().getReadableDatabase(),
+                BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                EXISTING_SELECTION + " AND ("
+                        + BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=? OR "
+                        + BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER + "=?)",
+                new String[] {Long.toString(System.currentTimeMillis()), number, number}) > 0;
+    }
+
+    /**
+     * @return The original and E164 numbers of the rows in {@link #EXISTING_SELECTION}.
+     */
+    private BlockedNumberKeySet loadExistingKeys() {
+        final SQLiteDatabase db = getDbHelper().getReadableDatabase();
+        final String[] selectionArgs = {Long.toString(System.currentTimeMillis())};
+        final BlockedNumberKeySet keys = new BlockedNumberKeySet(2 * (int) DatabaseUtils
+                .queryNumEntries(db, BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                        EXISTING_SELECTION, selectionArgs));
+        try (Cursor cursor = db.query(BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                new String[] {BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                        BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER},
+                EXISTING_SELECTION, selectionArgs, null, null, null)) {
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+                final String e164Number = cursor.getString(1);
+                if (!TextUtils.isEmpty(e164Number)) {
+                    keys.add(e164Number);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static ContentValues toContentValues(BackedUpBlockedNumber blockedNumber) {
+        ContentValues contentValues = new ContentValues(3);
         contentValues.put(BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
                 blockedNumber.originalNumber);
         contentValues.put(BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER,
                 blockedNumber.e164Number);
+        if (blockedNumber.expiresAt != BackupCodec.NO_EXPIRY) {
+            contentValues.put(BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT,
+                    blockedNumber.expiresAt);
+        }
+        return contentValues;
+    }
+
+    private void writeToProvider(BackedUpBlockedNumber blockedNumber) {
         try {
             getContentResolver().insert(
-                    BlockedNumberContract.BlockedNumbers.CONTENT_URI, contentValues);
+                    BlockedNumberContract.BlockedNumbers.CONTENT_URI,
+                    toContentValues(blockedNumber));
+            mRestoreInsertedCount++;
         } catch (Exception e) {
             Log.e(TAG, "Unable to insert blocked number " + blockedNumber + " :" + e.getMessage());
         }
     }
 
+    private BlockedNumberDatabaseHelper getDbHelper() {
+        if (mDbHelper == null) {
+            mDbHelper = BlockedNumberDatabaseHelper.getInstance(this);
+        }
+        return mDbHelper;
+    }
+
+    @VisibleForTesting
+    public void setDbHelperForTest(BlockedNumberDatabaseHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * @return The number of restored rows sent to the provider, whether or not they were inserted.
+     */
     @VisibleForTesting
     public int getRestoredCount() {
         return mRestoredCount;
     }
 
+    /**
+     * @return The number of restored rows the provider accepted.
+     */
+    @VisibleForTesting
+    public int getRestoreInsertedCount() {
+        return mRestoreInsertedCount;
+    }
+
+    /**
+     * @return The number of restored rows skipped because they were already blocked.
+     */
+    @VisibleForTesting
+    public int getRestoreSkippedCount() {
+        return mRestoreSkippedCount;
+    }
+
     private static boolean isDebug() {
         return Log.isLoggable(TAG, Log.DEBUG);
     }
@@ -262,32 +645,24 @@ public class BlockedNumberBackupAgent extends BackupAgent {
         }
     }
 
-    private static class BackupState {
-        final int version;
-        final SortedSet<Integer> ids;
-
-        BackupState(int version, SortedSet<Integer> ids) {
-            this.version = version;
-            this.ids = ids;
-        }
-    }
-
     private static class BackedUpBlockedNumber {
         final int id;
         final String originalNumber;
         final String e164Number;
+        final long expiresAt;
 
-        BackedUpBlockedNumber(int id, String originalNumber, String e164Number) {
+        BackedUpBlockedNumber(int id, String originalNumber, String e164Number, long expiresAt) {
             this.id = id;
             this.originalNumber = originalNumber;
             this.e164Number = e164Number;
+            this.expiresAt = expiresAt;
         }
 
         @Override
         public String toString() {
             if (isDebug()) {
-                return String.format("[%d, original number: %s, e164 number: %s]",
-                        id, originalNumber, e164Number);
+                return String.format("[%d, original number: %s, e164 number: %s, expires at: %d]",
+                        id, originalNumber, e164Number, expiresAt);
             } else {
                 return String.format("[%d]", id);
             }
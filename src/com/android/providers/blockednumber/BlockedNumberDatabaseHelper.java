@@ -15,32 +15,286 @@
  */
 package com.android.providers.blockednumber;
 
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.os.CancellationSignal;
+import android.os.SystemProperties;
+import android.os.Trace;
 import android.provider.BlockedNumberContract.BlockedNumbers;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.IntArray;
+import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
 import com.android.internal.util.Preconditions;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class BlockedNumberDatabaseHelper {
-    private static final int DATABASE_VERSION = 2;
+    private static final String TAG = "BlockedNumberDatabase";
+
+    private static final int DATABASE_VERSION = 8;
 
     private static final String DATABASE_NAME = "blockednumbers.db";
 
     private static final int IDLE_CONNECTION_TIMEOUT_MS = 30000;
 
+    /** Bloom filter sidecar, kept in the same directory as {@link #DATABASE_NAME}. */
+    private static final String BLOOM_FILTER_FILE_NAME = "blockednumbers.bloom";
+
+    /** Directory of the {@link CarrierBlocklist} files, in the no backup directory. */
+    private static final String CARRIER_BLOCKLIST_DIR_NAME = "carrier_blocklist";
+
+    /** Target false positive rate of the bloom filter, in parts per million. */
+    private static final String PROP_BLOOM_FILTER_FPP_PPM =
+            "persist.sys.blockednumber.bloom_fpp_ppm";
+    private static final int DEFAULT_BLOOM_FILTER_FPP_PPM = 10000; // 1%
+
+    /** Upper bound on the bloom filter size, in KiB. */
+    private static final String PROP_BLOOM_FILTER_MAX_KB = "persist.sys.blockednumber.bloom_max_kb";
+    private static final int DEFAULT_BLOOM_FILTER_MAX_KB = 1024;
+
+    /** The filter is sized for this many keys at least, so small lists do not rebuild often. */
+    private static final int MIN_BLOOM_FILTER_EXPECTED_KEYS = 1024;
+
+    /** Deleted rows are only absorbed by a rebuild once there are at least this many. */
+    private static final int MIN_DELETES_BEFORE_BLOOM_FILTER_REBUILD = 64;
+
+    private static final long BLOOM_FILTER_PERSIST_DELAY_MS = 5000;
+
+    /**
+     * Number of most recent entries kept in the change journal.  Readers that fall further behind
+     * than this have to rescan the blocked table.
+     */
+    @VisibleForTesting
+    static final int MAX_CHANGE_JOURNAL_ENTRIES = 10000;
+
+    /**
+     * Most rows returned by {@link #searchBlockedNumbers}.  A search is typed by a user, who only
+     * looks at the first few matches.
+     */
+    public static final int MAX_SEARCH_RESULTS = 500;
+
+    /** Returned by {@link #getNextExpiry} when no row expires. */
+    public static final long NO_EXPIRY = Long.MAX_VALUE;
+
     private static BlockedNumberDatabaseHelper sInstance;
 
+    /** Names the shadow tables of the {@link SourceReplacement}s of this process. */
+    private static final AtomicInteger sNextShadowTable = new AtomicInteger();
+
     private final Context mContext;
 
     private final OpenHelper mOpenHelper;
 
+    /** {@code null} when the database is in memory. */
+    @Nullable
+    private final File mBloomFilterFile;
+
+    private final Executor mMaintenanceExecutor;
+
+    private final double mBloomFilterFpp;
+
+    private final int mBloomFilterMaxBytes;
+
+    /**
+     * {@code null} until loaded.  Replaced and mutated only inside a write transaction on the
+     * database, so it never misses a committed row.
+     */
+    @Nullable
+    private volatile BlockedNumberBloomFilter mBloomFilter;
+
+    /** The last {@code _id} assigned when {@link #mBloomFilter} was last brought up to date. */
+    private long mBloomFilterLastRowId;
+
+    /** Rows deleted since {@link #mBloomFilter} was built; their keys are still set. */
+    private int mBloomFilterDeletedRows;
+
+    private long mBloomFilterBuildTimeMillis;
+
+    private final AtomicBoolean mBloomFilterLoadPending = new AtomicBoolean();
+
+    private final AtomicLong mBloomFilterNegatives = new AtomicLong();
+
+    private final AtomicLong mBloomFilterPositives = new AtomicLong();
+
+    private final AtomicLong mBloomFilterFalsePositives = new AtomicLong();
+
+    private final AtomicInteger mBatchOperations = new AtomicInteger();
+
+    private final BlockedNumberSnapshotPublisher mSnapshotPublisher =
+            new BlockedNumberSnapshotPublisher(this);
+
+    private final CarrierBlocklist mCarrierBlocklist;
+
+    /** Same as {@link #getDatabaseId()}, or {@code null} until loaded. */
+    @Nullable
+    private volatile Long mDatabaseId;
+
+    private final Object mListStatsLock = new Object();
+
+    /** The number of rows in the blocked table, or -1 if not loaded. */
+    @GuardedBy("mListStatsLock")
+    private long mBlockedNumberCount = -1;
+
+    /** Same as {@link #getChangeGeneration()}; valid while {@link #mBlockedNumberCount} is. */
+    @GuardedBy("mListStatsLock")
+    private long mListGeneration;
+
+    /**
+     * Incremented when a write transaction begins or ends, so that a load racing with a write is
+     * not cached.
+     */
+    @GuardedBy("mListStatsLock")
+    private long mListStatsEpoch;
+
+    @GuardedBy("mListStatsLock")
+    private int mListWritesInFlight;
+
+    /** Drops the cached list statistics when a write transaction rolls back. */
+    private final SQLiteTransactionListener mBlockedListTransactionListener =
+            new SQLiteTransactionListener() {
+                @Override
+                public void onBegin() {
+                }
+
+                @Override
+                public void onCommit() {
+                }
+
+                @Override
+                public void onRollback() {
+                    invalidateListStats();
+                }
+            };
+
+    private final Runnable mLoadBloomFilterRunnable = () -> {
+        mBloomFilterLoadPending.set(false);
+        try {
+            loadBloomFilter(/* allowFromFile =*/ mBloomFilter == null);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to load bloom filter", e);
+        }
+    };
+
+    private final Runnable mPersistBloomFilterRunnable = () -> {
+        try {
+            persistBloomFilter();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to persist bloom filter", e);
+        }
+    };
+
     public interface Tables {
         String BLOCKED_NUMBERS = "blocked";
+        String CHANGES = "blocked_changes";
+        String TRIGRAMS = "blocked_trigrams";
+        String METADATA = "blocked_metadata";
+        /** Prefix of the tables a {@link SourceReplacement} is loaded into. */
+        String SHADOW_PREFIX = "blocked_shadow_";
+    }
+
+    /**
+     * Columns of {@link Tables#BLOCKED_NUMBERS} besides those of {@link BlockedNumbers}.  They are
+     * not part of the default projection.
+     */
+    public interface BlockedColumns {
+        /**
+         * Who manages the row, such as a carrier or an enterprise, or {@code NULL} for numbers
+         * blocked by the user.  See {@link SourceReplacement}.
+         */
+        String SOURCE = "source";
+
+        /**
+         * When the block ends, in milliseconds since the epoch, or {@code NULL} if it does not.
+         * Expired rows no longer block and are deleted by the expiry sweep.
+         */
+        String EXPIRES_AT = "expires_at";
+
+        /**
+         * The number of lookups the row matched.  Counted in memory and written behind, see
+         * {@link BlockedNumberDatabaseHelper#addHits}, so it lags behind recent lookups.
+         */
+        String HIT_COUNT = "hit_count";
+
+        /**
+         * When the row last matched a lookup, in milliseconds since the epoch, or {@code NULL} if
+         * it never did.  Written with {@link #HIT_COUNT}.
+         */
+        String LAST_HIT_AT = "last_hit_at";
+    }
+
+    /**
+     * Columns of {@link Tables#CHANGES}, the change journal.  It is written by triggers in the
+     * same transaction as the change to the blocked table.
+     */
+    public interface Changes {
+        /** Increases with every change and is never reused. */
+        String GENERATION = "generation";
+        /** The {@code _id} of the inserted or deleted blocked number. */
+        String BLOCKED_ID = "blocked_id";
+        String CHANGE_TYPE = "change_type";
+
+        int CHANGE_TYPE_INSERT = 1;
+        int CHANGE_TYPE_DELETE = 2;
+    }
+
+    /**
+     * Columns of {@link Tables#TRIGRAMS}, the digit search index described in
+     * {@link NumberSearch}.  Rows are added with the blocked number and removed by triggers.
+     */
+    public interface Trigrams {
+        String TRIGRAM = "trigram";
+        /** The {@code _id} of the blocked number containing {@link #TRIGRAM}. */
+        String BLOCKED_ID = "blocked_id";
+    }
+
+    /**
+     * Columns of {@link Tables#METADATA}, which holds one value per name about the database
+     * itself.
+     */
+    public interface Metadata {
+        String NAME = "name";
+        String VALUE = "value";
+
+        /** The random id chosen when the database is created, see {@link #getDatabaseId}. */
+        String DATABASE_ID = "database_id";
     }
 
     private static final class OpenHelper extends SQLiteOpenHelper {
+        /** Set when the schema was created or upgraded by this process. */
+        volatile boolean mSchemaChanged;
+
         public OpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory,
                           int version) {
             super(context, name, factory, version);
@@ -51,14 +305,65 @@ public class BlockedNumberDatabaseHelper {
         @Override
         public void onCreate(SQLiteDatabase db) {
             createTables(db);
+            createChangeJournal(db);
+            createSearchIndex(db);
+            addSourceColumn(db);
+            addExpiryColumn(db);
+            addHitColumns(db);
+            createMetadata(db);
+            mSchemaChanged = true;
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            if (db.isReadOnly()) {
+                return;
+            }
+            // Drop the shadow tables of replacements cut short by the process dying.
+            final ArrayList<String> shadowTables = new ArrayList<>();
+            try (Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'" +
+                    " AND name LIKE '" + Tables.SHADOW_PREFIX + "%'", null)) {
+                while (c.moveToNext()) {
+                    shadowTables.add(c.getString(0));
+                }
+            }
+            for (String table : shadowTables) {
+                db.execSQL("DROP TABLE IF EXISTS " + table);
+            }
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            mSchemaChanged = true;
             if (oldVersion < 2) {
                 db.execSQL("DROP TABLE IF EXISTS blocked");
                 createTables(db);
             }
+            if (oldVersion < 3) {
+                createChangeJournal(db);
+            }
+            if (oldVersion < 4) {
+                createSearchIndex(db);
+                try (Cursor c = db.query(Tables.BLOCKED_NUMBERS, new String[] {
+                        BlockedNumbers.COLUMN_ID, BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                        BlockedNumbers.COLUMN_E164_NUMBER}, null, null, null, null, null)) {
+                    while (c.moveToNext()) {
+                        insertTrigrams(db, c.getLong(0), c.getString(1), c.getString(2));
+                    }
+                }
+            }
+            if (oldVersion < 5) {
+                addSourceColumn(db);
+            }
+            if (oldVersion < 6) {
+                addExpiryColumn(db);
+            }
+            if (oldVersion < 7) {
+                addHitColumns(db);
+            }
+            if (oldVersion < 8) {
+                createMetadata(db);
+            }
         }
 
         private void createTables(SQLiteDatabase db) {
@@ -74,6 +379,94 @@ public class BlockedNumberDatabaseHelper {
                     BlockedNumbers.COLUMN_E164_NUMBER +
                     ");");
         }
+
+        private void addSourceColumn(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + Tables.BLOCKED_NUMBERS + " ADD COLUMN " +
+                    BlockedColumns.SOURCE + " TEXT");
+            db.execSQL("CREATE INDEX blocked_number_idx_source ON " + Tables.BLOCKED_NUMBERS +
+                    " (" + BlockedColumns.SOURCE + ");");
+        }
+
+        private void addExpiryColumn(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + Tables.BLOCKED_NUMBERS + " ADD COLUMN " +
+                    BlockedColumns.EXPIRES_AT + " INTEGER");
+            // Most rows never expire, so only index those that do.
+            db.execSQL("CREATE INDEX blocked_number_idx_expires_at ON " +
+                    Tables.BLOCKED_NUMBERS + " (" + BlockedColumns.EXPIRES_AT + ") WHERE " +
+                    BlockedColumns.EXPIRES_AT + " IS NOT NULL;");
+        }
+
+        private void addHitColumns(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + Tables.BLOCKED_NUMBERS + " ADD COLUMN " +
+                    BlockedColumns.HIT_COUNT + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + Tables.BLOCKED_NUMBERS + " ADD COLUMN " +
+                    BlockedColumns.LAST_HIT_AT + " INTEGER");
+        }
+
+        private void createMetadata(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + Tables.METADATA + " (" +
+                    Metadata.NAME + " TEXT PRIMARY KEY," +
+                    Metadata.VALUE + " NOT NULL" +
+                    ")");
+            final ContentValues values = new ContentValues(2);
+            values.put(Metadata.NAME, Metadata.DATABASE_ID);
+            values.put(Metadata.VALUE, new SecureRandom().nextLong());
+            db.insertOrThrow(Tables.METADATA, null, values);
+        }
+
+        private void createChangeJournal(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + Tables.CHANGES + " (" +
+                    Changes.GENERATION + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    Changes.BLOCKED_ID + " INTEGER NOT NULL," +
+                    Changes.CHANGE_TYPE + " INTEGER NOT NULL" +
+                    ")");
+
+            db.execSQL("CREATE TRIGGER blocked_changes_insert AFTER INSERT ON " +
+                    Tables.BLOCKED_NUMBERS + " BEGIN " +
+                    "INSERT INTO " + Tables.CHANGES + " (" + Changes.BLOCKED_ID + ", " +
+                    Changes.CHANGE_TYPE + ") VALUES (NEW." + BlockedNumbers.COLUMN_ID + ", " +
+                    Changes.CHANGE_TYPE_INSERT + "); END");
+            db.execSQL("CREATE TRIGGER blocked_changes_delete AFTER DELETE ON " +
+                    Tables.BLOCKED_NUMBERS + " BEGIN " +
+                    "INSERT INTO " + Tables.CHANGES + " (" + Changes.BLOCKED_ID + ", " +
+                    Changes.CHANGE_TYPE + ") VALUES (OLD." + BlockedNumbers.COLUMN_ID + ", " +
+                    Changes.CHANGE_TYPE_DELETE + "); END");
+            // Rows removed by an INSERT OR REPLACE do not fire delete triggers (recursive
+            // triggers are off), so journal the row about to be replaced explicitly.
+            db.execSQL("CREATE TRIGGER blocked_changes_replace BEFORE INSERT ON " +
+                    Tables.BLOCKED_NUMBERS + " BEGIN " +
+                    "INSERT INTO " + Tables.CHANGES + " (" + Changes.BLOCKED_ID + ", " +
+                    Changes.CHANGE_TYPE + ") SELECT " + BlockedNumbers.COLUMN_ID + ", " +
+                    Changes.CHANGE_TYPE_DELETE + " FROM " + Tables.BLOCKED_NUMBERS +
+                    " WHERE " + BlockedNumbers.COLUMN_ORIGINAL_NUMBER + " = NEW." +
+                    BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "; END");
+            db.execSQL("CREATE TRIGGER blocked_changes_trim AFTER INSERT ON " + Tables.CHANGES +
+                    " BEGIN DELETE FROM " + Tables.CHANGES + " WHERE " + Changes.GENERATION +
+                    " <= NEW." + Changes.GENERATION + " - " + MAX_CHANGE_JOURNAL_ENTRIES +
+                    "; END");
+        }
+
+        private void createSearchIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + Tables.TRIGRAMS + " (" +
+                    Trigrams.TRIGRAM + " INTEGER NOT NULL," +
+                    Trigrams.BLOCKED_ID + " INTEGER NOT NULL," +
+                    "PRIMARY KEY (" + Trigrams.TRIGRAM + ", " + Trigrams.BLOCKED_ID + ")" +
+                    ") WITHOUT ROWID");
+            db.execSQL("CREATE INDEX blocked_trigrams_idx_blocked_id ON " + Tables.TRIGRAMS +
+                    " (" + Trigrams.BLOCKED_ID + ");");
+
+            db.execSQL("CREATE TRIGGER blocked_trigrams_delete AFTER DELETE ON " +
+                    Tables.BLOCKED_NUMBERS + " BEGIN " +
+                    "DELETE FROM " + Tables.TRIGRAMS + " WHERE " + Trigrams.BLOCKED_ID +
+                    " = OLD." + BlockedNumbers.COLUMN_ID + "; END");
+            // Like blocked_changes_replace: a replaced row does not fire the delete trigger.
+            db.execSQL("CREATE TRIGGER blocked_trigrams_replace BEFORE INSERT ON " +
+                    Tables.BLOCKED_NUMBERS + " BEGIN " +
+                    "DELETE FROM " + Tables.TRIGRAMS + " WHERE " + Trigrams.BLOCKED_ID +
+                    " IN (SELECT " + BlockedNumbers.COLUMN_ID + " FROM " +
+                    Tables.BLOCKED_NUMBERS + " WHERE " + BlockedNumbers.COLUMN_ORIGINAL_NUMBER +
+                    " = NEW." + BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "); END");
+        }
     }
 
     @VisibleForTesting
@@ -86,6 +479,19 @@ public class BlockedNumberDatabaseHelper {
         mContext = context;
         mOpenHelper = new OpenHelper(mContext,
                 instanceIsForTesting ? null : DATABASE_NAME, null, DATABASE_VERSION);
+        mBloomFilterFile = instanceIsForTesting ? null
+                : new File(mContext.getDatabasePath(DATABASE_NAME).getParentFile(),
+                        BLOOM_FILTER_FILE_NAME);
+        // The in-memory test database does its maintenance inline so tests are deterministic.
+        mMaintenanceExecutor = instanceIsForTesting
+                ? Runnable::run : BackgroundThread.getExecutor();
+        mCarrierBlocklist = new CarrierBlocklist(instanceIsForTesting ? null
+                : new File(mContext.getNoBackupFilesDir(), CARRIER_BLOCKLIST_DIR_NAME),
+                mMaintenanceExecutor);
+        mBloomFilterFpp = SystemProperties.getInt(
+                PROP_BLOOM_FILTER_FPP_PPM, DEFAULT_BLOOM_FILTER_FPP_PPM) / 1e6;
+        mBloomFilterMaxBytes = SystemProperties.getInt(
+                PROP_BLOOM_FILTER_MAX_KB, DEFAULT_BLOOM_FILTER_MAX_KB) * 1024;
     }
 
     public static synchronized BlockedNumberDatabaseHelper getInstance(Context context) {
@@ -107,5 +513,871 @@ public class BlockedNumberDatabaseHelper {
 
     public void wipeForTest() {
         getWritableDatabase().execSQL("DELETE FROM " + Tables.BLOCKED_NUMBERS);
+        mBloomFilter = null;
+        invalidateListStats();
+    }
+
+    /**
+     * Begins a transaction that modifies the blocked table, to be ended with
+     * {@link #endBlockedListTransaction}.  Changes reported through
+     * {@link #onBlockedNumberInserted} and {@link #onBlockedNumbersDeleted} are discarded if it
+     * rolls back.
+     */
+    public void beginBlockedListTransaction(@NonNull SQLiteDatabase db) {
+        synchronized (mListStatsLock) {
+            mListStatsEpoch++;
+            mListWritesInFlight++;
+        }
+        try {
+            db.beginTransactionWithListener(mBlockedListTransactionListener);
+        } catch (RuntimeException e) {
+            onBlockedListTransactionEnded();
+            throw e;
+        }
+    }
+
+    public void endBlockedListTransaction(@NonNull SQLiteDatabase db) {
+        try {
+            db.endTransaction();
+        } finally {
+            onBlockedListTransactionEnded();
+        }
+        if (!db.inTransaction()) {
+            mSnapshotPublisher.onListChanged();
+        }
+    }
+
+    private void onBlockedListTransactionEnded() {
+        synchronized (mListStatsLock) {
+            mListStatsEpoch++;
+            mListWritesInFlight--;
+        }
+    }
+
+    @NonNull
+    BlockedNumberSnapshotPublisher getSnapshotPublisher() {
+        return mSnapshotPublisher;
+    }
+
+    @NonNull
+    CarrierBlocklist getCarrierBlocklist() {
+        return mCarrierBlocklist;
+    }
+
+    /**
+     * Marks the start of a multi-row operation, such as a delete with a selection or a rebuild.
+     * The number in flight is published as a trace counter.
+     */
+    public void beginBatchOperation() {
+        Trace.traceCounter(Utils.TRACE_TAG, "BlockedNumbers.batchOperations",
+                mBatchOperations.incrementAndGet());
+    }
+
+    public void endBatchOperation() {
+        Trace.traceCounter(Utils.TRACE_TAG, "BlockedNumbers.batchOperations",
+                mBatchOperations.decrementAndGet());
+    }
+
+    /**
+     * Returns {@code false} only if neither {@code number} nor {@code e164Number} can match a row
+     * of the blocked table.  Returns {@code true} while the bloom filter is still being loaded.
+     */
+    public boolean mightBeBlocked(@NonNull String number, @NonNull String e164Number) {
+        final BlockedNumberBloomFilter filter = mBloomFilter;
+        if (filter == null) {
+            loadBloomFilterAsync();
+            return true;
+        }
+        if (filter.mightContain(number)
+                || (!e164Number.isEmpty() && filter.mightContain(e164Number))) {
+            mBloomFilterPositives.incrementAndGet();
+            return true;
+        }
+        mBloomFilterNegatives.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records that {@link #mightBeBlocked} returned {@code true} but the database had no match.
+     */
+    public void noteBloomFilterFalsePositive() {
+        mBloomFilterFalsePositives.incrementAndGet();
+    }
+
+    /**
+     * Must be called inside the {@link #beginBlockedListTransaction} transaction that inserted
+     * the row.
+     *
+     * @param replaced Whether the row replaced an existing one with the same original number.
+     */
+    public void onBlockedNumberInserted(long rowId, @NonNull String originalNumber,
+            @Nullable String e164Number, boolean replaced) {
+        // A replace journals a delete and an insert.
+        updateListStats(replaced ? 0 : 1, replaced ? 2 : 1);
+        insertTrigrams(getWritableDatabase(), rowId, originalNumber, e164Number);
+
+        final BlockedNumberBloomFilter filter = mBloomFilter;
+        if (filter == null) {
+            return;
+        }
+        filter.put(originalNumber);
+        if (!TextUtils.isEmpty(e164Number)) {
+            filter.put(e164Number);
+        }
+        Trace.traceCounter(Utils.TRACE_TAG, "BlockedNumbers.bloomFilterKeys",
+                filter.getNumKeys());
+        mBloomFilterLastRowId = Math.max(mBloomFilterLastRowId, rowId);
+        if (filter.getExpectedFpp() > 2 * mBloomFilterFpp
+                && filter.getSizeBytes() < mBloomFilterMaxBytes) {
+            // Outgrown; resize.
+            loadBloomFilterAsync();
+        } else {
+            schedulePersistBloomFilter();
+        }
+    }
+
+    /**
+     * Must be called inside the {@link #beginBlockedListTransaction} transaction that deleted the
+     * rows.
+     */
+    public void onBlockedNumbersDeleted(int numRows) {
+        if (numRows > 0) {
+            updateListStats(-numRows, numRows);
+        }
+
+        final BlockedNumberBloomFilter filter = mBloomFilter;
+        if (filter == null || numRows <= 0) {
+            return;
+        }
+        mBloomFilterDeletedRows += numRows;
+        // Each row contributes up to two keys; rebuild once about half of them are stale.
+        if (mBloomFilterDeletedRows >= MIN_DELETES_BEFORE_BLOOM_FILTER_REBUILD
+                && mBloomFilterDeletedRows * 4 >= filter.getNumKeys()) {
+            loadBloomFilterAsync();
+        }
+    }
+
+    /**
+     * @return The earliest {@link BlockedColumns#EXPIRES_AT}, or {@link #NO_EXPIRY} if no row
+     * expires.
+     */
+    public long getNextExpiry() {
+        try (Cursor c = getReadableDatabase().rawQuery("SELECT MIN(" +
+                BlockedColumns.EXPIRES_AT + ") FROM " + Tables.BLOCKED_NUMBERS + " WHERE " +
+                BlockedColumns.EXPIRES_AT + " IS NOT NULL", null)) {
+            return c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : NO_EXPIRY;
+        }
+    }
+
+    /**
+     * Deletes up to {@code maxRows} rows that expired at or before {@code nowMillis}, in one
+     * transaction.
+     *
+     * @return The number of rows deleted.
+     */
+    public int deleteExpiredBlockedNumbers(long nowMillis, int maxRows) {
+        final SQLiteDatabase db = getWritableDatabase();
+        beginBlockedListTransaction(db);
+        try {
+            final int deleted = db.delete(Tables.BLOCKED_NUMBERS,
+                    BlockedNumbers.COLUMN_ID + " IN (SELECT " + BlockedNumbers.COLUMN_ID +
+                            " FROM " + Tables.BLOCKED_NUMBERS + " WHERE " +
+                            BlockedColumns.EXPIRES_AT + "<=? LIMIT ?)",
+                    new String[] {Long.toString(nowMillis), Integer.toString(maxRows)});
+            onBlockedNumbersDeleted(deleted);
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            endBlockedListTransaction(db);
+        }
+    }
+
+    /**
+     * Adds {@code hits} to the {@link BlockedColumns#HIT_COUNT} of their rows in one transaction.
+     * Rows deleted since are skipped.  Hits are statistics rather than list changes, so this does
+     * not advance the list generation or notify anyone.
+     */
+    public void addHits(@NonNull HitCounter.Batch hits) {
+        if (hits.size == 0) {
+            return;
+        }
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement update = db.compileStatement("UPDATE " + Tables.BLOCKED_NUMBERS +
+                " SET " + BlockedColumns.HIT_COUNT + "=" + BlockedColumns.HIT_COUNT + "+?1," +
+                BlockedColumns.LAST_HIT_AT + "=MAX(IFNULL(" + BlockedColumns.LAST_HIT_AT +
+                ",0),?2) WHERE " + BlockedNumbers.COLUMN_ID + "=?3")) {
+            for (int i = 0; i < hits.size; i++) {
+                update.bindLong(1, hits.counts[i]);
+                update.bindLong(2, hits.lastHitMillis[i]);
+                update.bindLong(3, hits.ids[i]);
+                update.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Starts replacing all rows of {@code source}.
+     */
+    @NonNull
+    public SourceReplacement beginSourceReplacement(@NonNull String source) {
+        return new SourceReplacement(source);
+    }
+
+    /**
+     * Replaces the rows of one {@link BlockedColumns#SOURCE} as a whole.
+     *
+     * <p>The replacement is first loaded into a shadow table without constraints or indexes.
+     * {@link #finish} then indexes it and applies the difference to the blocked table in one
+     * short transaction, so readers see either the old or the new list, and unchanged rows keep
+     * their ids.  Numbers already blocked by the user or another source are left alone.
+     */
+    public final class SourceReplacement {
+        private final String mSource;
+        private final String mShadowTable;
+
+        private SourceReplacement(String source) {
+            mSource = source;
+            mShadowTable = Tables.SHADOW_PREFIX + sNextShadowTable.getAndIncrement();
+            final SQLiteDatabase db = getWritableDatabase();
+            db.execSQL("DROP TABLE IF EXISTS " + mShadowTable);
+            db.execSQL("CREATE TABLE " + mShadowTable + " (" +
+                    BlockedNumbers.COLUMN_ORIGINAL_NUMBER + " TEXT NOT NULL," +
+                    BlockedNumbers.COLUMN_E164_NUMBER + " TEXT" +
+                    ")");
+        }
+
+        /**
+         * Adds rows holding the original and E164 numbers to the replacement.
+         */
+        public void add(@NonNull List<ContentValues> rows) {
+            final SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try (SQLiteStatement insert = db.compileStatement("INSERT INTO " + mShadowTable +
+                    " (" + BlockedNumbers.COLUMN_ORIGINAL_NUMBER + ", " +
+                    BlockedNumbers.COLUMN_E164_NUMBER + ") VALUES (?, ?)")) {
+                for (ContentValues row : rows) {
+                    final String originalNumber =
+                            row.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER);
+                    final String e164Number = row.getAsString(BlockedNumbers.COLUMN_E164_NUMBER);
+                    if (TextUtils.isEmpty(originalNumber)) {
+                        throw new IllegalArgumentException("Missing a required column " +
+                                BlockedNumbers.COLUMN_ORIGINAL_NUMBER);
+                    }
+                    insert.bindString(1, originalNumber);
+                    if (e164Number == null) {
+                        insert.bindNull(2);
+                    } else {
+                        insert.bindString(2, e164Number);
+                    }
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        /**
+         * Swaps the replacement in if {@code complete}, and drops the shadow table.
+         *
+         * @return Whether the blocked table changed.
+         */
+        public boolean finish(boolean complete) {
+            final SQLiteDatabase db = getWritableDatabase();
+            try {
+                return complete && swap(db);
+            } finally {
+                db.execSQL("DROP TABLE IF EXISTS " + mShadowTable);
+            }
+        }
+
+        private boolean swap(SQLiteDatabase db) {
+            Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.replaceSource");
+            beginBatchOperation();
+            try {
+                // Indexing once is cheaper than maintaining the index during the load.
+                db.execSQL("CREATE INDEX " + mShadowTable + "_idx ON " + mShadowTable + " (" +
+                        BlockedNumbers.COLUMN_ORIGINAL_NUMBER + ")");
+
+                final int deleted;
+                int inserted = 0;
+                beginBlockedListTransaction(db);
+                try {
+                    // The rows of the source that are gone, or have another E164 number.
+                    try (SQLiteStatement delete = db.compileStatement("DELETE FROM " +
+                            Tables.BLOCKED_NUMBERS + " WHERE " + BlockedColumns.SOURCE +
+                            "=? AND NOT EXISTS (SELECT 1 FROM " + mShadowTable + " s WHERE s." +
+                            BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=" + Tables.BLOCKED_NUMBERS +
+                            "." + BlockedNumbers.COLUMN_ORIGINAL_NUMBER + " AND s." +
+                            BlockedNumbers.COLUMN_E164_NUMBER + " IS " + Tables.BLOCKED_NUMBERS +
+                            "." + BlockedNumbers.COLUMN_E164_NUMBER + ")")) {
+                        delete.bindString(1, mSource);
+                        deleted = delete.executeUpdateDelete();
+                    }
+                    onBlockedNumbersDeleted(deleted);
+
+                    // The numbers not blocked yet, by anyone.
+                    final long lastRowId = queryLastRowId(db);
+                    try (SQLiteStatement insert = db.compileStatement("INSERT INTO " +
+                            Tables.BLOCKED_NUMBERS + " (" +
+                            BlockedNumbers.COLUMN_ORIGINAL_NUMBER + ", " +
+                            BlockedNumbers.COLUMN_E164_NUMBER + ", " + BlockedColumns.SOURCE +
+                            ") SELECT " + BlockedNumbers.COLUMN_ORIGINAL_NUMBER + ", " +
+                            BlockedNumbers.COLUMN_E164_NUMBER + ", ? FROM " + mShadowTable +
+                            " s WHERE NOT EXISTS (SELECT 1 FROM " + Tables.BLOCKED_NUMBERS +
+                            " b WHERE b." + BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=s." +
+                            BlockedNumbers.COLUMN_ORIGINAL_NUMBER + ") GROUP BY " +
+                            BlockedNumbers.COLUMN_ORIGINAL_NUMBER)) {
+                        insert.bindString(1, mSource);
+                        insert.execute();
+                    }
+                    try (Cursor c = db.query(Tables.BLOCKED_NUMBERS, new String[] {
+                            BlockedNumbers.COLUMN_ID, BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                            BlockedNumbers.COLUMN_E164_NUMBER},
+                            BlockedNumbers.COLUMN_ID + ">?", new String[] {
+                            Long.toString(lastRowId)}, null, null, null)) {
+                        while (c.moveToNext()) {
+                            onBlockedNumberInserted(c.getLong(0), c.getString(1),
+                                    c.getString(2), /* replaced =*/ false);
+                            inserted++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    endBlockedListTransaction(db);
+                }
+                Log.i(TAG, "Replaced source " + mSource + ": deleted=" + deleted
+                        + ", inserted=" + inserted);
+                return deleted > 0 || inserted > 0;
+            } finally {
+                endBatchOperation();
+                Trace.traceEnd(Utils.TRACE_TAG);
+            }
+        }
+    }
+
+    /**
+     * Loads the bloom filter, or rebuilds it from the table if it is already loaded.
+     */
+    private void loadBloomFilterAsync() {
+        if (mBloomFilterLoadPending.compareAndSet(false, true)) {
+            mMaintenanceExecutor.execute(mLoadBloomFilterRunnable);
+        }
+    }
+
+    private void schedulePersistBloomFilter() {
+        if (mBloomFilterFile == null) {
+            return;
+        }
+        BackgroundThread.getHandler().removeCallbacks(mPersistBloomFilterRunnable);
+        BackgroundThread.getHandler().postDelayed(
+                mPersistBloomFilterRunnable, BLOOM_FILTER_PERSIST_DELAY_MS);
+    }
+
+    /**
+     * Loads the bloom filter from its sidecar file if that is still in sync with the database,
+     * and otherwise rebuilds it from the blocked table.
+     */
+    private void loadBloomFilter(boolean allowFromFile) {
+        final SQLiteDatabase db = getWritableDatabase();
+        boolean built = false;
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.loadBloomFilter");
+        beginBatchOperation();
+        db.beginTransaction();
+        try {
+            final long lastRowId = queryLastRowId(db);
+            BlockedNumberBloomFilter filter = null;
+            if (allowFromFile && !mOpenHelper.mSchemaChanged) {
+                filter = readBloomFilterFile(lastRowId);
+            }
+            if (filter == null) {
+                filter = buildBloomFilter(db);
+                built = true;
+            }
+            mBloomFilter = filter;
+            mBloomFilterLastRowId = lastRowId;
+            mBloomFilterDeletedRows = 0;
+            mBloomFilterBuildTimeMillis = System.currentTimeMillis();
+            db.setTransactionSuccessful();
+            Trace.traceCounter(Utils.TRACE_TAG, "BlockedNumbers.bloomFilterKeys",
+                    filter.getNumKeys());
+        } finally {
+            db.endTransaction();
+            endBatchOperation();
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+        if (built) {
+            schedulePersistBloomFilter();
+        }
+    }
+
+    private BlockedNumberBloomFilter buildBloomFilter(SQLiteDatabase db) {
+        final long numRows = DatabaseUtils.queryNumEntries(db, Tables.BLOCKED_NUMBERS);
+        // Two keys per row, with room to double before the filter has to be resized.
+        final int expectedKeys = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(MIN_BLOOM_FILTER_EXPECTED_KEYS, numRows * 4));
+        final BlockedNumberBloomFilter filter = BlockedNumberBloomFilter.create(
+                expectedKeys, mBloomFilterFpp, mBloomFilterMaxBytes);
+        try (Cursor c = db.query(Tables.BLOCKED_NUMBERS,
+                new String[] {BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                        BlockedNumbers.COLUMN_E164_NUMBER},
+                null, null, null, null, null)) {
+            while (c.moveToNext()) {
+                filter.put(c.getString(0));
+                final String e164 = c.getString(1);
+                if (!TextUtils.isEmpty(e164)) {
+                    filter.put(e164);
+                }
+            }
+        }
+        Log.i(TAG, "Built bloom filter: rows=" + numRows + ", bytes=" + filter.getSizeBytes()
+                + ", hashes=" + filter.getNumHashes());
+        return filter;
+    }
+
+    /**
+     * @return The last {@code _id} assigned in the blocked table.  Unlike {@code max(_id)} this
+     * never goes down, because the table uses AUTOINCREMENT.
+     */
+    private static long queryLastRowId(SQLiteDatabase db) {
+        return querySequence(db, Tables.BLOCKED_NUMBERS);
+    }
+
+    private static long querySequence(SQLiteDatabase db, String table) {
+        try (Cursor c = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name=?",
+                new String[] {table})) {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * @return The generation of the last change to the blocked table.  It never goes down while
+     * the database exists.
+     */
+    public long getChangeGeneration() {
+        return querySequence(getReadableDatabase(), Tables.CHANGES);
+    }
+
+    /**
+     * @return A random id chosen when the database was created.  The change generations of a
+     * database that was deleted and created again start over, so they are only comparable between
+     * calls that returned the same id.
+     */
+    public long getDatabaseId() {
+        Long databaseId = mDatabaseId;
+        if (databaseId == null) {
+            databaseId = DatabaseUtils.longForQuery(getReadableDatabase(),
+                    "SELECT " + Metadata.VALUE + " FROM " + Tables.METADATA + " WHERE " +
+                            Metadata.NAME + "=?", new String[] {Metadata.DATABASE_ID});
+            mDatabaseId = databaseId;
+        }
+        return databaseId;
+    }
+
+    private static void insertTrigrams(SQLiteDatabase db, long rowId,
+            @NonNull String originalNumber, @Nullable String e164Number) {
+        final int[] trigrams = NumberSearch.getTrigrams(originalNumber, e164Number);
+        if (trigrams.length == 0) {
+            return;
+        }
+        try (SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " +
+                Tables.TRIGRAMS + " (" + Trigrams.TRIGRAM + ", " + Trigrams.BLOCKED_ID +
+                ") VALUES (?, ?)")) {
+            insert.bindLong(2, rowId);
+            for (int trigram : trigrams) {
+                insert.bindLong(1, trigram);
+                insert.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * Finds the blocked numbers whose digits contain the digits of {@code query}, best matches
+     * first as ranked by {@link NumberSearch#getMatchRank}, then shorter numbers first.  A query
+     * without digits matches the original numbers as text instead.
+     *
+     * <p>Only the best {@code limit} candidates are kept while the candidates are read, so the
+     * memory used does not grow with the number of matches.
+     *
+     * @param projection Columns of the blocked table to return.
+     * @param limit The maximum number of rows to return, at most {@link #MAX_SEARCH_RESULTS}.
+     */
+    @NonNull
+    public Cursor searchBlockedNumbers(@NonNull String query, @NonNull String[] projection,
+            int limit, @Nullable CancellationSignal cancellationSignal) {
+        Preconditions.checkArgumentInRange(limit, 0, MAX_SEARCH_RESULTS, "limit");
+        final MatrixCursor result = new MatrixCursor(projection);
+        if (limit == 0) {
+            return result;
+        }
+        final String queryDigits = NumberSearch.getDigits(query);
+        final SQLiteDatabase db = getReadableDatabase();
+        final String columns = BlockedNumbers.COLUMN_ID + ", " +
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER + ", " + BlockedNumbers.COLUMN_E164_NUMBER;
+        final String sql;
+        final String[] args;
+        if (queryDigits.isEmpty()) {
+            sql = "SELECT " + columns + " FROM " + Tables.BLOCKED_NUMBERS + " WHERE " +
+                    BlockedNumbers.COLUMN_ORIGINAL_NUMBER + " LIKE ? ESCAPE '\\'";
+            args = new String[] {"%" + escapeLikePattern(query) + "%"};
+        } else if (queryDigits.length() < NumberSearch.TRIGRAM_LENGTH) {
+            // Too short for the index; such a query matches a large part of the table anyway.
+            // The scan keeps no more than the limit in memory.
+            sql = "SELECT " + columns + " FROM " + Tables.BLOCKED_NUMBERS;
+            args = null;
+        } else {
+            // Numbers with all of the query trigrams; getMatchRank() drops those with the
+            // trigrams in a different order.
+            final int[] trigrams = NumberSearch.getTrigrams(queryDigits);
+            final StringBuilder sb = new StringBuilder("SELECT ").append(columns)
+                    .append(" FROM ").append(Tables.BLOCKED_NUMBERS).append(" WHERE ")
+                    .append(BlockedNumbers.COLUMN_ID).append(" IN (SELECT ")
+                    .append(Trigrams.BLOCKED_ID).append(" FROM ").append(Tables.TRIGRAMS)
+                    .append(" WHERE ").append(Trigrams.TRIGRAM).append(" IN (");
+            args = new String[trigrams.length];
+            for (int i = 0; i < trigrams.length; i++) {
+                sb.append(i == 0 ? "?" : ", ?");
+                args[i] = Integer.toString(trigrams[i]);
+            }
+            sb.append(") GROUP BY ").append(Trigrams.BLOCKED_ID)
+                    .append(" HAVING COUNT(*) = ").append(trigrams.length).append(")");
+            sql = sb.toString();
+        }
+
+        // The worst of the best matches so far is at the head, to be dropped by a better one.
+        final PriorityQueue<SearchMatch> best =
+                new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+        try (Cursor c = db.rawQuery(sql, args, cancellationSignal)) {
+            while (c.moveToNext()) {
+                final String originalNumber = c.getString(1);
+                final String e164Number = c.getString(2);
+                final int rank = queryDigits.isEmpty() ? NumberSearch.RANK_CONTAINS
+                        : NumberSearch.getMatchRank(queryDigits, originalNumber, e164Number);
+                if (rank == NumberSearch.NO_MATCH) {
+                    continue;
+                }
+                best.add(new SearchMatch(rank, c.getLong(0), originalNumber, e164Number));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+
+        final SearchMatch[] matches = best.toArray(new SearchMatch[best.size()]);
+        Arrays.sort(matches);
+        for (SearchMatch match : matches) {
+            final MatrixCursor.RowBuilder row = result.newRow();
+            row.add(BlockedNumbers.COLUMN_ID, match.id);
+            row.add(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, match.originalNumber);
+            row.add(BlockedNumbers.COLUMN_E164_NUMBER, match.e164Number);
+        }
+        return result;
+    }
+
+    private static String escapeLikePattern(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static final class SearchMatch implements Comparable<SearchMatch> {
+        final int rank;
+        final long id;
+        final String originalNumber;
+        final String e164Number;
+
+        SearchMatch(int rank, long id, String originalNumber, String e164Number) {
+            this.rank = rank;
+            this.id = id;
+            this.originalNumber = originalNumber;
+            this.e164Number = e164Number;
+        }
+
+        @Override
+        public int compareTo(SearchMatch other) {
+            if (rank != other.rank) {
+                return Integer.compare(rank, other.rank);
+            }
+            if (originalNumber.length() != other.originalNumber.length()) {
+                return Integer.compare(originalNumber.length(), other.originalNumber.length());
+            }
+            return Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * The size of the blocked list at a list generation.
+     */
+    public static final class ListStats {
+        /** The number of rows in the blocked table. */
+        public final long count;
+        /** Same as {@link BlockedNumberDatabaseHelper#getChangeGeneration()}. */
+        public final long generation;
+
+        ListStats(long count, long generation) {
+            this.count = count;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * @return The size and generation of the blocked list, maintained in memory after the first
+     * call.
+     */
+    @NonNull
+    public ListStats getListStats() {
+        final long epoch;
+        final boolean writesInFlight;
+        synchronized (mListStatsLock) {
+            if (mBlockedNumberCount >= 0) {
+                return new ListStats(mBlockedNumberCount, mListGeneration);
+            }
+            epoch = mListStatsEpoch;
+            writesInFlight = mListWritesInFlight > 0;
+        }
+        // Not under the lock: the query may wait for a write transaction, which reports its
+        // changes under the lock.
+        final SQLiteDatabase db = getReadableDatabase();
+        final ListStats stats;
+        db.beginTransactionReadOnly();
+        try {
+            stats = new ListStats(DatabaseUtils.queryNumEntries(db, Tables.BLOCKED_NUMBERS),
+                    querySequence(db, Tables.CHANGES));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        synchronized (mListStatsLock) {
+            // Only cache what no write raced with.
+            if (!writesInFlight && mListStatsEpoch == epoch) {
+                mBlockedNumberCount = stats.count;
+                mListGeneration = stats.generation;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Must be called inside the write transaction that made the change.
+     */
+    private void updateListStats(int countDelta, int generationDelta) {
+        synchronized (mListStatsLock) {
+            if (mBlockedNumberCount >= 0) {
+                mBlockedNumberCount += countDelta;
+                mListGeneration += generationDelta;
+            }
+        }
+    }
+
+    private void invalidateListStats() {
+        synchronized (mListStatsLock) {
+            mListStatsEpoch++;
+            mBlockedNumberCount = -1;
+        }
+    }
+
+    /**
+     * The changes to the blocked table between two generations, in the order they happened.
+     */
+    public static final class ChangeSet {
+        /** The generation the changes were read from, exclusive. */
+        public final long fromGeneration;
+        /** The generation of the last change, which a later read can continue from. */
+        public final long toGeneration;
+        public final int[] blockedIds;
+        /** {@link Changes#CHANGE_TYPE_INSERT} or {@link Changes#CHANGE_TYPE_DELETE}. */
+        public final int[] changeTypes;
+
+        ChangeSet(long fromGeneration, long toGeneration, int[] blockedIds, int[] changeTypes) {
+            this.fromGeneration = fromGeneration;
+            this.toGeneration = toGeneration;
+            this.blockedIds = blockedIds;
+            this.changeTypes = changeTypes;
+        }
+    }
+
+    /**
+     * Reads the journaled changes after {@code generation}.
+     *
+     * @return The changes, or {@code null} if the journal no longer holds all of them (or the
+     * database was recreated since), in which case the caller has to rescan the blocked table.
+     */
+    @Nullable
+    public ChangeSet getChangesSince(long generation) {
+        return getChangesSince(generation, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #getChangesSince(long)}, reading at most {@code maxChanges} changes.  If there
+     * are more, {@link ChangeSet#toGeneration} is the generation of the last one read.
+     */
+    @Nullable
+    public ChangeSet getChangesSince(long generation, int maxChanges) {
+        final SQLiteDatabase db = getReadableDatabase();
+        // The read transaction keeps the trim trigger from removing entries while they are read,
+        // without taking the write lock.
+        db.beginTransactionReadOnly();
+        try {
+            final long current = querySequence(db, Tables.CHANGES);
+            if (generation < 0 || generation > current) {
+                return null;
+            }
+            long toGeneration = generation;
+            final IntArray blockedIds = new IntArray();
+            final IntArray changeTypes = new IntArray();
+            try (Cursor c = db.query(Tables.CHANGES,
+                    new String[] {Changes.GENERATION, Changes.BLOCKED_ID, Changes.CHANGE_TYPE},
+                    Changes.GENERATION + " > ?", new String[] {Long.toString(generation)},
+                    null, null, Changes.GENERATION, Integer.toString(maxChanges))) {
+                if (current > generation
+                        && (!c.moveToFirst() || c.getLong(0) != generation + 1)) {
+                    return null;
+                }
+                c.moveToPosition(-1);
+                while (c.moveToNext()) {
+                    toGeneration = c.getLong(0);
+                    blockedIds.add(c.getInt(1));
+                    changeTypes.add(c.getInt(2));
+                }
+            }
+            db.setTransactionSuccessful();
+            return new ChangeSet(generation, toGeneration, blockedIds.toArray(),
+                    changeTypes.toArray());
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Nullable
+    private BlockedNumberBloomFilter readBloomFilterFile(long expectedLastRowId) {
+        if (mBloomFilterFile == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new AtomicFile(mBloomFilterFile).openRead()))) {
+            final int schemaVersion = in.readInt();
+            final long lastRowId = in.readLong();
+            if (schemaVersion != DATABASE_VERSION || lastRowId != expectedLastRowId) {
+                Log.i(TAG, "Bloom filter file is stale; rebuilding");
+                return null;
+            }
+            return BlockedNumberBloomFilter.readFrom(in);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read bloom filter file", e);
+            return null;
+        }
+    }
+
+    private void persistBloomFilter() {
+        if (mBloomFilterFile == null || mBloomFilter == null) {
+            return;
+        }
+        // Take a consistent copy; writes to the file happen outside the transaction.
+        final BlockedNumberBloomFilter snapshot;
+        final long lastRowId;
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            snapshot = mBloomFilter.copy();
+            lastRowId = mBloomFilterLastRowId;
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        final AtomicFile file = new AtomicFile(mBloomFilterFile);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(DATABASE_VERSION);
+            out.writeLong(lastRowId);
+            snapshot.writeTo(out);
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write bloom filter file", e);
+            file.failWrite(fos);
+        }
+    }
+
+    /**
+     * Dumps table, index and cache state.  Keys printed here are part of the checkin format.
+     */
+    void dump(@NonNull DumpWriter dw) {
+        dumpDatabase(dw);
+        dumpBloomFilter(dw);
+        mCarrierBlocklist.dump(dw);
+    }
+
+    private void dumpDatabase(DumpWriter dw) {
+        dw.startSection("database");
+        final SQLiteDatabase db;
+        try {
+            db = getReadableDatabase();
+        } catch (SQLiteException e) {
+            dw.print("error", e.getMessage());
+            return;
+        }
+        dw.print("schema_version", db.getVersion());
+        dw.print("row_count", DatabaseUtils.queryNumEntries(db, Tables.BLOCKED_NUMBERS));
+        dw.print("change_generation", querySequence(db, Tables.CHANGES));
+        dw.print("change_journal_entries", DatabaseUtils.queryNumEntries(db, Tables.CHANGES));
+        final long pageSize = db.getPageSize();
+        final long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        final long freelistCount = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        dw.print("page_size", pageSize);
+        dw.print("page_count", pageCount);
+        dw.print("freelist_count", freelistCount);
+        dw.print("size_bytes", pageSize * pageCount);
+        dw.print("freelist_ratio", pageCount == 0 ? 0.0 : (double) freelistCount / pageCount);
+        if (db.isInMemoryDatabase()) {
+            dw.print("wal_bytes", 0);
+        } else {
+            dw.print("wal_bytes", new File(db.getPath() + "-wal").length());
+        }
+
+        // Per table and index sizes need the dbstat virtual table, which is not always built in.
+        try (Cursor c = db.rawQuery(
+                "SELECT name, COUNT(*), SUM(pgsize) FROM dbstat GROUP BY name ORDER BY name",
+                null)) {
+            while (c.moveToNext()) {
+                dw.print("btree." + c.getString(0) + ".pages", c.getLong(1));
+                dw.print("btree." + c.getString(0) + ".bytes", c.getLong(2));
+            }
+        } catch (SQLiteException e) {
+            dw.print("btree_stats", "unavailable");
+        }
+    }
+
+    private void dumpBloomFilter(DumpWriter dw) {
+        final BlockedNumberBloomFilter filter = mBloomFilter;
+        final long negatives = mBloomFilterNegatives.get();
+        final long positives = mBloomFilterPositives.get();
+        final long falsePositives = mBloomFilterFalsePositives.get();
+        final long lookups = negatives + positives;
+
+        dw.startSection("cache.bloom_filter");
+        dw.print("loaded", filter != null);
+        dw.print("target_fpp", mBloomFilterFpp);
+        dw.print("max_bytes", mBloomFilterMaxBytes);
+        dw.print("size_bytes", filter == null ? 0 : filter.getSizeBytes());
+        dw.print("keys", filter == null ? 0 : filter.getNumKeys());
+        dw.print("hashes", filter == null ? 0 : filter.getNumHashes());
+        dw.print("expected_fpp", filter == null ? 0.0 : filter.getExpectedFpp());
+        dw.print("deleted_rows_since_build", mBloomFilterDeletedRows);
+        dw.print("last_row_id", mBloomFilterLastRowId);
+        dw.print("last_invalidation_millis", mBloomFilterBuildTimeMillis);
+        dw.print("lookups", lookups);
+        dw.print("negatives", negatives);
+        dw.print("false_positives", falsePositives);
+        // A "hit" is a lookup answered without touching the database.
+        dw.print("hit_rate", lookups == 0 ? 0.0 : (double) negatives / lookups);
+        dw.print("observed_fpp", negatives + falsePositives == 0 ? 0.0
+                : (double) falsePositives / (negatives + falsePositives));
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.ParcelFileDescriptor;
+import android.os.Trace;
+import android.provider.BlockedNumberContract.BlockedNumbers;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes the blocked table to a pipe in the {@link ExportCodec} format.
+ *
+ * <p>The table is read in pages of {@link #PAGE_SIZE} rows, in ascending id order, each in its
+ * own query, so memory use does not depend on the size of the list and writers are not held up
+ * by a slow reader.  The export is therefore not a point in time snapshot, but holds every row
+ * that exists for the whole export exactly once.
+ */
+class BlockedNumberExporter implements Runnable {
+    private static final String TAG = "BlockedNumberExporter";
+
+    @VisibleForTesting
+    static final int PAGE_SIZE = 500;
+
+    private final BlockedNumberDatabaseHelper mDbHelper;
+    private final ParcelFileDescriptor mOutput;
+
+    /**
+     * @param output The write side of a reliable pipe; closed when the export ends, with an error
+     * if it failed.
+     */
+    BlockedNumberExporter(@NonNull BlockedNumberDatabaseHelper dbHelper,
+            @NonNull ParcelFileDescriptor output) {
+        mDbHelper = dbHelper;
+        mOutput = output;
+    }
+
+    @Override
+    public void run() {
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.export");
+        String error = null;
+        int count = 0;
+        try {
+            count = export();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Export failed", e);
+            error = e.toString();
+        } finally {
+            try {
+                if (error == null) {
+                    mOutput.close();
+                } else {
+                    mOutput.closeWithError(error);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to close the export pipe", e);
+            }
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+        if (error == null) {
+            Log.i(TAG, "Exported " + count + " blocked numbers");
+        }
+    }
+
+    private int export() throws IOException {
+        final SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        // Does not close mOutput, which run() closes with the outcome.
+        final FileOutputStream out = new FileOutputStream(mOutput.getFileDescriptor());
+        ExportCodec.Writer writer = null;
+        String[] values = null;
+        int idIndex = -1;
+        long lastId = 0;
+        int count = 0;
+        int pageCount;
+        do {
+            pageCount = 0;
+            try (Cursor c = db.query(BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS, null,
+                    BlockedNumbers.COLUMN_ID + ">?", new String[] {Long.toString(lastId)},
+                    null, null, BlockedNumbers.COLUMN_ID, Integer.toString(PAGE_SIZE))) {
+                if (writer == null) {
+                    // The id is written separately; every other column is metadata.
+                    idIndex = c.getColumnIndexOrThrow(BlockedNumbers.COLUMN_ID);
+                    final String[] names = c.getColumnNames();
+                    final String[] columns = new String[names.length - 1];
+                    for (int i = 0, j = 0; i < names.length; i++) {
+                        if (i != idIndex) {
+                            columns[j++] = names[i];
+                        }
+                    }
+                    writer = new ExportCodec.Writer(out, columns);
+                    values = new String[columns.length];
+                }
+                while (c.moveToNext()) {
+                    lastId = c.getLong(idIndex);
+                    for (int i = 0, j = 0; i < c.getColumnCount(); i++) {
+                        if (i != idIndex) {
+                            values[j++] = c.getString(i);
+                        }
+                    }
+                    writer.add(lastId, values);
+                    pageCount++;
+                }
+            }
+            count += pageCount;
+        } while (pageCount == PAGE_SIZE);
+        writer.finish();
+        return count;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Trace;
+import android.provider.BlockedNumberContract.BlockedNumbers;
+import android.text.TextUtils;
+import android.util.IntArray;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Imports blocked numbers streamed through a pipe, one per line: the original number, optionally
+ * followed by a comma and its E164 number, and optionally more fields that are ignored.  Blank
+ * lines, lines starting with '#' and a leading "original_number" header are skipped, and fields
+ * may be double quoted, with "" standing for a quote, to hold commas.
+ *
+ * <p>Lines are read in batches of {@link #BATCH_SIZE}.  Each batch is normalized in parallel on
+ * the given executor with the same rules as an insert, for a country detected once per import,
+ * then inserted in one transaction, so memory use does not depend on the size of the input.
+ */
+class BlockedNumberImporter implements Runnable {
+    private static final String TAG = "BlockedNumberImporter";
+
+    @VisibleForTesting
+    static final int BATCH_SIZE = 1000;
+
+    /** Rejected line numbers reported by {@link Status#toBundle}; the rest are only counted. */
+    @VisibleForTesting
+    static final int MAX_REPORTED_REJECTED_LINES = 100;
+
+    /** Bundle keys used by {@link Status#toBundle}. */
+    public static final String KEY_LINES = "lines";
+    public static final String KEY_INSERTED = "inserted";
+    public static final String KEY_REJECTED = "rejected";
+    public static final String KEY_REJECTED_LINES = "rejected_lines";
+    public static final String KEY_DONE = "done";
+    public static final String KEY_ERROR = "error";
+
+    /** Marks a line holding no number, such as a comment. */
+    private static final ContentValues SKIPPED_LINE = new ContentValues();
+
+    /** Inserts a batch of normalized rows in one transaction, or throws. */
+    interface BatchInserter {
+        void insert(@NonNull List<ContentValues> batch);
+
+        /**
+         * Called once after the last batch.
+         *
+         * @param complete Whether all of the input was read.
+         */
+        default void finish(boolean complete) {
+        }
+    }
+
+    /**
+     * Progress of an import, updated after every batch.
+     */
+    static final class Status {
+        @GuardedBy("this")
+        private int mLines;
+        @GuardedBy("this")
+        private int mInserted;
+        @GuardedBy("this")
+        private int mRejected;
+        @GuardedBy("this")
+        private final IntArray mRejectedLines = new IntArray();
+        @GuardedBy("this")
+        private boolean mDone;
+        @GuardedBy("this")
+        private String mError;
+
+        synchronized void onBatch(int lines, int inserted, @NonNull int[] rejectedLines) {
+            mLines += lines;
+            mInserted += inserted;
+            mRejected += rejectedLines.length;
+            for (int i = 0; i < rejectedLines.length
+                    && mRejectedLines.size() < MAX_REPORTED_REJECTED_LINES; i++) {
+                mRejectedLines.add(rejectedLines[i]);
+            }
+        }
+
+        synchronized void onDone(@Nullable String error) {
+            mDone = true;
+            mError = error;
+        }
+
+        synchronized boolean isDone() {
+            return mDone;
+        }
+
+        /**
+         * Returns the line count, inserted and rejected row counts, the first rejected line
+         * numbers (1-based), whether the import is done and, if it failed, why.
+         */
+        synchronized @NonNull Bundle toBundle() {
+            final Bundle bundle = new Bundle();
+            bundle.putInt(KEY_LINES, mLines);
+            bundle.putInt(KEY_INSERTED, mInserted);
+            bundle.putInt(KEY_REJECTED, mRejected);
+            bundle.putIntArray(KEY_REJECTED_LINES, mRejectedLines.toArray());
+            bundle.putBoolean(KEY_DONE, mDone);
+            bundle.putString(KEY_ERROR, mError);
+            return bundle;
+        }
+    }
+
+    private final ParcelFileDescriptor mInput;
+    private final String mCountryIso;
+    private final BatchInserter mInserter;
+    private final Status mStatus;
+    private final Executor mParseExecutor;
+    private final int mParallelism;
+
+    /**
+     * @param input The read side of the pipe; closed when the import ends.
+     * @param parseExecutor Runs the parsing of each batch, split into {@code parallelism} chunks.
+     *                      Shared by all imports.
+     */
+    BlockedNumberImporter(@NonNull ParcelFileDescriptor input, @NonNull String countryIso,
+            @NonNull BatchInserter inserter, @NonNull Status status,
+            @NonNull Executor parseExecutor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        mInput = input;
+        mCountryIso = countryIso;
+        mInserter = inserter;
+        mStatus = status;
+        mParseExecutor = parseExecutor;
+        mParallelism = parallelism;
+    }
+
+    @Override
+    public void run() {
+        String error = null;
+        boolean finished = false;
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.import");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ParcelFileDescriptor.AutoCloseInputStream(mInput),
+                StandardCharsets.UTF_8))) {
+            final ArrayList<String> lines = new ArrayList<>(BATCH_SIZE);
+            int firstLine = 1;
+            String line;
+            do {
+                line = reader.readLine();
+                if (line != null) {
+                    lines.add(line);
+                }
+                if (lines.size() == BATCH_SIZE || (line == null && !lines.isEmpty())) {
+                    importBatch(lines, firstLine);
+                    firstLine += lines.size();
+                    lines.clear();
+                }
+            } while (line != null);
+            finished = true;
+            mInserter.finish(/* complete =*/ true);
+        } catch (IOException | RuntimeException | ExecutionException e) {
+            Log.w(TAG, "Import failed", e);
+            error = e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = e.toString();
+        } finally {
+            if (!finished) {
+                try {
+                    mInserter.finish(/* complete =*/ false);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Unable to clean up the import", e);
+                }
+            }
+            mStatus.onDone(error);
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+    }
+
+    private void importBatch(List<String> lines, int firstLine)
+            throws ExecutionException, InterruptedException {
+        // Parse and normalize in one chunk per thread.
+        final ContentValues[] rows = new ContentValues[lines.size()];
+        final int chunk = (lines.size() + mParallelism - 1) / mParallelism;
+        final ArrayList<FutureTask<Void>> tasks = new ArrayList<>(mParallelism);
+        for (int start = 0; start < lines.size(); start += chunk) {
+            final int from = start;
+            final int to = Math.min(start + chunk, lines.size());
+            final FutureTask<Void> task = new FutureTask<>(() -> {
+                for (int i = from; i < to; i++) {
+                    rows[i] = parseLine(lines.get(i), firstLine + i, mCountryIso);
+                }
+            }, null);
+            tasks.add(task);
+            mParseExecutor.execute(task);
+        }
+        try {
+            for (FutureTask<Void> task : tasks) {
+                task.get();
+            }
+        } finally {
+            // Does nothing once they are done.
+            for (FutureTask<Void> task : tasks) {
+                task.cancel(/* mayInterruptIfRunning =*/ true);
+            }
+        }
+
+        final ArrayList<ContentValues> batch = new ArrayList<>(rows.length);
+        final IntArray batchLines = new IntArray(rows.length);
+        final IntArray rejectedLines = new IntArray();
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == SKIPPED_LINE) {
+                continue;
+            }
+            if (rows[i] == null) {
+                rejectedLines.add(firstLine + i);
+                continue;
+            }
+            batch.add(rows[i]);
+            batchLines.add(firstLine + i);
+        }
+
+        int inserted = 0;
+        try {
+            mInserter.insert(batch);
+            inserted = batch.size();
+        } catch (RuntimeException e) {
+            // Find the rows to blame.
+            Log.w(TAG, "Batch insert failed, retrying one by one", e);
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    mInserter.insert(batch.subList(i, i + 1));
+                    inserted++;
+                } catch (RuntimeException rowException) {
+                    rejectedLines.add(batchLines.get(i));
+                }
+            }
+        }
+        final int[] rejected = rejectedLines.toArray();
+        Arrays.sort(rejected);
+        mStatus.onBatch(lines.size(), inserted, rejected);
+    }
+
+    /**
+     * @return The normalized row for {@code line}, {@link #SKIPPED_LINE}, or {@code null} if the
+     * line is invalid.
+     */
+    @VisibleForTesting
+    @Nullable
+    static ContentValues parseLine(@NonNull String line, int lineNumber,
+            @NonNull String countryIso) {
+        final String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return SKIPPED_LINE;
+        }
+        // Further fields are ignored.
+        final String[] fields = parseFields(trimmed, 2);
+        if (fields == null) {
+            return null;
+        }
+        final String originalNumber = fields[0];
+        final String e164Number = fields[1];
+        if (lineNumber == 1 && BlockedNumbers.COLUMN_ORIGINAL_NUMBER.equals(originalNumber)) {
+            return SKIPPED_LINE;
+        }
+        if (TextUtils.isEmpty(originalNumber)) {
+            return null;
+        }
+        final ContentValues cv = new ContentValues(2);
+        cv.put(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, originalNumber);
+        cv.put(BlockedNumbers.COLUMN_E164_NUMBER,
+                Utils.getE164NumberForCountry(countryIso, originalNumber, e164Number));
+        return cv;
+    }
+
+    /**
+     * Splits the first {@code count} comma separated fields off {@code line}.  A double quoted
+     * field may hold commas, and "" in it stands for a quote.  Fields are trimmed.
+     *
+     * @return The fields, {@code null} past the last one, or {@code null} if a quoted field is
+     * not closed or is followed by more than whitespace.
+     */
+    @Nullable
+    private static String[] parseFields(String line, int count) {
+        final String[] fields = new String[count];
+        final StringBuilder field = new StringBuilder();
+        final int length = line.length();
+        int i = 0;
+        for (int n = 0; n < count; n++) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            field.setLength(0);
+            if (i < length && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i == length) {
+                        return null;
+                    }
+                    final char c = line.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < length && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                while (i < length && Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                if (i < length && line.charAt(i) != ',') {
+                    return null;
+                }
+            } else {
+                while (i < length && line.charAt(i) != ',') {
+                    field.append(line.charAt(i++));
+                }
+            }
+            fields[n] = field.toString().trim();
+            if (i == length) {
+                break;
+            }
+            // Skip the comma.
+            i++;
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+
+/**
+ * Set of blocked number keys (original or E164 numbers), stored as 64-bit hashes in an open
+ * addressing table: 16 to 32 bytes per key and no per key allocation.
+ *
+ * <p>Two distinct keys are treated as equal only on a full 64-bit hash collision, which is
+ * negligible at block list sizes.  Not thread safe.
+ */
+class BlockedNumberKeySet {
+    private static final long SEED = 0x426c6f636b4b6579L; // "BlockKey"
+    private static final int MIN_CAPACITY = 16;
+
+    /** 0 marks a free slot; a key hashing to 0 is stored as 1. */
+    private long[] mTable;
+    private int mSize;
+
+    BlockedNumberKeySet(int expectedSize) {
+        mTable = new long[tableSizeFor(expectedSize)];
+    }
+
+    /**
+     * @return A power of two at least twice {@code size}, keeping the load factor at or under 1/2.
+     */
+    private static int tableSizeFor(int size) {
+        final int capacity = Math.max(MIN_CAPACITY, size * 2);
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    private static long hash(@NonNull String key) {
+        final long h = BlockedNumberBloomFilter.hash64(key, SEED);
+        return h == 0 ? 1 : h;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean contains(@NonNull String key) {
+        final long h = hash(key);
+        final int mask = mTable.length - 1;
+        for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+            if (mTable[i] == h) {
+                return true;
+            }
+            if (mTable[i] == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if {@code key} was not in the set yet.
+     */
+    boolean add(@NonNull String key) {
+        if ((mSize + 1) * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        }
+        if (!insert(mTable, hash(key))) {
+            return false;
+        }
+        mSize++;
+        return true;
+    }
+
+    private static boolean insert(long[] table, long h) {
+        final int mask = table.length - 1;
+        for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+            if (table[i] == h) {
+                return false;
+            }
+            if (table[i] == 0) {
+                table[i] = h;
+                return true;
+            }
+        }
+    }
+
+    private void rehash(int newLength) {
+        final long[] table = new long[newLength];
+        for (long h : mTable) {
+            if (h != 0) {
+                insert(table, h);
+            }
+        }
+        mTable = table;
+    }
+}
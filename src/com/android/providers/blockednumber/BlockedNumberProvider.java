@@ -23,6 +23,7 @@ import android.annotation.Nullable;
 import android.app.AppOpsManager;
 import android.app.backup.BackupManager;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
@@ -31,30 +32,57 @@ import android.content.SharedPreferences;
 import android.content.UriMatcher;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 import android.os.PersistableBundle;
 import android.os.Process;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.BlockedNumberContract;
 import android.provider.BlockedNumberContract.SystemContract;
+import android.system.ErrnoException;
 import android.telecom.TelecomManager;
 import android.telephony.CarrierConfigManager;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LongArray;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.android.common.content.ProjectionMap;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
 import com.android.internal.telephony.flags.Flags;
+import com.android.internal.util.ArrayUtils;
 import com.android.providers.blockednumber.BlockedNumberDatabaseHelper.Tables;
 
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Blocked phone number provider.
@@ -69,14 +97,280 @@ public class BlockedNumberProvider extends ContentProvider {
 
     private static final int BLOCKED_LIST = 1000;
     private static final int BLOCKED_ID = 1001;
+    private static final int BLOCKED_FILTER = 1002;
+    private static final int BLOCKED_IMPORT = 1003;
+    private static final int BLOCKED_EXPORT = 1004;
 
     private static final UriMatcher sUriMatcher;
 
+    /**
+     * System method returning latency and count statistics for each provider operation, as
+     * described by {@link OperationStats#toBundle}.  Requires READ_BLOCKED_NUMBERS.
+     */
+    @VisibleForTesting
+    static final String METHOD_GET_OPERATION_STATS = "get_operation_stats";
+
+    /**
+     * Method returning the number of blocked numbers in {@link #RES_BLOCKED_NUMBER_COUNT} and the
+     * list generation in {@link #RES_LIST_GENERATION}, without reading the blocked table.  The
+     * generation goes up whenever the list changes, and is only comparable to generations
+     * returned with the same {@link #RES_DATABASE_ID}.  Requires READ_BLOCKED_NUMBERS.
+     */
+    @VisibleForTesting
+    static final String METHOD_GET_BLOCKED_NUMBER_COUNT = "get_blocked_number_count";
+
+    @VisibleForTesting
+    static final String RES_BLOCKED_NUMBER_COUNT = "blocked_number_count";
+
+    @VisibleForTesting
+    static final String RES_LIST_GENERATION = "list_generation";
+
+    /**
+     * The {@code long} id of the database, which changes when it is deleted and created again and
+     * its generations start over.
+     */
+    @VisibleForTesting
+    static final String RES_DATABASE_ID = "database_id";
+
+    /**
+     * Method returning the changes to the blocked list after the {@code long} list generation in
+     * {@link #EXTRA_GENERATION}, as returned by {@link #METHOD_GET_BLOCKED_NUMBER_COUNT} or by
+     * an earlier call together with the {@link #RES_DATABASE_ID} to pass in
+     * {@link #EXTRA_DATABASE_ID}.  Requires READ_BLOCKED_NUMBERS.
+     *
+     * <p>The result holds the rows inserted since, in {@link #RES_INSERTED_IDS},
+     * {@link #RES_INSERTED_ORIGINAL_NUMBERS} and {@link #RES_INSERTED_E164_NUMBERS}, the ids of
+     * the rows deleted since in {@link #RES_DELETED_IDS}, and the {@link #RES_LIST_GENERATION}
+     * to pass next time.  {@link #RES_HAS_MORE} is set if more changes are left.  Ids are never
+     * reused, so a mirror keyed by id can apply changes more than once.
+     *
+     * <p>If the changes are no longer journaled, or the database is not the one the generation
+     * came from, {@link #RES_FULL_RESYNC} is set instead and the caller has to query the whole
+     * list, then continue from {@link #RES_LIST_GENERATION} and {@link #RES_DATABASE_ID}.
+     */
+    @VisibleForTesting
+    static final String METHOD_GET_CHANGES_SINCE = "get_changes_since";
+
+    @VisibleForTesting
+    static final String EXTRA_GENERATION = "generation";
+
+    @VisibleForTesting
+    static final String EXTRA_DATABASE_ID = "database_id";
+
+    @VisibleForTesting
+    static final String RES_INSERTED_IDS = "inserted_ids";
+
+    @VisibleForTesting
+    static final String RES_INSERTED_ORIGINAL_NUMBERS = "inserted_original_numbers";
+
+    @VisibleForTesting
+    static final String RES_INSERTED_E164_NUMBERS = "inserted_e164_numbers";
+
+    @VisibleForTesting
+    static final String RES_DELETED_IDS = "deleted_ids";
+
+    @VisibleForTesting
+    static final String RES_HAS_MORE = "has_more";
+
+    @VisibleForTesting
+    static final String RES_FULL_RESYNC = "full_resync";
+
+    /**
+     * System method returning a read-only {@link android.os.SharedMemory} snapshot of the blocked
+     * keys in {@link #RES_SNAPSHOT}, in the {@link BlockedNumberSnapshot} format, and the version
+     * cell described in {@link BlockedNumberSnapshotPublisher} in {@link #RES_SNAPSHOT_VERSION}.
+     * Requires READ_BLOCKED_NUMBERS.
+     */
+    @VisibleForTesting
+    static final String METHOD_GET_SNAPSHOT = "get_snapshot";
+
+    @VisibleForTesting
+    static final String RES_SNAPSHOT = "snapshot";
+
+    @VisibleForTesting
+    static final String RES_SNAPSHOT_VERSION = "snapshot_version";
+
+    /**
+     * Method returning the progress of the import started by opening "blocked/import/<arg>", as
+     * described by {@link BlockedNumberImporter.Status#toBundle}.  Requires WRITE_BLOCKED_NUMBERS.
+     */
+    @VisibleForTesting
+    static final String METHOD_GET_IMPORT_STATUS = "get_import_status";
+
+    /**
+     * {@link BlockedNumberContract#RES_BLOCK_STATUS} of a number blocked because it is in the
+     * carrier tier, see {@link CarrierBlocklist}.  The user's own list takes precedence.
+     */
+    @VisibleForTesting
+    static final int STATUS_BLOCKED_CARRIER_LIST = 100;
+
+    /**
+     * Method adding the E164 numbers in {@link #EXTRA_ADDED_NUMBERS} to the carrier tier and
+     * removing those in {@link #EXTRA_REMOVED_NUMBERS}.  Requires the system WRITE_BLOCKED_NUMBERS
+     * permission.
+     */
+    @VisibleForTesting
+    static final String METHOD_UPDATE_CARRIER_BLOCKLIST = "update_carrier_blocklist";
+    @VisibleForTesting
+    static final String EXTRA_ADDED_NUMBERS = "added_numbers";
+    @VisibleForTesting
+    static final String EXTRA_REMOVED_NUMBERS = "removed_numbers";
+
+    /**
+     * Method returning the most frequently screened numbers, blocked or not, heaviest first:
+     * their keyed {@link #RES_HASHES}, decayed {@link #RES_COUNTS} and {@link #RES_ERRORS}, and
+     * the decayed {@link #RES_TOTAL} of all screenings.  {@link #EXTRA_LIMIT} optionally caps the
+     * number of results.  The provider does not keep the numbers; a caller that passes candidate
+     * numbers in {@link #EXTRA_NUMBERS} gets back {@link #RES_NUMBERS}, the candidate matching
+     * each hash or null.  See {@link HeavyHitterSketch}.  Requires the system
+     * READ_BLOCKED_NUMBERS permission.
+     */
+    @VisibleForTesting
+    static final String METHOD_GET_HEAVY_HITTERS = "get_heavy_hitters";
+    @VisibleForTesting
+    static final String EXTRA_LIMIT = "limit";
+    @VisibleForTesting
+    static final String EXTRA_NUMBERS = "numbers";
+    @VisibleForTesting
+    static final String RES_HASHES = "hashes";
+    @VisibleForTesting
+    static final String RES_NUMBERS = "numbers";
+    @VisibleForTesting
+    static final String RES_COUNTS = "counts";
+    /** How much each of {@link #RES_COUNTS} may be overestimated by. */
+    @VisibleForTesting
+    static final String RES_ERRORS = "errors";
+    @VisibleForTesting
+    static final String RES_TOTAL = "total";
+
+    /**
+     * Query parameter of the "blocked/import/*" URI naming the source whose numbers the import
+     * replaces.
+     */
+    @VisibleForTesting
+    static final String SOURCE_PARAM_KEY = "source";
+
+    private static final int MAX_SOURCE_LENGTH = 256;
+
+    /** Type of "blocked/export", written in the {@link ExportCodec} format. */
+    @VisibleForTesting
+    static final String EXPORT_MIME_TYPE = "application/vnd.android.blocked-numbers-export";
+
+    /** The maximum number of rows deleted per expiry sweep transaction. */
+    @VisibleForTesting
+    static final int EXPIRY_SWEEP_BATCH_SIZE = 100;
+
+    private static final long EXPIRY_SWEEP_SLACK_MILLIS = 60 * 1000;
+
+    @VisibleForTesting
+    static final int HEAVY_HITTER_CAPACITY = 64;
+
+    /** The half-life of the screening counts. */
+    private static final long HEAVY_HITTER_WINDOW_MILLIS = 60 * 60 * 1000;
+
+    /** How long matches are counted in memory before they are written. */
+    private static final long HIT_FLUSH_DELAY_MILLIS = 60 * 1000;
+
+    /** The number of finished imports whose status is kept. */
+    private static final int MAX_IMPORTS = 16;
+
+    /** Keeps {@link #METHOD_GET_CHANGES_SINCE} results well under the binder transaction limit. */
+    @VisibleForTesting
+    static final int MAX_CHANGES_PER_CALL = 1000;
+
+    /**
+     * Query argument for keyset pagination of the blocked list: a {@code long} {@code _id} after
+     * which to start the page, in the sort order.  Any other {@link Number}, such as an
+     * {@code int}, is read as a {@code long}; other types are rejected.  The sort order must be
+     * {@code _id} ascending or descending, or unspecified.
+     */
+    @VisibleForTesting
+    static final String QUERY_ARG_AFTER_ID = "blocked_numbers:after_id";
+
+    /**
+     * Like {@link #QUERY_ARG_AFTER_ID}, for a {@code String} {@code original_number} and a sort by
+     * {@code original_number}.
+     */
+    @VisibleForTesting
+    static final String QUERY_ARG_AFTER_ORIGINAL_NUMBER = "blocked_numbers:after_original_number";
+
+    // Operations tracked by mOperationStats; indexes into OPERATION_NAMES.
+    private static final int OP_QUERY = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_BULK_INSERT = 2;
+    private static final int OP_UPDATE = 3;
+    private static final int OP_DELETE = 4;
+    private static final int OP_CALL_IS_BLOCKED = 5;
+    private static final int OP_CALL_CAN_CURRENT_USER_BLOCK_NUMBERS = 6;
+    private static final int OP_CALL_UNBLOCK = 7;
+    private static final int OP_CALL_NOTIFY_EMERGENCY_CONTACT = 8;
+    private static final int OP_CALL_END_BLOCK_SUPPRESSION = 9;
+    private static final int OP_CALL_GET_BLOCK_SUPPRESSION_STATUS = 10;
+    private static final int OP_CALL_SHOULD_SYSTEM_BLOCK_NUMBER = 11;
+    private static final int OP_CALL_SHOULD_SHOW_EMERGENCY_CALL_NOTIFICATION = 12;
+    private static final int OP_CALL_GET_ENHANCED_BLOCK_SETTING = 13;
+    private static final int OP_CALL_SET_ENHANCED_BLOCK_SETTING = 14;
+    private static final int OP_CALL_GET_OPERATION_STATS = 15;
+    private static final int OP_CALL_GET_BLOCKED_NUMBER_COUNT = 16;
+    private static final int OP_CALL_GET_CHANGES_SINCE = 17;
+    private static final int OP_CALL_GET_SNAPSHOT = 18;
+    private static final int OP_CALL_GET_IMPORT_STATUS = 19;
+    private static final int OP_CALL_UPDATE_CARRIER_BLOCKLIST = 20;
+    private static final int OP_CALL_GET_HEAVY_HITTERS = 21;
+    private static final int OP_CALL_OTHER = 22;
+
+    private static final String[] OPERATION_NAMES = {
+            "query",
+            "insert",
+            "bulk_insert",
+            "update",
+            "delete",
+            BlockedNumberContract.METHOD_IS_BLOCKED,
+            BlockedNumberContract.METHOD_CAN_CURRENT_USER_BLOCK_NUMBERS,
+            BlockedNumberContract.METHOD_UNBLOCK,
+            SystemContract.METHOD_NOTIFY_EMERGENCY_CONTACT,
+            SystemContract.METHOD_END_BLOCK_SUPPRESSION,
+            SystemContract.METHOD_GET_BLOCK_SUPPRESSION_STATUS,
+            SystemContract.METHOD_SHOULD_SYSTEM_BLOCK_NUMBER,
+            SystemContract.METHOD_SHOULD_SHOW_EMERGENCY_CALL_NOTIFICATION,
+            SystemContract.METHOD_GET_ENHANCED_BLOCK_SETTING,
+            SystemContract.METHOD_SET_ENHANCED_BLOCK_SETTING,
+            METHOD_GET_OPERATION_STATS,
+            METHOD_GET_BLOCKED_NUMBER_COUNT,
+            METHOD_GET_CHANGES_SINCE,
+            METHOD_GET_SNAPSHOT,
+            METHOD_GET_IMPORT_STATUS,
+            METHOD_UPDATE_CARRIER_BLOCKLIST,
+            METHOD_GET_HEAVY_HITTERS,
+            "other_call",
+    };
+
+    private static final String[] OPERATION_TRACE_SECTIONS =
+            new String[OPERATION_NAMES.length];
+
+    static {
+        for (int i = 0; i < OPERATION_NAMES.length; i++) {
+            OPERATION_TRACE_SECTIONS[i] = "BlockedNumbers." + OPERATION_NAMES[i];
+        }
+    }
+
     private static final String PREF_FILE = "block_number_provider_prefs";
     private static final String BLOCK_SUPPRESSION_EXPIRY_TIME_PREF =
             "block_suppression_expiry_time_pref";
     private static final int MAX_BLOCKING_DISABLED_DURATION_SECONDS = 7 * 24 * 3600; // 1 week
     private static final long BLOCKING_DISABLED_FOREVER = -1;
+    private static final int DECISION_JOURNAL_SIZE = 256;
+
+    /** dumpsys argument selecting the stable, machine readable output format. */
+    private static final String DUMP_ARG_CHECKIN = "--checkin";
+
+    private static final String[] ENHANCED_SETTING_KEYS = {
+            SystemContract.ENHANCED_SETTING_KEY_BLOCK_UNREGISTERED,
+            SystemContract.ENHANCED_SETTING_KEY_BLOCK_PRIVATE,
+            SystemContract.ENHANCED_SETTING_KEY_BLOCK_PAYPHONE,
+            SystemContract.ENHANCED_SETTING_KEY_BLOCK_UNKNOWN,
+            SystemContract.ENHANCED_SETTING_KEY_SHOW_EMERGENCY_CALL_NOTIFICATION,
+    };
     // Normally, we allow calls from self, *except* in unit tests, where we clear this flag
     // to emulate calls from other apps.
     @VisibleForTesting
@@ -86,14 +380,35 @@ public class BlockedNumberProvider extends ContentProvider {
         sUriMatcher = new UriMatcher(0);
         sUriMatcher.addURI(BlockedNumberContract.AUTHORITY, "blocked", BLOCKED_LIST);
         sUriMatcher.addURI(BlockedNumberContract.AUTHORITY, "blocked/#", BLOCKED_ID);
+        sUriMatcher.addURI(BlockedNumberContract.AUTHORITY, "blocked/filter", BLOCKED_FILTER);
+        sUriMatcher.addURI(BlockedNumberContract.AUTHORITY, "blocked/filter/*", BLOCKED_FILTER);
+        sUriMatcher.addURI(BlockedNumberContract.AUTHORITY, "blocked/import/*", BLOCKED_IMPORT);
+        sUriMatcher.addURI(BlockedNumberContract.AUTHORITY, "blocked/export", BLOCKED_EXPORT);
     }
 
+    /** The default projection. */
     private static final ProjectionMap sBlockedNumberColumns = ProjectionMap.builder()
             .add(BlockedNumberContract.BlockedNumbers.COLUMN_ID)
             .add(BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER)
             .add(BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER)
             .build();
 
+    /** The columns that can be queried, including those only returned when asked for. */
+    private static final ProjectionMap sBlockedNumberAllColumns = ProjectionMap.builder()
+            .addAll(sBlockedNumberColumns)
+            .add(BlockedNumberDatabaseHelper.BlockedColumns.SOURCE)
+            .add(BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT)
+            .add(BlockedNumberDatabaseHelper.BlockedColumns.HIT_COUNT)
+            .add(BlockedNumberDatabaseHelper.BlockedColumns.LAST_HIT_AT)
+            .build();
+
+    /** Query parameter of the "blocked/filter/*" URI limiting the number of rows. */
+    @VisibleForTesting
+    static final String LIMIT_PARAM_KEY = "limit";
+
+    /** The number of ids inlined in one {@code IN (...)} clause. */
+    private static final int MAX_IDS_PER_QUERY = 500;
+
     private static final String ID_SELECTION =
             BlockedNumberContract.BlockedNumbers.COLUMN_ID + "=?";
 
@@ -109,11 +424,52 @@ public class BlockedNumberProvider extends ContentProvider {
     protected BackupManager mBackupManager;
     protected AppOpsManager mAppOpsManager;
 
+    private final DecisionJournal mDecisionJournal = new DecisionJournal(DECISION_JOURNAL_SIZE);
+
+    private final OperationStats mOperationStats = new OperationStats(OPERATION_NAMES);
+
+    /**
+     * Runs the expiry sweeps and hit count flushes, or {@code null} if they only run when called,
+     * as in tests.
+     */
+    @VisibleForTesting
+    protected Handler mBackgroundHandler;
+
+    private final Runnable mScheduleExpirySweepRunnable = this::scheduleExpirySweep;
+
+    private final Runnable mExpirySweepRunnable = this::sweepExpiredBlockedNumbers;
+
+    /** Matches of the user's list not written to the database yet. */
+    private final HitCounter mHitCounter = new HitCounter();
+
+    private final Runnable mFlushHitsRunnable = this::flushHits;
+
+    /** The most frequently screened numbers. */
+    private final HeavyHitterSketch mHeavyHitters = new HeavyHitterSketch(HEAVY_HITTER_CAPACITY,
+            HEAVY_HITTER_WINDOW_MILLIS, new SecureRandom().nextLong());
+
+    /** Threads normalizing the lines of imports, shared by all of them. */
+    private static final int IMPORT_THREADS =
+            Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /** How long an idle import thread is kept. */
+    private static final long IMPORT_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /** Normalizes the lines of all imports. */
+    private final ThreadPoolExecutor mImportExecutor = newImportExecutor();
+
+    /** Import progress by token, oldest first. */
+    @GuardedBy("mImports")
+    private final LinkedHashMap<String, BlockedNumberImporter.Status> mImports =
+            new LinkedHashMap<>();
+
     @Override
     public boolean onCreate() {
         mDbHelper = BlockedNumberDatabaseHelper.getInstance(getContext());
         mBackupManager = new BackupManager(getContext());
         mAppOpsManager = getAppOpsManager();
+        mBackgroundHandler = BackgroundThread.getHandler();
+        requestExpirySweep();
         return true;
     }
 
@@ -122,9 +478,12 @@ public class BlockedNumberProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case BLOCKED_LIST:
+            case BLOCKED_FILTER:
                 return BlockedNumberContract.BlockedNumbers.CONTENT_TYPE;
             case BLOCKED_ID:
                 return BlockedNumberContract.BlockedNumbers.CONTENT_ITEM_TYPE;
+            case BLOCKED_EXPORT:
+                return EXPORT_MIME_TYPE;
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
@@ -132,25 +491,63 @@ public class BlockedNumberProvider extends ContentProvider {
 
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        int outcome = OperationStats.OUTCOME_OK;
+        Trace.traceBegin(Utils.TRACE_TAG, OPERATION_TRACE_SECTIONS[OP_INSERT]);
+        try {
+            return insertInternal(uri, values);
+        } catch (RuntimeException e) {
+            outcome = getOutcome(e);
+            throw e;
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+            mOperationStats.record(OP_INSERT, outcome, Binder.getCallingUid(), startNanos);
+        }
+    }
+
+    private Uri insertInternal(@NonNull Uri uri, @Nullable ContentValues values) {
         enforceWritePermissionAndMainUser();
 
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case BLOCKED_LIST:
-                Uri blockedUri = insertBlockedNumber(values);
-                getContext().getContentResolver().notifyChange(blockedUri, null);
-                mBackupManager.dataChanged();
-                return blockedUri;
+                final InsertResult result = insertBlockedNumber(values);
+                if (result.changed) {
+                    notifyChange(result.uri);
+                }
+                return result.uri;
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
     }
 
+    private static final class InsertResult {
+        final Uri uri;
+        /** {@code false} if an identical row already existed and was left untouched. */
+        final boolean changed;
+
+        InsertResult(Uri uri, boolean changed) {
+            this.uri = uri;
+            this.changed = changed;
+        }
+    }
+
+    private InsertResult insertBlockedNumber(ContentValues cv) {
+        return insertBlockedNumber(cv, /* normalized =*/ false);
+    }
+
     /**
-     * Implements the "blocked/" insert.
+     * Implements the "blocked/" insert.  Re-inserting a number with the same E164 number keeps
+     * the existing row and its id; with a different one, the row is replaced.
+     *
+     * @param normalized Whether {@code cv} already holds the E164 number, possibly "", for the
+     * original number.
      */
-    private Uri insertBlockedNumber(ContentValues cv) {
+    private InsertResult insertBlockedNumber(ContentValues cv, boolean normalized) {
         throwIfSpecified(cv, BlockedNumberContract.BlockedNumbers.COLUMN_ID);
+        throwIfSpecified(cv, BlockedNumberDatabaseHelper.BlockedColumns.SOURCE);
+        throwIfSpecified(cv, BlockedNumberDatabaseHelper.BlockedColumns.HIT_COUNT);
+        throwIfSpecified(cv, BlockedNumberDatabaseHelper.BlockedColumns.LAST_HIT_AT);
 
         final String phoneNumber = cv.getAsString(
                 BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER);
@@ -160,21 +557,269 @@ public class BlockedNumberProvider extends ContentProvider {
                     BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER);
         }
 
+        final Long expiresAt;
+        try {
+            expiresAt = cv.getAsLong(BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("Invalid " +
+                    BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT, e);
+        }
+        if (expiresAt == null
+                ? cv.get(BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT) != null
+                : expiresAt <= 0) {
+            throw new IllegalArgumentException("Invalid " +
+                    BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT);
+        }
+
         // Fill in with autogenerated columns.
-        final String e164Number = Utils.getE164Number(getContext(), phoneNumber,
-                cv.getAsString(BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER));
-        cv.put(BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER, e164Number);
+        final String e164Number;
+        if (normalized) {
+            e164Number = cv.getAsString(BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER);
+        } else {
+            e164Number = Utils.getE164Number(getContext(), phoneNumber,
+                    cv.getAsString(BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER));
+            cv.put(BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER, e164Number);
+        }
 
         if (DEBUG) {
             Log.d(TAG, String.format("inserted blocked number: %s", cv));
         }
 
         // Then insert.
-        final long id = mDbHelper.getWritableDatabase().insertWithOnConflict(
-                BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS, null, cv,
-                SQLiteDatabase.CONFLICT_REPLACE);
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long id;
+        boolean changed = false;
+        mDbHelper.beginBlockedListTransaction(db);
+        try {
+            final long existingId;
+            final String existingE164Number;
+            final boolean existingHasSource;
+            final Long existingExpiresAt;
+            try (Cursor c = db.query(BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                    new String[] {BlockedNumberContract.BlockedNumbers.COLUMN_ID,
+                            BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER,
+                            BlockedNumberDatabaseHelper.BlockedColumns.SOURCE,
+                            BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT},
+                    ORIGINAL_NUMBER_SELECTION, new String[] {phoneNumber}, null, null, null)) {
+                existingId = c.moveToFirst() ? c.getLong(0) : -1;
+                existingE164Number = existingId >= 0 ? c.getString(1) : null;
+                existingHasSource = existingId >= 0 && !c.isNull(2);
+                existingExpiresAt = existingId >= 0 && !c.isNull(3) ? c.getLong(3) : null;
+            }
+            // A number the user blocks is theirs, even if a source also blocks it.
+            if (existingId >= 0 && TextUtils.equals(existingE164Number, e164Number)
+                    && !existingHasSource && Objects.equals(existingExpiresAt, expiresAt)) {
+                id = existingId;
+            } else {
+                id = db.insertWithOnConflict(
+                        BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS, null, cv,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                if (id >= 0) {
+                    mDbHelper.onBlockedNumberInserted(id, phoneNumber, e164Number,
+                            /* replaced =*/ existingId >= 0);
+                    changed = true;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            mDbHelper.endBlockedListTransaction(db);
+        }
+        if (changed && expiresAt != null) {
+            requestExpirySweep();
+        }
+
+        return new InsertResult(
+                ContentUris.withAppendedId(BlockedNumberContract.BlockedNumbers.CONTENT_URI, id),
+                changed);
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        int outcome = OperationStats.OUTCOME_OK;
+        Trace.traceBegin(Utils.TRACE_TAG, OPERATION_TRACE_SECTIONS[OP_BULK_INSERT]);
+        try {
+            return bulkInsertInternal(uri, values);
+        } catch (RuntimeException e) {
+            outcome = getOutcome(e);
+            throw e;
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+            mOperationStats.record(OP_BULK_INSERT, outcome, Binder.getCallingUid(), startNanos);
+        }
+    }
+
+    /**
+     * Inserts all of {@code values} in one transaction, with at most one change notification.
+     * Either all rows are inserted or, if any of them is invalid, none are.
+     *
+     * @return The number of rows inserted or replaced; rows already blocked with the same values
+     * are not counted.
+     */
+    private int bulkInsertInternal(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        enforceWritePermissionAndMainUser();
+
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case BLOCKED_LIST:
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported URI: " + uri);
+        }
+        return insertBlockedNumbers(Arrays.asList(values), /* normalized =*/ false);
+    }
+
+    /**
+     * Inserts {@code values} in one transaction, with at most one change notification.
+     *
+     * @return The number of rows inserted or replaced.
+     */
+    private int insertBlockedNumbers(List<ContentValues> values, boolean normalized) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int changed = 0;
+        mDbHelper.beginBatchOperation();
+        mDbHelper.beginBlockedListTransaction(db);
+        try {
+            for (ContentValues cv : values) {
+                if (insertBlockedNumber(cv, normalized).changed) {
+                    changed++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            mDbHelper.endBlockedListTransaction(db);
+            mDbHelper.endBatchOperation();
+        }
+        if (changed > 0) {
+            notifyChange(BlockedNumberContract.BlockedNumbers.CONTENT_URI);
+        }
+        return changed;
+    }
 
-        return ContentUris.withAppendedId(BlockedNumberContract.BlockedNumbers.CONTENT_URI, id);
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case BLOCKED_IMPORT:
+                return openImport(uri.getLastPathSegment(),
+                        uri.getQueryParameter(SOURCE_PARAM_KEY), mode);
+            case BLOCKED_EXPORT:
+                return openExport(mode);
+            default:
+                throw new IllegalArgumentException("Unsupported URI: " + uri);
+        }
+    }
+
+    /**
+     * Implements the "blocked/import/*" open: starts importing what the caller writes to the
+     * returned pipe, as described in {@link BlockedNumberImporter}.  Progress is reported by
+     * {@link #METHOD_GET_IMPORT_STATUS} for the last path segment, a token picked by the caller.
+     *
+     * <p>With the {@link #SOURCE_PARAM_KEY} parameter, the imported numbers replace those of the
+     * source once the pipe is closed, see
+     * {@link BlockedNumberDatabaseHelper.SourceReplacement}.  This requires the system
+     * WRITE_BLOCKED_NUMBERS permission.
+     */
+    private ParcelFileDescriptor openImport(String token, @Nullable String source, String mode)
+            throws FileNotFoundException {
+        if (source != null) {
+            enforceSystemWritePermissionAndMainUser();
+            if (source.isEmpty() || source.length() > MAX_SOURCE_LENGTH) {
+                throw new IllegalArgumentException("Invalid source " + source);
+            }
+        } else {
+            enforceWritePermissionAndMainUser();
+        }
+        if (!"w".equals(mode) && !"wt".equals(mode)) {
+            throw new IllegalArgumentException("Imports are write only: " + mode);
+        }
+
+        final BlockedNumberImporter.Status status = new BlockedNumberImporter.Status();
+        synchronized (mImports) {
+            final BlockedNumberImporter.Status previous = mImports.get(token);
+            if (previous != null && !previous.isDone()) {
+                throw new IllegalStateException("Import " + token + " is still running");
+            }
+            mImports.remove(token);
+            // Forget the oldest finished imports.
+            final Iterator<BlockedNumberImporter.Status> it = mImports.values().iterator();
+            while (mImports.size() >= MAX_IMPORTS && it.hasNext()) {
+                if (it.next().isDone()) {
+                    it.remove();
+                }
+            }
+            mImports.put(token, status);
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            status.onDone(e.toString());
+            throw new FileNotFoundException("Unable to create pipe: " + e.getMessage());
+        }
+        final BlockedNumberImporter.BatchInserter inserter;
+        if (source != null) {
+            final BlockedNumberDatabaseHelper.SourceReplacement replacement =
+                    mDbHelper.beginSourceReplacement(source);
+            inserter = new BlockedNumberImporter.BatchInserter() {
+                @Override
+                public void insert(@NonNull List<ContentValues> batch) {
+                    replacement.add(batch);
+                }
+
+                @Override
+                public void finish(boolean complete) {
+                    if (replacement.finish(complete)) {
+                        notifyChange(BlockedNumberContract.BlockedNumbers.CONTENT_URI);
+                    }
+                }
+            };
+        } else {
+            inserter = batch -> insertBlockedNumbers(batch, /* normalized =*/ true);
+        }
+        final BlockedNumberImporter importer = new BlockedNumberImporter(pipe[0],
+                Utils.getCurrentCountryIso(getContext()), inserter, status, mImportExecutor,
+                IMPORT_THREADS);
+        new Thread(importer, "BlockedNumberImport").start();
+        return pipe[1];
+    }
+
+    /**
+     * @return An executor of {@link #IMPORT_THREADS} threads that exit when idle, so that it
+     * costs nothing between imports.
+     */
+    private static ThreadPoolExecutor newImportExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(IMPORT_THREADS,
+                IMPORT_THREADS, IMPORT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Implements the "blocked/export" open: returns a pipe the blocked list is streamed to, in
+     * the {@link ExportCodec} format.
+     */
+    private ParcelFileDescriptor openExport(String mode) throws FileNotFoundException {
+        enforceReadPermissionAndMainUser();
+        if (!"r".equals(mode)) {
+            throw new IllegalArgumentException("Exports are read only: " + mode);
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to create pipe: " + e.getMessage());
+        }
+        new Thread(new BlockedNumberExporter(mDbHelper, pipe[1]), "BlockedNumberExport").start();
+        return pipe[0];
     }
 
     private static void throwIfSpecified(ContentValues cv, String column) {
@@ -186,7 +831,16 @@ public class BlockedNumberProvider extends ContentProvider {
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
             @Nullable String[] selectionArgs) {
-        enforceWritePermissionAndMainUser();
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        int outcome = OperationStats.OUTCOME_ERROR;
+        try {
+            enforceWritePermissionAndMainUser();
+        } catch (SecurityException e) {
+            outcome = OperationStats.OUTCOME_SECURITY_EXCEPTION;
+            throw e;
+        } finally {
+            mOperationStats.record(OP_UPDATE, outcome, Binder.getCallingUid(), startNanos);
+        }
 
         throw new UnsupportedOperationException(
                 "Update is not supported.  Use delete + insert instead");
@@ -195,6 +849,22 @@ public class BlockedNumberProvider extends ContentProvider {
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection,
             @Nullable String[] selectionArgs) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        int outcome = OperationStats.OUTCOME_OK;
+        Trace.traceBegin(Utils.TRACE_TAG, OPERATION_TRACE_SECTIONS[OP_DELETE]);
+        try {
+            return deleteInternal(uri, selection, selectionArgs);
+        } catch (RuntimeException e) {
+            outcome = getOutcome(e);
+            throw e;
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+            mOperationStats.record(OP_DELETE, outcome, Binder.getCallingUid(), startNanos);
+        }
+    }
+
+    private int deleteInternal(@NonNull Uri uri, @Nullable String selection,
+            @Nullable String[] selectionArgs) {
         enforceWritePermissionAndMainUser();
 
         final int match = sUriMatcher.match(uri);
@@ -209,11 +879,23 @@ public class BlockedNumberProvider extends ContentProvider {
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
-        mBackupManager.dataChanged();
+        notifyChange(uri);
         return numRows;
     }
 
+    /**
+     * Notifies observers of {@code uri} and schedules a backup.
+     */
+    private void notifyChange(Uri uri) {
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.notifyChange");
+        try {
+            getContext().getContentResolver().notifyChange(uri, null);
+            mBackupManager.dataChanged();
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+    }
+
     /**
      * Implements the "blocked/#" delete.
      */
@@ -236,9 +918,19 @@ public class BlockedNumberProvider extends ContentProvider {
                     /* cancellationSignal =*/ null);
         }
 
-        return db.delete(
-                BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
-                selection, selectionArgs);
+        mDbHelper.beginBatchOperation();
+        mDbHelper.beginBlockedListTransaction(db);
+        try {
+            final int numRows = db.delete(
+                    BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                    selection, selectionArgs);
+            mDbHelper.onBlockedNumbersDeleted(numRows);
+            db.setTransactionSuccessful();
+            return numRows;
+        } finally {
+            mDbHelper.endBlockedListTransaction(db);
+            mDbHelper.endBatchOperation();
+        }
     }
 
     @Override
@@ -253,6 +945,54 @@ public class BlockedNumberProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
             @Nullable String[] selectionArgs, @Nullable String sortOrder,
             @Nullable CancellationSignal cancellationSignal) {
+        return queryWithStats(uri, projection, selection, selectionArgs, sortOrder, Bundle.EMPTY,
+                cancellationSignal);
+    }
+
+    /**
+     * In addition to the SQL arguments, supports {@link ContentResolver#QUERY_ARG_LIMIT},
+     * {@link ContentResolver#QUERY_ARG_OFFSET}, {@link #QUERY_ARG_AFTER_ID} and
+     * {@link #QUERY_ARG_AFTER_ORIGINAL_NUMBER} on the blocked list.  The arguments applied are
+     * listed in the {@link ContentResolver#EXTRA_HONORED_ARGS} cursor extra.
+     */
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection,
+            @Nullable Bundle queryArgs, @Nullable CancellationSignal cancellationSignal) {
+        if (queryArgs == null) {
+            queryArgs = Bundle.EMPTY;
+        }
+        final String sortOrder = queryArgs.containsKey(ContentResolver.QUERY_ARG_SQL_SORT_ORDER)
+                ? queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER)
+                : ContentResolver.createSqlSortClause(queryArgs);
+        return queryWithStats(uri, projection,
+                queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SELECTION),
+                queryArgs.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS),
+                sortOrder, queryArgs, cancellationSignal);
+    }
+
+    private Cursor queryWithStats(@NonNull Uri uri, @Nullable String[] projection,
+            @Nullable String selection, @Nullable String[] selectionArgs,
+            @Nullable String sortOrder, @NonNull Bundle queryArgs,
+            @Nullable CancellationSignal cancellationSignal) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        int outcome = OperationStats.OUTCOME_OK;
+        Trace.traceBegin(Utils.TRACE_TAG, OPERATION_TRACE_SECTIONS[OP_QUERY]);
+        try {
+            return queryInternal(uri, projection, selection, selectionArgs, sortOrder,
+                    queryArgs, cancellationSignal);
+        } catch (RuntimeException e) {
+            outcome = getOutcome(e);
+            throw e;
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+            mOperationStats.record(OP_QUERY, outcome, Binder.getCallingUid(), startNanos);
+        }
+    }
+
+    private Cursor queryInternal(@NonNull Uri uri, @Nullable String[] projection,
+            @Nullable String selection, @Nullable String[] selectionArgs,
+            @Nullable String sortOrder, @NonNull Bundle queryArgs,
+            @Nullable CancellationSignal cancellationSignal) {
         enforceReadPermissionAndMainUser();
 
         final int match = sUriMatcher.match(uri);
@@ -260,12 +1000,16 @@ public class BlockedNumberProvider extends ContentProvider {
         switch (match) {
             case BLOCKED_LIST:
                 cursor = queryBlockedList(projection, selection, selectionArgs, sortOrder,
-                        cancellationSignal);
+                        queryArgs, cancellationSignal);
                 break;
             case BLOCKED_ID:
                 cursor = queryBlockedListWithId(ContentUris.parseId(uri), projection, selection,
                         cancellationSignal);
                 break;
+            case BLOCKED_FILTER:
+                cursor = queryBlockedListFilter(uri, projection, selection, queryArgs,
+                        cancellationSignal);
+                break;
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
@@ -282,22 +1026,163 @@ public class BlockedNumberProvider extends ContentProvider {
         throwForNonEmptySelection(selection);
 
         return queryBlockedList(projection, ID_SELECTION, new String[]{Long.toString(id)},
-                null, cancellationSignal);
+                null, Bundle.EMPTY, cancellationSignal);
+    }
+
+    /**
+     * Implements the "blocked/filter/*" query: the numbers containing the digits of the last path
+     * segment, best matches first.  The number of rows is limited by
+     * {@link ContentResolver#QUERY_ARG_LIMIT} or the {@link #LIMIT_PARAM_KEY} parameter, and
+     * never exceeds {@link BlockedNumberDatabaseHelper#MAX_SEARCH_RESULTS}.
+     */
+    private Cursor queryBlockedListFilter(Uri uri, String[] projection, String selection,
+            Bundle queryArgs, CancellationSignal cancellationSignal) {
+        if (!TextUtils.isEmpty(selection)) {
+            throw new IllegalArgumentException("Filter queries do not support a selection");
+        }
+        if (projection == null) {
+            projection = sBlockedNumberColumns.getColumnNames();
+        }
+        for (String column : projection) {
+            if (!sBlockedNumberColumns.containsKey(column)) {
+                throw new IllegalArgumentException("Invalid column " + column);
+            }
+        }
+
+        int limit = BlockedNumberDatabaseHelper.MAX_SEARCH_RESULTS;
+        final String limitParam = uri.getQueryParameter(LIMIT_PARAM_KEY);
+        if (queryArgs.containsKey(ContentResolver.QUERY_ARG_LIMIT)) {
+            limit = queryArgs.getInt(ContentResolver.QUERY_ARG_LIMIT);
+        } else if (limitParam != null) {
+            try {
+                limit = Integer.parseInt(limitParam);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit " + limitParam);
+            }
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        limit = Math.min(limit, BlockedNumberDatabaseHelper.MAX_SEARCH_RESULTS);
+
+        final String filter = uri.getPathSegments().size() > 2 ? uri.getLastPathSegment() : "";
+        if (TextUtils.isEmpty(filter)) {
+            return new MatrixCursor(projection);
+        }
+        return mDbHelper.searchBlockedNumbers(filter, projection, limit, cancellationSignal);
     }
 
     /**
      * Implements the "blocked/" query.
      */
     private Cursor queryBlockedList(String[] projection, String selection, String[] selectionArgs,
-            String sortOrder, CancellationSignal cancellationSignal) {
+            String sortOrder, Bundle queryArgs, CancellationSignal cancellationSignal) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         qb.setStrict(true);
         qb.setTables(BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS);
-        qb.setProjectionMap(sBlockedNumberColumns);
+        qb.setProjectionMap(sBlockedNumberAllColumns);
+        if (projection == null) {
+            projection = sBlockedNumberColumns.getColumnNames();
+        }
+
+        final ArrayList<String> honoredArgs = new ArrayList<>();
+
+        // Keyset pagination: continue after the last row of the previous page, using the index
+        // on the sort column instead of skipping rows.
+        String keysetColumn = null;
+        String keysetArg = null;
+        if (queryArgs.containsKey(QUERY_ARG_AFTER_ID)) {
+            keysetColumn = BlockedNumberContract.BlockedNumbers.COLUMN_ID;
+            final Object afterId = queryArgs.get(QUERY_ARG_AFTER_ID);
+            if (!(afterId instanceof Number)) {
+                throw new IllegalArgumentException(QUERY_ARG_AFTER_ID + " must be a long");
+            }
+            keysetArg = Long.toString(((Number) afterId).longValue());
+            honoredArgs.add(QUERY_ARG_AFTER_ID);
+        } else if (queryArgs.containsKey(QUERY_ARG_AFTER_ORIGINAL_NUMBER)) {
+            keysetColumn = BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER;
+            keysetArg = queryArgs.getString(QUERY_ARG_AFTER_ORIGINAL_NUMBER);
+            if (keysetArg == null) {
+                throw new IllegalArgumentException(
+                        QUERY_ARG_AFTER_ORIGINAL_NUMBER + " must not be null");
+            }
+            honoredArgs.add(QUERY_ARG_AFTER_ORIGINAL_NUMBER);
+        }
+        if (keysetColumn != null) {
+            final boolean descending = isDescendingKeysetOrder(keysetColumn, sortOrder);
+            qb.appendWhereStandalone(keysetColumn + (descending ? "<?" : ">?"));
+            // The builder's where clause comes before the selection.
+            selectionArgs = prependSelectionArg(keysetArg, selectionArgs);
+            sortOrder = keysetColumn + (descending ? " DESC" : " ASC");
+        }
+
+        final String limit = getLimit(queryArgs, honoredArgs);
+
+        final Cursor cursor = qb.query(mDbHelper.getReadableDatabase(), projection, selection,
+                selectionArgs, /* groupBy =*/ null, /* having =*/null, sortOrder, limit,
+                cancellationSignal);
+        if (!honoredArgs.isEmpty()) {
+            final Bundle extras = new Bundle();
+            extras.putStringArray(ContentResolver.EXTRA_HONORED_ARGS,
+                    honoredArgs.toArray(new String[0]));
+            cursor.setExtras(extras);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return Whether {@code sortOrder}, which must sort by the unique {@code keysetColumn} only,
+     * is descending.
+     */
+    private static boolean isDescendingKeysetOrder(String keysetColumn, String sortOrder) {
+        if (TextUtils.isEmpty(sortOrder)) {
+            return false;
+        }
+        final String[] terms = sortOrder.trim().split("\\s+");
+        if (terms[0].equalsIgnoreCase(keysetColumn)) {
+            if (terms.length == 1 || (terms.length == 2 && terms[1].equalsIgnoreCase("ASC"))) {
+                return false;
+            }
+            if (terms.length == 2 && terms[1].equalsIgnoreCase("DESC")) {
+                return true;
+            }
+        }
+        throw new IllegalArgumentException(
+                "Keyset pagination requires sorting by " + keysetColumn + " only");
+    }
 
-        return qb.query(mDbHelper.getReadableDatabase(), projection, selection, selectionArgs,
-                /* groupBy =*/ null, /* having =*/null, sortOrder,
-                /* limit =*/ null, cancellationSignal);
+    private static String[] prependSelectionArg(String arg, String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return new String[] {arg};
+        }
+        final String[] result = new String[selectionArgs.length + 1];
+        result[0] = arg;
+        System.arraycopy(selectionArgs, 0, result, 1, selectionArgs.length);
+        return result;
+    }
+
+    /**
+     * @return The SQL limit clause for {@link ContentResolver#QUERY_ARG_LIMIT} and
+     * {@link ContentResolver#QUERY_ARG_OFFSET}, or {@code null} for no limit.
+     */
+    private static String getLimit(Bundle queryArgs, List<String> honoredArgs) {
+        final boolean hasLimit = queryArgs.containsKey(ContentResolver.QUERY_ARG_LIMIT);
+        final boolean hasOffset = queryArgs.containsKey(ContentResolver.QUERY_ARG_OFFSET);
+        if (!hasLimit && !hasOffset) {
+            return null;
+        }
+        final int limit = queryArgs.getInt(ContentResolver.QUERY_ARG_LIMIT, Integer.MAX_VALUE);
+        final int offset = queryArgs.getInt(ContentResolver.QUERY_ARG_OFFSET, 0);
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("Limit and offset must not be negative");
+        }
+        if (hasLimit) {
+            honoredArgs.add(ContentResolver.QUERY_ARG_LIMIT);
+        }
+        if (hasOffset) {
+            honoredArgs.add(ContentResolver.QUERY_ARG_OFFSET);
+        }
+        return offset + "," + limit;
     }
 
     private void throwForNonEmptySelection(String selection) {
@@ -309,15 +1194,78 @@ public class BlockedNumberProvider extends ContentProvider {
 
     @Override
     public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        final int operation = getCallOperation(method);
+        int outcome = OperationStats.OUTCOME_OK;
+        Trace.traceBegin(Utils.TRACE_TAG, OPERATION_TRACE_SECTIONS[operation]);
+        try {
+            return callInternal(method, arg, extras);
+        } catch (RuntimeException e) {
+            outcome = getOutcome(e);
+            throw e;
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+            mOperationStats.record(operation, outcome, Binder.getCallingUid(), startNanos);
+        }
+    }
+
+    private static int getOutcome(RuntimeException e) {
+        return e instanceof SecurityException
+                ? OperationStats.OUTCOME_SECURITY_EXCEPTION : OperationStats.OUTCOME_ERROR;
+    }
+
+    private static int getCallOperation(String method) {
+        switch (method) {
+            case BlockedNumberContract.METHOD_IS_BLOCKED:
+                return OP_CALL_IS_BLOCKED;
+            case BlockedNumberContract.METHOD_CAN_CURRENT_USER_BLOCK_NUMBERS:
+                return OP_CALL_CAN_CURRENT_USER_BLOCK_NUMBERS;
+            case BlockedNumberContract.METHOD_UNBLOCK:
+                return OP_CALL_UNBLOCK;
+            case SystemContract.METHOD_NOTIFY_EMERGENCY_CONTACT:
+                return OP_CALL_NOTIFY_EMERGENCY_CONTACT;
+            case SystemContract.METHOD_END_BLOCK_SUPPRESSION:
+                return OP_CALL_END_BLOCK_SUPPRESSION;
+            case SystemContract.METHOD_GET_BLOCK_SUPPRESSION_STATUS:
+                return OP_CALL_GET_BLOCK_SUPPRESSION_STATUS;
+            case SystemContract.METHOD_SHOULD_SYSTEM_BLOCK_NUMBER:
+                return OP_CALL_SHOULD_SYSTEM_BLOCK_NUMBER;
+            case SystemContract.METHOD_SHOULD_SHOW_EMERGENCY_CALL_NOTIFICATION:
+                return OP_CALL_SHOULD_SHOW_EMERGENCY_CALL_NOTIFICATION;
+            case SystemContract.METHOD_GET_ENHANCED_BLOCK_SETTING:
+                return OP_CALL_GET_ENHANCED_BLOCK_SETTING;
+            case SystemContract.METHOD_SET_ENHANCED_BLOCK_SETTING:
+                return OP_CALL_SET_ENHANCED_BLOCK_SETTING;
+            case METHOD_GET_OPERATION_STATS:
+                return OP_CALL_GET_OPERATION_STATS;
+            case METHOD_GET_BLOCKED_NUMBER_COUNT:
+                return OP_CALL_GET_BLOCKED_NUMBER_COUNT;
+            case METHOD_GET_CHANGES_SINCE:
+                return OP_CALL_GET_CHANGES_SINCE;
+            case METHOD_GET_SNAPSHOT:
+                return OP_CALL_GET_SNAPSHOT;
+            case METHOD_GET_IMPORT_STATUS:
+                return OP_CALL_GET_IMPORT_STATUS;
+            case METHOD_UPDATE_CARRIER_BLOCKLIST:
+                return OP_CALL_UPDATE_CARRIER_BLOCKLIST;
+            case METHOD_GET_HEAVY_HITTERS:
+                return OP_CALL_GET_HEAVY_HITTERS;
+            default:
+                return OP_CALL_OTHER;
+        }
+    }
+
+    private Bundle callInternal(@NonNull String method, @Nullable String arg,
+            @Nullable Bundle extras) {
         final Bundle res = new Bundle();
         switch (method) {
             case BlockedNumberContract.METHOD_IS_BLOCKED:
                 enforceReadPermissionAndMainUser();
-                boolean isBlocked = isBlocked(arg);
-                res.putBoolean(BlockedNumberContract.RES_NUMBER_IS_BLOCKED, isBlocked);
-                res.putInt(BlockedNumberContract.RES_BLOCK_STATUS,
-                        isBlocked ? BlockedNumberContract.STATUS_BLOCKED_IN_LIST
-                                : BlockedNumberContract.STATUS_NOT_BLOCKED);
+                recordScreening(arg);
+                final int listBlockStatus = getListBlockStatus(arg);
+                res.putBoolean(BlockedNumberContract.RES_NUMBER_IS_BLOCKED,
+                        listBlockStatus != BlockedNumberContract.STATUS_NOT_BLOCKED);
+                res.putInt(BlockedNumberContract.RES_BLOCK_STATUS, listBlockStatus);
                 break;
             case BlockedNumberContract.METHOD_CAN_CURRENT_USER_BLOCK_NUMBERS:
                 // No permission checks: any app should be able to access this API.
@@ -376,6 +1324,68 @@ public class BlockedNumberProvider extends ContentProvider {
                     setEnhancedBlockSetting(key, value);
                 }
                 break;
+            case METHOD_GET_OPERATION_STATS:
+                enforceSystemReadPermissionAndMainUser();
+                res.putAll(mOperationStats.toBundle());
+                break;
+            case METHOD_GET_BLOCKED_NUMBER_COUNT:
+                enforceReadPermissionAndMainUser();
+                final BlockedNumberDatabaseHelper.ListStats stats = mDbHelper.getListStats();
+                res.putLong(RES_BLOCKED_NUMBER_COUNT, stats.count);
+                res.putLong(RES_LIST_GENERATION, stats.generation);
+                res.putLong(RES_DATABASE_ID, mDbHelper.getDatabaseId());
+                break;
+            case METHOD_GET_CHANGES_SINCE:
+                enforceReadPermissionAndMainUser();
+                if (extras == null || !extras.containsKey(EXTRA_GENERATION)) {
+                    throw new IllegalArgumentException("Missing " + EXTRA_GENERATION);
+                }
+                // Generations of a database created again start over.
+                final boolean sameDatabase = extras.containsKey(EXTRA_DATABASE_ID)
+                        && extras.getLong(EXTRA_DATABASE_ID) == mDbHelper.getDatabaseId();
+                getChangesSince(sameDatabase, extras.getLong(EXTRA_GENERATION), res);
+                break;
+            case METHOD_GET_SNAPSHOT:
+                enforceSystemReadPermissionAndMainUser();
+                final SharedMemory[] snapshot;
+                try {
+                    snapshot = mDbHelper.getSnapshotPublisher().getSnapshot();
+                } catch (ErrnoException e) {
+                    throw new IllegalStateException("Unable to publish snapshot", e);
+                }
+                res.putParcelable(RES_SNAPSHOT_VERSION, snapshot[0]);
+                res.putParcelable(RES_SNAPSHOT, snapshot[1]);
+                break;
+            case METHOD_GET_IMPORT_STATUS:
+                enforceWritePermissionAndMainUser();
+                final BlockedNumberImporter.Status importStatus;
+                synchronized (mImports) {
+                    importStatus = mImports.get(arg);
+                }
+                if (importStatus == null) {
+                    throw new IllegalArgumentException("Unknown import " + arg);
+                }
+                res.putAll(importStatus.toBundle());
+                break;
+            case METHOD_UPDATE_CARRIER_BLOCKLIST:
+                enforceSystemWritePermissionAndMainUser();
+                if (extras == null) {
+                    throw new IllegalArgumentException("Missing " + EXTRA_ADDED_NUMBERS);
+                }
+                try {
+                    mDbHelper.getCarrierBlocklist().update(
+                            extras.getStringArray(EXTRA_ADDED_NUMBERS),
+                            extras.getStringArray(EXTRA_REMOVED_NUMBERS));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to update the carrier blocklist", e);
+                }
+                break;
+            case METHOD_GET_HEAVY_HITTERS:
+                enforceSystemReadPermissionAndMainUser();
+                getHeavyHitters(extras == null ? HEAVY_HITTER_CAPACITY
+                        : extras.getInt(EXTRA_LIMIT, HEAVY_HITTER_CAPACITY),
+                        extras == null ? null : extras.getStringArray(EXTRA_NUMBERS), res);
+                break;
             default:
             enforceReadPermissionAndMainUser();
 
@@ -384,6 +1394,126 @@ public class BlockedNumberProvider extends ContentProvider {
         return res;
     }
 
+    /**
+     * Implements {@link #METHOD_GET_HEAVY_HITTERS}.
+     *
+     * @param candidates Numbers to match against the heavy hitters, or {@code null} for hashes
+     *                   only.
+     */
+    private void getHeavyHitters(int limit, @Nullable String[] candidates, Bundle res) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid " + EXTRA_LIMIT + " " + limit);
+        }
+        final long nowMillis = SystemClock.elapsedRealtime();
+        final List<HeavyHitterSketch.Entry> top = mHeavyHitters.getTop(limit, nowMillis);
+        final long[] hashes = new long[top.size()];
+        final long[] counts = new long[top.size()];
+        final long[] errors = new long[top.size()];
+        for (int i = 0; i < top.size(); i++) {
+            hashes[i] = top.get(i).hash;
+            counts[i] = top.get(i).count;
+            errors[i] = top.get(i).error;
+        }
+        if (candidates != null) {
+            final HashMap<Long, String> byHash = new HashMap<>();
+            for (String candidate : candidates) {
+                if (!TextUtils.isEmpty(candidate)) {
+                    byHash.putIfAbsent(mHeavyHitters.getHash(candidate), candidate);
+                }
+            }
+            final String[] numbers = new String[top.size()];
+            for (int i = 0; i < top.size(); i++) {
+                numbers[i] = byHash.get(hashes[i]);
+            }
+            res.putStringArray(RES_NUMBERS, numbers);
+        }
+        res.putLongArray(RES_HASHES, hashes);
+        res.putLongArray(RES_COUNTS, counts);
+        res.putLongArray(RES_ERRORS, errors);
+        res.putLong(RES_TOTAL, mHeavyHitters.getTotal(nowMillis));
+    }
+
+    /**
+     * Implements {@link #METHOD_GET_CHANGES_SINCE}.
+     *
+     * @param sameDatabase Whether {@code generation} came from this database.
+     */
+    private void getChangesSince(boolean sameDatabase, long generation, Bundle res) {
+        res.putLong(RES_DATABASE_ID, mDbHelper.getDatabaseId());
+        final SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        // Reads the journal and the rows at the same generation.
+        db.beginTransactionReadOnly();
+        try {
+            final BlockedNumberDatabaseHelper.ChangeSet changes = sameDatabase
+                    ? mDbHelper.getChangesSince(generation, MAX_CHANGES_PER_CALL) : null;
+            if (changes == null) {
+                res.putBoolean(RES_FULL_RESYNC, true);
+                res.putLong(RES_LIST_GENERATION, mDbHelper.getChangeGeneration());
+                db.setTransactionSuccessful();
+                return;
+            }
+
+            // Only the last change to an id matters, and a row that is gone is a delete.
+            final SparseIntArray lastChanges = new SparseIntArray();
+            for (int i = 0; i < changes.blockedIds.length; i++) {
+                lastChanges.put(changes.blockedIds[i], changes.changeTypes[i]);
+            }
+            final LongArray insertedIds = new LongArray();
+            final ArrayList<String> insertedOriginalNumbers = new ArrayList<>();
+            final ArrayList<String> insertedE164Numbers = new ArrayList<>();
+            final LongArray deletedIds = new LongArray();
+            final StringBuilder selection = new StringBuilder();
+            for (int start = 0; start < lastChanges.size(); start += MAX_IDS_PER_QUERY) {
+                final int end = Math.min(start + MAX_IDS_PER_QUERY, lastChanges.size());
+                selection.setLength(0);
+                for (int i = start; i < end; i++) {
+                    if (lastChanges.valueAt(i)
+                            == BlockedNumberDatabaseHelper.Changes.CHANGE_TYPE_INSERT) {
+                        selection.append(selection.length() == 0 ? "" : ",")
+                                .append(lastChanges.keyAt(i));
+                    }
+                }
+                final SparseArray<String[]> rows = new SparseArray<>();
+                if (selection.length() > 0) {
+                    try (Cursor c = db.query(BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                            new String[] {BlockedNumberContract.BlockedNumbers.COLUMN_ID,
+                                    BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                                    BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER},
+                            BlockedNumberContract.BlockedNumbers.COLUMN_ID + " IN (" + selection
+                                    + ")", null, null, null, null)) {
+                        while (c.moveToNext()) {
+                            rows.put(c.getInt(0), new String[] {c.getString(1), c.getString(2)});
+                        }
+                    }
+                }
+                for (int i = start; i < end; i++) {
+                    final int id = lastChanges.keyAt(i);
+                    final String[] row = rows.get(id);
+                    if (row == null) {
+                        deletedIds.add(id);
+                    } else {
+                        insertedIds.add(id);
+                        insertedOriginalNumbers.add(row[0]);
+                        insertedE164Numbers.add(row[1]);
+                    }
+                }
+            }
+            final boolean hasMore = changes.toGeneration < mDbHelper.getChangeGeneration();
+            db.setTransactionSuccessful();
+
+            res.putLong(RES_LIST_GENERATION, changes.toGeneration);
+            res.putBoolean(RES_HAS_MORE, hasMore);
+            res.putLongArray(RES_INSERTED_IDS, insertedIds.toArray());
+            res.putStringArray(RES_INSERTED_ORIGINAL_NUMBERS,
+                    insertedOriginalNumbers.toArray(new String[0]));
+            res.putStringArray(RES_INSERTED_E164_NUMBERS,
+                    insertedE164Numbers.toArray(new String[0]));
+            res.putLongArray(RES_DELETED_IDS, deletedIds.toArray());
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     private int unblock(String phoneNumber) {
         if (TextUtils.isEmpty(phoneNumber)) {
             return 0;
@@ -409,61 +1539,192 @@ public class BlockedNumberProvider extends ContentProvider {
             return false;
         }
 
-        Context context = getContext();
-        final String e164Number = Utils.getE164Number(context, phoneNumber, null);
-        TelephonyManager tm = context.getSystemService(TelephonyManager.class);
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.isEmergencyNumber");
+        try {
+            Context context = getContext();
+            final String e164Number = Utils.getE164Number(context, phoneNumber, null);
+            TelephonyManager tm = context.getSystemService(TelephonyManager.class);
 
-        if (!Flags.enforceTelephonyFeatureMapping()) {
-            return tm.isEmergencyNumber(phoneNumber) || tm.isEmergencyNumber(e164Number);
-        } else {
-            if (tm == null) {
-                return false;
-            }
-            try {
+            if (!Flags.enforceTelephonyFeatureMapping()) {
                 return tm.isEmergencyNumber(phoneNumber) || tm.isEmergencyNumber(e164Number);
-            } catch (UnsupportedOperationException | IllegalStateException e) {
-                return false;
+            } else {
+                if (tm == null) {
+                    return false;
+                }
+                try {
+                    return tm.isEmergencyNumber(phoneNumber) || tm.isEmergencyNumber(e164Number);
+                } catch (UnsupportedOperationException | IllegalStateException e) {
+                    return false;
+                }
             }
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+    }
+
+    /**
+     * Schedules the next expiry sweep on {@link #mBackgroundHandler}, off the calling thread.
+     */
+    private void requestExpirySweep() {
+        if (mBackgroundHandler != null) {
+            mBackgroundHandler.post(mScheduleExpirySweepRunnable);
+        }
+    }
+
+    private void scheduleExpirySweep() {
+        final long nextExpiry = mDbHelper.getNextExpiry();
+        mBackgroundHandler.removeCallbacks(mExpirySweepRunnable);
+        if (nextExpiry == BlockedNumberDatabaseHelper.NO_EXPIRY) {
+            return;
+        }
+        // The slack lets one sweep pick up rows expiring close together.
+        final long delayMillis = Math.max(0, nextExpiry - System.currentTimeMillis())
+                + EXPIRY_SWEEP_SLACK_MILLIS;
+        mBackgroundHandler.postDelayed(mExpirySweepRunnable, delayMillis);
+    }
+
+    /**
+     * Deletes the expired rows in transactions of at most {@link #EXPIRY_SWEEP_BATCH_SIZE} rows,
+     * so that other writers are never held up for long, then sends one change notification.
+     *
+     * @return The number of rows deleted.
+     */
+    @VisibleForTesting
+    int sweepExpiredBlockedNumbers() {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        final long nowMillis = System.currentTimeMillis();
+        int total = 0;
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.sweepExpired");
+        mDbHelper.beginBatchOperation();
+        try {
+            int deleted;
+            do {
+                deleted = mDbHelper.deleteExpiredBlockedNumbers(nowMillis,
+                        EXPIRY_SWEEP_BATCH_SIZE);
+                total += deleted;
+            } while (deleted == EXPIRY_SWEEP_BATCH_SIZE);
+        } finally {
+            mDbHelper.endBatchOperation();
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+        if (total > 0) {
+            notifyChange(BlockedNumberContract.BlockedNumbers.CONTENT_URI);
+            Log.i(TAG, "Deleted " + total + " expired blocked numbers in "
+                    + (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000000 + "ms");
+        }
+        if (mBackgroundHandler != null) {
+            scheduleExpirySweep();
+        }
+        return total;
+    }
+
+    /**
+     * Counts a lookup of {@code phoneNumber} in {@link #mHeavyHitters}.
+     */
+    private void recordScreening(@Nullable String phoneNumber) {
+        if (!TextUtils.isEmpty(phoneNumber)) {
+            mHeavyHitters.record(phoneNumber, SystemClock.elapsedRealtime());
         }
     }
 
-    private boolean isBlocked(String phoneNumber) {
+    /**
+     * Counts a match of blocked row {@code id}, to be written by the next {@link #flushHits}.
+     */
+    private void recordHit(long id, long nowMillis) {
+        if (mHitCounter.record(id, nowMillis) && mBackgroundHandler != null) {
+            mBackgroundHandler.postDelayed(mFlushHitsRunnable, HIT_FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Writes the hits counted since the last flush in one transaction.  Hits not written yet are
+     * lost if the process dies.
+     */
+    @VisibleForTesting
+    void flushHits() {
+        final HitCounter.Batch hits = mHitCounter.drain();
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.flushHits");
+        try {
+            mDbHelper.addHits(hits);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to write " + hits.size + " hit counts", e);
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+    }
+
+    /**
+     * @return {@link BlockedNumberContract#STATUS_BLOCKED_IN_LIST} if the user blocked
+     * {@code phoneNumber}, else {@link #STATUS_BLOCKED_CARRIER_LIST} if the carrier tier holds
+     * it, else {@link BlockedNumberContract#STATUS_NOT_BLOCKED}.
+     */
+    private int getListBlockStatus(String phoneNumber) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
         if (TextUtils.isEmpty(phoneNumber)) {
-            Log.i(TAG, "isBlocked: NOT BLOCKED; empty #");
-            return false;
+            mDecisionJournal.record(phoneNumber, BlockedNumberContract.STATUS_NOT_BLOCKED,
+                    DecisionJournal.RULE_EMPTY_NUMBER, startNanos);
+            return BlockedNumberContract.STATUS_NOT_BLOCKED;
         }
 
         final String inE164 = Utils.getE164Number(getContext(), phoneNumber, null); // may be empty.
 
-        final Cursor c = mDbHelper.getReadableDatabase().rawQuery(
-                "SELECT " +
-                BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "," +
-                BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER +
-                " FROM " + BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS +
-                " WHERE " + BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=?1" +
-                " OR (?2 != '' AND " +
-                        BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER + "=?2)",
-                new String[] {phoneNumber, inE164}
-                );
-        try {
-            while (c.moveToNext()) {
-                final String original = c.getString(0);
-                final String e164 = c.getString(1);
-                Log.i(TAG, String.format("isBlocked: BLOCKED; number=%s, e164=%s, foundOrig=%s, "
-                                + "foundE164=%s",
-                        piiHandle(phoneNumber),
-                        piiHandle(inE164),
-                        piiHandle(original),
-                        piiHandle(e164)));
-                return true;
+        final int rule;
+        if (!mDbHelper.mightBeBlocked(phoneNumber, inE164)) {
+            rule = DecisionJournal.RULE_BLOOM_FILTER;
+        } else {
+            final long nowMillis = System.currentTimeMillis();
+            Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.lookup");
+            try (Cursor c = mDbHelper.getReadableDatabase().rawQuery(
+                    "SELECT " +
+                    BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "," +
+                    BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER + "," +
+                    BlockedNumberContract.BlockedNumbers.COLUMN_ID +
+                    " FROM " + BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS +
+                    " WHERE (" + BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER +
+                            "=?1" +
+                    " OR (?2 != '' AND " +
+                            BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER + "=?2))" +
+                    // Expired rows are ignored until the sweep deletes them.
+                    " AND (" + BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT +
+                            " IS NULL OR " + BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT +
+                            ">?3)",
+                    new String[] {phoneNumber, inE164, Long.toString(nowMillis)}
+                    )) {
+                while (c.moveToNext()) {
+                    final String original = c.getString(0);
+                    if (DEBUG) {
+                        Log.d(TAG, String.format("isBlocked: BLOCKED; number=%s, e164=%s, "
+                                        + "foundOrig=%s, foundE164=%s",
+                                piiHandle(phoneNumber),
+                                piiHandle(inE164),
+                                piiHandle(original),
+                                piiHandle(c.getString(1))));
+                    }
+                    recordHit(c.getLong(2), nowMillis);
+                    mDecisionJournal.record(phoneNumber,
+                            BlockedNumberContract.STATUS_BLOCKED_IN_LIST,
+                            phoneNumber.equals(original) ? DecisionJournal.RULE_MATCH_ORIGINAL
+                                    : DecisionJournal.RULE_MATCH_E164,
+                            startNanos);
+                    return BlockedNumberContract.STATUS_BLOCKED_IN_LIST;
+                }
+            } finally {
+                Trace.traceEnd(Utils.TRACE_TAG);
             }
-        } finally {
-            c.close();
+            // No match found.
+            mDbHelper.noteBloomFilterFalsePositive();
+            rule = DecisionJournal.RULE_NO_MATCH;
         }
-        // No match found.
-        Log.i(TAG, String.format("isBlocked: NOT BLOCKED; number=%s, e164=%s",
-                piiHandle(phoneNumber), piiHandle(inE164)));
-        return false;
+
+        if (mDbHelper.getCarrierBlocklist().contains(
+                TextUtils.isEmpty(inE164) ? phoneNumber : inE164)) {
+            mDecisionJournal.record(phoneNumber, STATUS_BLOCKED_CARRIER_LIST,
+                    DecisionJournal.RULE_CARRIER_LIST, startNanos);
+            return STATUS_BLOCKED_CARRIER_LIST;
+        }
+        mDecisionJournal.record(phoneNumber, BlockedNumberContract.STATUS_NOT_BLOCKED, rule,
+                startNanos);
+        return BlockedNumberContract.STATUS_NOT_BLOCKED;
     }
 
     private boolean canCurrentUserBlockUsers() {
@@ -516,10 +1777,16 @@ public class BlockedNumberProvider extends ContentProvider {
     }
 
     private int shouldSystemBlockNumber(String phoneNumber, Bundle extras) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        recordScreening(phoneNumber);
         if (getBlockSuppressionStatus().isSuppressed) {
+            mDecisionJournal.record(phoneNumber, BlockedNumberContract.STATUS_NOT_BLOCKED,
+                    DecisionJournal.RULE_SUPPRESSED, startNanos);
             return BlockedNumberContract.STATUS_NOT_BLOCKED;
         }
         if (isEmergencyNumber(phoneNumber)) {
+            mDecisionJournal.record(phoneNumber, BlockedNumberContract.STATUS_NOT_BLOCKED,
+                    DecisionJournal.RULE_EMERGENCY, startNanos);
             return BlockedNumberContract.STATUS_NOT_BLOCKED;
         }
 
@@ -564,8 +1831,11 @@ public class BlockedNumberProvider extends ContentProvider {
                     break;
             }
         }
-        if (blockReason == BlockedNumberContract.STATUS_NOT_BLOCKED && isBlocked(phoneNumber)) {
-            blockReason = BlockedNumberContract.STATUS_BLOCKED_IN_LIST;
+        if (blockReason != BlockedNumberContract.STATUS_NOT_BLOCKED) {
+            mDecisionJournal.record(phoneNumber, blockReason,
+                    DecisionJournal.RULE_ENHANCED_SETTING, startNanos);
+        } else {
+            blockReason = getListBlockStatus(phoneNumber);
         }
         return blockReason;
     }
@@ -699,9 +1969,14 @@ public class BlockedNumberProvider extends ContentProvider {
     }
 
     private void checkForPermissionAndMainUser(String permission) {
-        checkForPermission(permission);
-        if (!canCurrentUserBlockUsers()) {
-            throwCurrentUserNotPermittedSecurityException();
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.checkPermission");
+        try {
+            checkForPermission(permission);
+            if (!canCurrentUserBlockUsers()) {
+                throwCurrentUserNotPermittedSecurityException();
+            }
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
         }
     }
 
@@ -722,12 +1997,17 @@ public class BlockedNumberProvider extends ContentProvider {
     }
 
     private void enforceSystemPermissionAndUser(String permission) {
-        if (!canCurrentUserBlockUsers()) {
-            throwCurrentUserNotPermittedSecurityException();
-        }
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.checkSystemPermission");
+        try {
+            if (!canCurrentUserBlockUsers()) {
+                throwCurrentUserNotPermittedSecurityException();
+            }
 
-        if (!passesSystemPermissionCheck(permission)) {
-            throwSecurityException();
+            if (!passesSystemPermissionCheck(permission)) {
+                throwSecurityException();
+            }
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
         }
     }
 
@@ -747,4 +2027,47 @@ public class BlockedNumberProvider extends ContentProvider {
     private void throwCurrentUserNotPermittedSecurityException() {
         throw new SecurityException("The current user cannot perform this operation");
     }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        final DumpWriter dw = new DumpWriter(writer,
+                ArrayUtils.contains(args, DUMP_ARG_CHECKIN));
+        mDbHelper.dump(dw);
+        dumpSettings(dw);
+        mOperationStats.dump(dw);
+        dw.startSection("hits");
+        dw.print("pending_rows", mHitCounter.size());
+        dumpHeavyHitters(dw);
+        if (!dw.isCheckin()) {
+            mDecisionJournal.dump(writer);
+        }
+    }
+
+    /**
+     * Dumps the heavy hitters by salted hash, so that they can be told apart without revealing
+     * the numbers.
+     */
+    private void dumpHeavyHitters(DumpWriter dw) {
+        final long nowMillis = SystemClock.elapsedRealtime();
+        dw.startSection("heavy_hitters");
+        dw.print("total", mHeavyHitters.getTotal(nowMillis));
+        final List<HeavyHitterSketch.Entry> top =
+                mHeavyHitters.getTop(HEAVY_HITTER_CAPACITY, nowMillis);
+        for (int i = 0; i < top.size(); i++) {
+            final HeavyHitterSketch.Entry entry = top.get(i);
+            dw.print("top_" + i + ".number", Long.toHexString(entry.hash));
+            dw.print("top_" + i + ".count", entry.count);
+            dw.print("top_" + i + ".error", entry.error);
+        }
+    }
+
+    private void dumpSettings(DumpWriter dw) {
+        final SystemContract.BlockSuppressionStatus status = getBlockSuppressionStatus();
+        dw.startSection("settings");
+        dw.print("block_suppressed", status.isSuppressed);
+        dw.print("block_suppressed_until_millis", status.untilTimestampMillis);
+        for (String key : ENHANCED_SETTING_KEYS) {
+            dw.print(key, getEnhancedBlockSetting(key));
+        }
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SharedMemory;
+import android.os.Trace;
+import android.provider.BlockedNumberContract.BlockedNumbers;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Publishes {@link BlockedNumberSnapshot}s of the blocked table in shared memory, so that system
+ * clients can look numbers up without a binder call.
+ *
+ * <p>Each snapshot is immutable and mapped read-only by clients.  Next to it the publisher shares
+ * a version cell: a little endian {@code long} at offset 0 holding the current list generation,
+ * rewritten after every committed change.  A client whose snapshot generation differs from the
+ * version cell fetches a new snapshot, which is built on demand.  Temporary blocks are stored
+ * with their expiry time, so they stop matching when they end rather than when the expiry sweep
+ * deletes them.
+ */
+class BlockedNumberSnapshotPublisher {
+    private static final String TAG = "BlockedNumberSnapshot";
+
+    private final BlockedNumberDatabaseHelper mDbHelper;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private SharedMemory mVersionCell;
+
+    /** Writable mapping of {@link #mVersionCell}. */
+    @GuardedBy("mLock")
+    private ByteBuffer mVersionBuffer;
+
+    /**
+     * The latest snapshot.  Replaced snapshots are not closed, because a binder reply may still be
+     * writing them; they are closed once unreachable.
+     */
+    @GuardedBy("mLock")
+    private SharedMemory mSnapshot;
+
+    @GuardedBy("mLock")
+    private long mSnapshotGeneration = -1;
+
+    BlockedNumberSnapshotPublisher(@NonNull BlockedNumberDatabaseHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Called after a change to the blocked table is committed or rolled back.  Cheap until the
+     * first {@link #getSnapshot}.
+     */
+    void onListChanged() {
+        synchronized (mLock) {
+            if (mVersionBuffer != null) {
+                mVersionBuffer.putLong(0, mDbHelper.getListStats().generation);
+            }
+        }
+    }
+
+    /**
+     * @return The read-only version cell and the snapshot of the current list generation.
+     */
+    @NonNull
+    SharedMemory[] getSnapshot() throws ErrnoException {
+        synchronized (mLock) {
+            if (mVersionCell == null) {
+                final SharedMemory versionCell = SharedMemory.create("blocked_numbers_version",
+                        Long.BYTES);
+                mVersionBuffer = versionCell.mapReadWrite().order(ByteOrder.LITTLE_ENDIAN);
+                // Only takes away write access from mappings made from now on.
+                versionCell.setProtect(OsConstants.PROT_READ);
+                mVersionCell = versionCell;
+            }
+            final long generation = mDbHelper.getListStats().generation;
+            if (mSnapshot == null || mSnapshotGeneration != generation) {
+                mSnapshotGeneration = buildSnapshot();
+            }
+            mVersionBuffer.putLong(0, generation);
+            return new SharedMemory[] {mVersionCell, mSnapshot};
+        }
+    }
+
+    /**
+     * Replaces {@link #mSnapshot} with one of the current table.
+     *
+     * @return The list generation of the new snapshot.
+     */
+    @GuardedBy("mLock")
+    private long buildSnapshot() throws ErrnoException {
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.buildSnapshot");
+        try {
+            // Keys of permanent blocks, then the keys of temporary ones with their expiry times.
+            final ArrayList<String> keys = new ArrayList<>();
+            final HashMap<String, Long> expiresAt = new HashMap<>();
+            final long generation;
+            final SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            // Reads the keys and the generation at the same point.
+            db.beginTransactionReadOnly();
+            try {
+                generation = mDbHelper.getChangeGeneration();
+                try (Cursor c = db.query(BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                        new String[] {BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                                BlockedNumbers.COLUMN_E164_NUMBER,
+                                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT},
+                        BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT + " IS NULL OR " +
+                                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT + ">?",
+                        new String[] {Long.toString(System.currentTimeMillis())},
+                        null, null, null)) {
+                    while (c.moveToNext()) {
+                        final String e164Number = c.getString(1);
+                        if (c.isNull(2)) {
+                            keys.add(c.getString(0));
+                            if (!TextUtils.isEmpty(e164Number)) {
+                                keys.add(e164Number);
+                            }
+                        } else {
+                            // A key shared by two temporary blocks lasts until the later ends.
+                            expiresAt.merge(c.getString(0), c.getLong(2), Math::max);
+                            if (!TextUtils.isEmpty(e164Number)) {
+                                expiresAt.merge(e164Number, c.getLong(2), Math::max);
+                            }
+                        }
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            long[] sortedExpiresAt = null;
+            final byte[][] sortedKeys;
+            if (expiresAt.isEmpty()) {
+                sortedKeys = BlockedNumberSnapshot.sortKeys(keys);
+            } else {
+                // A key that is also permanently blocked never expires.
+                for (int i = 0; i < keys.size(); i++) {
+                    expiresAt.remove(keys.get(i));
+                }
+                keys.addAll(expiresAt.keySet());
+                sortedKeys = BlockedNumberSnapshot.sortKeys(keys);
+                sortedExpiresAt = new long[sortedKeys.length];
+                for (int i = 0; i < sortedKeys.length; i++) {
+                    final Long time = expiresAt.get(
+                            new String(sortedKeys[i], StandardCharsets.UTF_8));
+                    sortedExpiresAt[i] = time != null ? time : BlockedNumberSnapshot.NO_EXPIRY;
+                }
+            }
+            final SharedMemory snapshot = SharedMemory.create("blocked_numbers_snapshot",
+                    BlockedNumberSnapshot.getSize(sortedKeys, sortedExpiresAt));
+            final ByteBuffer buffer = snapshot.mapReadWrite();
+            try {
+                BlockedNumberSnapshot.write(buffer, generation, sortedKeys, sortedExpiresAt);
+            } finally {
+                SharedMemory.unmap(buffer);
+            }
+            snapshot.setProtect(OsConstants.PROT_READ);
+            mSnapshot = snapshot;
+            Log.i(TAG, "Published snapshot: generation=" + generation + ", keys="
+                    + sortedKeys.length);
+            return generation;
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+    }
+}
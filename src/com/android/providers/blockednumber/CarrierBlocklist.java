@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.Trace;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.Executor;
+
+/**
+ * The carrier tier: a large, read-mostly set of blocked E164 numbers pushed by the carrier or an
+ * enterprise, kept out of the blocked table.
+ *
+ * <p>The numbers live in a memory mapped base {@link PackedNumberFile}, plus small delta files
+ * holding the updates since the base was written, newest first.  An update only writes a delta.
+ * Once the deltas grow past a fraction of the base, a background merge writes a new base and
+ * swaps it in atomically, then deletes the merged deltas, oldest first.  The base records the
+ * sequence number of the newest delta merged into it, and loading ignores the deltas up to it, so
+ * a crash between the swap and the deletions cannot bring back an overridden change.
+ *
+ * <p>Lookups never block: they read an immutable {@link State}, replaced on every change.
+ */
+class CarrierBlocklist {
+    private static final String TAG = "CarrierBlocklist";
+
+    @VisibleForTesting
+    static final String BASE_FILE_NAME = "base";
+    private static final String DELTA_FILE_PREFIX = "delta_";
+
+    /** The deltas are merged once they hold this many numbers, or 1/16 of the base if more. */
+    @VisibleForTesting
+    static final int MIN_MERGE_NUMBERS = 4096;
+    private static final int MERGE_BASE_FRACTION = 16;
+
+    /** The deltas are merged once there are more than this many, to keep lookups short. */
+    @VisibleForTesting
+    static final int MAX_DELTAS = 8;
+
+    private static final class Segment {
+        final long seq;
+        final PackedNumberFile.Delta delta;
+
+        Segment(long seq, PackedNumberFile.Delta delta) {
+            this.seq = seq;
+            this.delta = delta;
+        }
+    }
+
+    private static final class State {
+        /** {@code null} if there is no base yet. */
+        @Nullable
+        final PackedNumberFile.Reader base;
+        /** Newest first. */
+        final List<Segment> deltas;
+        final long deltaNumbers;
+
+        State(@Nullable PackedNumberFile.Reader base, List<Segment> deltas) {
+            this.base = base;
+            this.deltas = deltas;
+            long count = 0;
+            for (Segment segment : deltas) {
+                count += segment.delta.added.length + segment.delta.removed.length;
+            }
+            this.deltaNumbers = count;
+        }
+
+        long getBaseSize() {
+            return base == null ? 0 : base.size();
+        }
+    }
+
+    /** {@code null} to keep everything in memory, for tests. */
+    @Nullable
+    private final File mDir;
+
+    private final Executor mMergeExecutor;
+
+    private final Object mLock = new Object();
+
+    /** {@code null} until loaded. */
+    private volatile State mState;
+
+    @GuardedBy("mLock")
+    private long mNextSeq = 1;
+
+    @GuardedBy("mLock")
+    private boolean mMergePending;
+
+    @GuardedBy("mLock")
+    private int mMergeCount;
+
+    private final Runnable mMergeRunnable = () -> {
+        try {
+            merge();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Unable to merge the carrier blocklist", e);
+            synchronized (mLock) {
+                mMergePending = false;
+            }
+        }
+    };
+
+    /**
+     * @param dir Where the files are kept, or {@code null} to keep them in memory.
+     */
+    CarrierBlocklist(@Nullable File dir, @NonNull Executor mergeExecutor) {
+        mDir = dir;
+        mMergeExecutor = mergeExecutor;
+    }
+
+    /**
+     * @return Whether the carrier tier holds {@code e164Number}.
+     */
+    boolean contains(@Nullable String e164Number) {
+        final long packed = PackedNumberFile.pack(e164Number);
+        if (packed == PackedNumberFile.NOT_PACKABLE) {
+            return false;
+        }
+        final State state = getState();
+        for (Segment segment : state.deltas) {
+            if (Arrays.binarySearch(segment.delta.removed, packed) >= 0) {
+                return false;
+            }
+            if (Arrays.binarySearch(segment.delta.added, packed) >= 0) {
+                return true;
+            }
+        }
+        return state.base != null && state.base.contains(packed);
+    }
+
+    /**
+     * Adds and removes E164 numbers.  A number in both is removed.
+     *
+     * @throws IllegalArgumentException if a number is not in E164 format.
+     */
+    void update(@Nullable String[] added, @Nullable String[] removed) throws IOException {
+        final long[] removedNumbers = packSorted(removed);
+        final long[] addedNumbers = Arrays.stream(packSorted(added))
+                .filter(n -> Arrays.binarySearch(removedNumbers, n) < 0).toArray();
+        if (addedNumbers.length == 0 && removedNumbers.length == 0) {
+            return;
+        }
+        final PackedNumberFile.Delta delta =
+                new PackedNumberFile.Delta(addedNumbers, removedNumbers);
+        final boolean merge;
+        synchronized (mLock) {
+            final State state = getState();
+            final long seq = mNextSeq++;
+            if (mDir != null) {
+                writeFile(new File(mDir, DELTA_FILE_PREFIX + seq),
+                        out -> PackedNumberFile.writeDelta(out, delta));
+            }
+            final ArrayList<Segment> deltas = new ArrayList<>(state.deltas.size() + 1);
+            deltas.add(new Segment(seq, delta));
+            deltas.addAll(state.deltas);
+            final State newState = new State(state.base, Collections.unmodifiableList(deltas));
+            mState = newState;
+            merge = !mMergePending && (newState.deltas.size() > MAX_DELTAS
+                    || newState.deltaNumbers > Math.max(MIN_MERGE_NUMBERS,
+                            newState.getBaseSize() / MERGE_BASE_FRACTION));
+            mMergePending |= merge;
+        }
+        if (merge) {
+            mMergeExecutor.execute(mMergeRunnable);
+        }
+    }
+
+    private static long[] packSorted(@Nullable String[] numbers) {
+        if (numbers == null) {
+            return new long[0];
+        }
+        final long[] packed = new long[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            packed[i] = PackedNumberFile.pack(numbers[i]);
+            if (packed[i] == PackedNumberFile.NOT_PACKABLE) {
+                throw new IllegalArgumentException("Not an E164 number: "
+                        + Utils.piiHandle(numbers[i]));
+            }
+        }
+        return Arrays.stream(packed).sorted().distinct().toArray();
+    }
+
+    /**
+     * Writes the base with the current deltas applied and swaps it in.
+     */
+    @VisibleForTesting
+    void merge() throws IOException {
+        Trace.traceBegin(Utils.TRACE_TAG, "BlockedNumbers.mergeCarrierBlocklist");
+        try {
+            final State state = getState();
+            if (state.deltas.isEmpty()) {
+                synchronized (mLock) {
+                    mMergePending = false;
+                }
+                return;
+            }
+            final long mergedSeq = state.deltas.get(0).seq;
+
+            // The newest change to each number wins.
+            final HashMap<Long, Boolean> changes = new HashMap<>();
+            for (Segment segment : state.deltas) {
+                for (long n : segment.delta.added) {
+                    changes.putIfAbsent(n, true);
+                }
+                for (long n : segment.delta.removed) {
+                    changes.putIfAbsent(n, false);
+                }
+            }
+            final long[] changed = new long[changes.size()];
+            int i = 0;
+            for (Map.Entry<Long, Boolean> change : changes.entrySet()) {
+                changed[i++] = change.getKey();
+            }
+            Arrays.sort(changed);
+
+            final PrimitiveIterator.OfLong baseNumbers = state.base != null
+                    ? state.base.iterator() : Arrays.stream(new long[0]).iterator();
+            final IOStreamWriter writeBase = out -> {
+                final PackedNumberFile.Writer writer = new PackedNumberFile.Writer(out);
+                int next = 0;
+                while (baseNumbers.hasNext()) {
+                    final long n = baseNumbers.nextLong();
+                    for (; next < changed.length && changed[next] <= n; next++) {
+                        if (changes.get(changed[next])) {
+                            writer.add(changed[next]);
+                        }
+                    }
+                    if (!changes.containsKey(n)) {
+                        writer.add(n);
+                    }
+                }
+                for (; next < changed.length; next++) {
+                    if (changes.get(changed[next])) {
+                        writer.add(changed[next]);
+                    }
+                }
+                writer.finish(mergedSeq);
+            };
+
+            final PackedNumberFile.Reader base;
+            if (mDir != null) {
+                final File file = new File(mDir, BASE_FILE_NAME);
+                writeFile(file, writeBase);
+                base = new PackedNumberFile.Reader(map(new AtomicFile(file)));
+            } else {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                writeBase.write(out);
+                base = new PackedNumberFile.Reader(ByteBuffer.wrap(out.toByteArray()));
+            }
+
+            synchronized (mLock) {
+                final List<Segment> current = getState().deltas;
+                final ArrayList<Segment> deltas = new ArrayList<>();
+                for (Segment segment : current) {
+                    if (segment.seq > mergedSeq) {
+                        deltas.add(segment);
+                    }
+                }
+                if (mDir != null) {
+                    // Loading ignores them already; oldest first regardless, so that no delta is
+                    // ever left behind without the newer ones that override it.
+                    for (int j = current.size() - 1; j >= 0; j--) {
+                        if (current.get(j).seq <= mergedSeq) {
+                            deleteDelta(current.get(j).seq);
+                        }
+                    }
+                }
+                mState = new State(base, Collections.unmodifiableList(deltas));
+                mMergePending = false;
+                mMergeCount++;
+            }
+            Log.i(TAG, "Merged carrier blocklist: numbers=" + base.size());
+        } finally {
+            Trace.traceEnd(Utils.TRACE_TAG);
+        }
+    }
+
+    private State getState() {
+        State state = mState;
+        if (state == null) {
+            synchronized (mLock) {
+                state = mState;
+                if (state == null) {
+                    state = load();
+                    mState = state;
+                }
+            }
+        }
+        return state;
+    }
+
+    @GuardedBy("mLock")
+    private State load() {
+        if (mDir == null) {
+            return new State(null, Collections.emptyList());
+        }
+        PackedNumberFile.Reader base = null;
+        long baseSeq = 0;
+        try {
+            base = new PackedNumberFile.Reader(
+                    map(new AtomicFile(new File(mDir, BASE_FILE_NAME))));
+            baseSeq = base.getSeq();
+            mNextSeq = Math.max(mNextSeq, baseSeq + 1);
+        } catch (FileNotFoundException e) {
+            // No base yet.
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Unable to read the carrier blocklist", e);
+        }
+
+        final ArrayList<Segment> deltas = new ArrayList<>();
+        final String[] names = mDir.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (!name.startsWith(DELTA_FILE_PREFIX) || name.endsWith(".new")
+                    || name.endsWith(".bak")) {
+                continue;
+            }
+            final long seq;
+            try {
+                seq = Long.parseLong(name.substring(DELTA_FILE_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (seq <= baseSeq) {
+                // Merged into the base by a merge interrupted before it deleted the delta.
+                deleteDelta(seq);
+                continue;
+            }
+            try (FileInputStream in = new AtomicFile(new File(mDir, name)).openRead()) {
+                deltas.add(new Segment(seq, PackedNumberFile.readDelta(in)));
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read carrier blocklist delta " + seq, e);
+            }
+            mNextSeq = Math.max(mNextSeq, seq + 1);
+        }
+        deltas.sort((a, b) -> Long.compare(b.seq, a.seq));
+        return new State(base, Collections.unmodifiableList(deltas));
+    }
+
+    private void deleteDelta(long seq) {
+        new AtomicFile(new File(mDir, DELTA_FILE_PREFIX + seq)).delete();
+    }
+
+    private static ByteBuffer map(AtomicFile file) throws IOException {
+        try (FileChannel channel = file.openRead().getChannel()) {
+            // The mapping outlives the channel, and the file after it is replaced.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private interface IOStreamWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /** Replaces {@code file} atomically. */
+    private void writeFile(File file, IOStreamWriter writer) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Unable to create " + mDir);
+        }
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            writer.write(fos);
+            atomicFile.finishWrite(fos);
+        } catch (IOException | RuntimeException e) {
+            atomicFile.failWrite(fos);
+            throw e;
+        }
+    }
+
+    void dump(@NonNull DumpWriter dw) {
+        final State state = getState();
+        dw.startSection("carrier_blocklist");
+        dw.print("base_numbers", state.getBaseSize());
+        dw.print("deltas", state.deltas.size());
+        dw.print("delta_numbers", state.deltaNumbers);
+        synchronized (mLock) {
+            dw.print("merges", mMergeCount);
+            dw.print("merge_pending", mMergePending);
+        }
+    }
+}
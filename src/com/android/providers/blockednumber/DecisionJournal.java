@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.os.SystemClock;
+import android.util.TimeUtils;
+
+import java.io.PrintWriter;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, lock-free ring buffer of block decisions.
+ *
+ * <p>Each decision is stored as a handful of primitives so that {@link #record} never allocates.
+ * Records are only formatted by {@link #dump}.  Numbers are kept as a 64-bit hash salted with a
+ * per-process random value, so the same number can be correlated within a dump without the dump
+ * revealing it.
+ */
+public class DecisionJournal {
+    /** The number was empty. */
+    public static final int RULE_EMPTY_NUMBER = 0;
+    /** The bloom filter ruled out a match without touching the database. */
+    public static final int RULE_BLOOM_FILTER = 1;
+    /** The database had no matching row. */
+    public static final int RULE_NO_MATCH = 2;
+    /** A row matched on {@code original_number}. */
+    public static final int RULE_MATCH_ORIGINAL = 3;
+    /** A row matched on {@code e164_number}. */
+    public static final int RULE_MATCH_E164 = 4;
+    /** Blocking is suppressed after an emergency contact. */
+    public static final int RULE_SUPPRESSED = 5;
+    /** The number is an emergency number. */
+    public static final int RULE_EMERGENCY = 6;
+    /** An enhanced blocking setting applied to the call presentation. */
+    public static final int RULE_ENHANCED_SETTING = 7;
+    /** The number is in the carrier tier. */
+    public static final int RULE_CARRIER_LIST = 8;
+
+    private static final String[] RULE_NAMES = {
+            "EMPTY_NUMBER",
+            "BLOOM_FILTER",
+            "NO_MATCH",
+            "MATCH_ORIGINAL",
+            "MATCH_E164",
+            "SUPPRESSED",
+            "EMERGENCY",
+            "ENHANCED_SETTING",
+            "CARRIER_LIST",
+    };
+
+    // Layout of one record in mRecords.  The stamp is written last and is zero while a writer
+    // is filling in the fields, so a reader can detect records torn by a concurrent writer.
+    // All fields use volatile stores so that the stores cannot be reordered around the stamp.
+    private static final int FIELD_STAMP = 0;
+    private static final int FIELD_TIMESTAMP = 1;
+    private static final int FIELD_HASH = 2;
+    private static final int FIELD_STATUS_AND_RULE = 3;
+    private static final int FIELD_LATENCY = 4;
+    private static final int RECORD_SIZE = 5;
+
+    private final int mCapacity;
+    private final AtomicLongArray mRecords;
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private final long mSalt = new SecureRandom().nextLong();
+
+    /**
+     * @param capacity The number of records to keep; rounded up to a power of two.
+     */
+    public DecisionJournal(int capacity) {
+        mCapacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mRecords = new AtomicLongArray(mCapacity * RECORD_SIZE);
+    }
+
+    /**
+     * Records a decision.
+     *
+     * @param number The number the decision was made for; may be {@code null}.
+     * @param status One of the {@code BlockedNumberContract.STATUS_*} values.
+     * @param rule One of the {@code RULE_*} values.
+     * @param startNanos The {@link SystemClock#elapsedRealtimeNanos()} when the lookup started.
+     */
+    public void record(String number, int status, int rule, long startNanos) {
+        final long latency = SystemClock.elapsedRealtimeNanos() - startNanos;
+        final long hash = number == null ? 0 : BlockedNumberBloomFilter.hash64(number, mSalt);
+        final long sequence = mNextSequence.getAndIncrement();
+        final int base = (int) (sequence & (mCapacity - 1)) * RECORD_SIZE;
+
+        mRecords.set(base + FIELD_STAMP, 0);
+        mRecords.set(base + FIELD_TIMESTAMP, System.currentTimeMillis());
+        mRecords.set(base + FIELD_HASH, hash);
+        mRecords.set(base + FIELD_STATUS_AND_RULE, ((long) status << 32) | rule);
+        mRecords.set(base + FIELD_LATENCY, latency);
+        mRecords.set(base + FIELD_STAMP, sequence + 1);
+    }
+
+    /**
+     * @return The total number of decisions recorded, including ones already overwritten.
+     */
+    public long getCount() {
+        return mNextSequence.get();
+    }
+
+    public void dump(@NonNull PrintWriter pw) {
+        final long next = mNextSequence.get();
+        final long first = Math.max(0, next - mCapacity);
+        pw.println("Decision journal: " + next + " decisions, last " + (next - first) + ":");
+        for (long sequence = first; sequence < next; sequence++) {
+            final int base = (int) (sequence & (mCapacity - 1)) * RECORD_SIZE;
+            final long stamp = mRecords.get(base + FIELD_STAMP);
+            final long timestamp = mRecords.get(base + FIELD_TIMESTAMP);
+            final long hash = mRecords.get(base + FIELD_HASH);
+            final long statusAndRule = mRecords.get(base + FIELD_STATUS_AND_RULE);
+            final long latency = mRecords.get(base + FIELD_LATENCY);
+            if (stamp != sequence + 1 || mRecords.get(base + FIELD_STAMP) != stamp) {
+                // Still being written, or already overwritten by a newer record.
+                continue;
+            }
+            final int status = (int) (statusAndRule >>> 32);
+            final int rule = (int) statusAndRule;
+            pw.println("  " + TimeUtils.logTimeOfDay(timestamp)
+                    + " number=" + Long.toHexString(hash)
+                    + " status=" + status
+                    + " rule=" + (rule >= 0 && rule < RULE_NAMES.length ? RULE_NAMES[rule] : rule)
+                    + " latencyUs=" + latency / 1000);
+        }
+    }
+}
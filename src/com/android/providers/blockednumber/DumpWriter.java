@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Writes the provider's dumpsys output, either indented for humans or, in checkin mode, as one
+ * stable {@code <section>.<key>=<value>} line per value for fleet tooling.
+ *
+ * <p>Keys are part of the checkin format: add new ones freely, but do not rename or remove them.
+ */
+class DumpWriter {
+    /** Bumped only when existing checkin keys change meaning. */
+    static final int CHECKIN_VERSION = 1;
+
+    private final PrintWriter mWriter;
+    private final boolean mCheckin;
+    private String mSection = "";
+
+    DumpWriter(@NonNull PrintWriter writer, boolean checkin) {
+        mWriter = writer;
+        mCheckin = checkin;
+        if (checkin) {
+            mWriter.println("checkin_version=" + CHECKIN_VERSION);
+        }
+    }
+
+    boolean isCheckin() {
+        return mCheckin;
+    }
+
+    /**
+     * @return The underlying writer, for free form output in human readable mode.
+     */
+    @NonNull PrintWriter getWriter() {
+        return mWriter;
+    }
+
+    void startSection(@NonNull String section) {
+        mSection = section;
+        if (!mCheckin) {
+            mWriter.println(section + ":");
+        }
+    }
+
+    void print(@NonNull String key, Object value) {
+        if (mCheckin) {
+            mWriter.println(mSection + "." + key + "=" + value);
+        } else {
+            mWriter.println("  " + key + "=" + value);
+        }
+    }
+
+    void print(@NonNull String key, double value) {
+        print(key, String.format(Locale.ROOT, "%.5f", value));
+    }
+}
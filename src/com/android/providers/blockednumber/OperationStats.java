@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.NonNull;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histograms and counters per provider operation, broken down by outcome and
+ * calling UID.
+ *
+ * <p>Histograms are log-linear: each power of two is split into four sub-buckets, so a recorded
+ * latency is known to within 25%.  All storage is allocated up front and {@link #record} only
+ * performs atomic updates.
+ */
+public class OperationStats {
+    public static final int OUTCOME_OK = 0;
+    public static final int OUTCOME_SECURITY_EXCEPTION = 1;
+    public static final int OUTCOME_ERROR = 2;
+    private static final int NUM_OUTCOMES = 3;
+    private static final String[] OUTCOME_NAMES = {"ok", "security", "error"};
+
+    /** Bundle keys used by {@link #toBundle}. */
+    public static final String KEY_UIDS = "uids";
+    public static final String KEY_UID_OPERATION_COUNTS = "uid_operation_counts";
+    public static final String KEY_OPERATIONS = "operations";
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = 128;
+
+    /** Distinct calling UIDs tracked individually; the rest are counted together. */
+    private static final int MAX_UIDS = 16;
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    private final String[] mOperationNames;
+    private final int mNumOperations;
+
+    // Indexed by [operation * NUM_OUTCOMES + outcome] (* NUM_BUCKETS + bucket for mBuckets).
+    private final AtomicLongArray mBuckets;
+    private final AtomicLongArray mCounts;
+    private final AtomicLongArray mSumMicros;
+    private final AtomicLongArray mMaxMicros;
+
+    // mUids holds uid + 1, so that 0 marks a free slot.  mUidCounts is indexed by
+    // [slot * mNumOperations + operation], with slot MAX_UIDS counting all other UIDs.
+    private final AtomicIntegerArray mUids = new AtomicIntegerArray(MAX_UIDS);
+    private final AtomicLongArray mUidCounts;
+
+    private final long mStartTimeMillis = System.currentTimeMillis();
+
+    public OperationStats(@NonNull String[] operationNames) {
+        mOperationNames = operationNames;
+        mNumOperations = operationNames.length;
+        mBuckets = new AtomicLongArray(mNumOperations * NUM_OUTCOMES * NUM_BUCKETS);
+        mCounts = new AtomicLongArray(mNumOperations * NUM_OUTCOMES);
+        mSumMicros = new AtomicLongArray(mNumOperations * NUM_OUTCOMES);
+        mMaxMicros = new AtomicLongArray(mNumOperations * NUM_OUTCOMES);
+        mUidCounts = new AtomicLongArray((MAX_UIDS + 1) * mNumOperations);
+    }
+
+    /**
+     * Records one operation.
+     *
+     * @param startNanos The {@link SystemClock#elapsedRealtimeNanos()} when it started.
+     */
+    public void record(int operation, int outcome, int callingUid, long startNanos) {
+        final long micros = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+        final int histogram = operation * NUM_OUTCOMES + outcome;
+        mBuckets.incrementAndGet(histogram * NUM_BUCKETS + bucketIndex(micros));
+        mCounts.incrementAndGet(histogram);
+        mSumMicros.addAndGet(histogram, micros);
+        long max;
+        do {
+            max = mMaxMicros.get(histogram);
+        } while (micros > max && !mMaxMicros.compareAndSet(histogram, max, micros));
+        mUidCounts.incrementAndGet(uidSlot(callingUid) * mNumOperations + operation);
+    }
+
+    private int uidSlot(int uid) {
+        final int key = uid + 1;
+        final int start = (key * 0x9e3779b9 >>> 28) % MAX_UIDS;
+        for (int i = 0; i < MAX_UIDS; i++) {
+            final int slot = (start + i) % MAX_UIDS;
+            final int current = mUids.get(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == 0) {
+                if (mUids.compareAndSet(slot, 0, key)) {
+                    return slot;
+                }
+                if (mUids.get(slot) == key) {
+                    return slot;
+                }
+            }
+        }
+        return MAX_UIDS;
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(NUM_BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + subBucket);
+    }
+
+    /**
+     * @return The largest value that falls into {@code bucket}.
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + 1;
+        final int subBucket = bucket % SUB_BUCKETS;
+        final long lower = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private long percentile(int histogram, long count, double percentile) {
+        final long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+            seen += mBuckets.get(histogram * NUM_BUCKETS + bucket);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(bucket), mMaxMicros.get(histogram));
+            }
+        }
+        return mMaxMicros.get(histogram);
+    }
+
+    /**
+     * @return {count, sum, p50, p90, p99, max} for one histogram, latencies in microseconds.
+     */
+    private long[] summarize(int histogram) {
+        final long count = mCounts.get(histogram);
+        final long[] summary = new long[3 + PERCENTILES.length];
+        summary[0] = count;
+        summary[1] = mSumMicros.get(histogram);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            summary[2 + i] = percentile(histogram, count, PERCENTILES[i]);
+        }
+        summary[summary.length - 1] = mMaxMicros.get(histogram);
+        return summary;
+    }
+
+    /**
+     * Returns the stats as a compact bundle.  Each operation and outcome that has been recorded
+     * maps {@code "<operation>/<outcome>"} to {count, sumUs, p50Us, p90Us, p99Us, maxUs}.
+     * {@link #KEY_UIDS} holds the tracked UIDs (-1 for all others) and
+     * {@link #KEY_UID_OPERATION_COUNTS} their per operation counts, in the order of
+     * {@link #KEY_OPERATIONS}.
+     */
+    public @NonNull Bundle toBundle() {
+        final Bundle bundle = new Bundle();
+        bundle.putStringArray(KEY_OPERATIONS, mOperationNames);
+        for (int operation = 0; operation < mNumOperations; operation++) {
+            for (int outcome = 0; outcome < NUM_OUTCOMES; outcome++) {
+                final int histogram = operation * NUM_OUTCOMES + outcome;
+                if (mCounts.get(histogram) > 0) {
+                    bundle.putLongArray(mOperationNames[operation] + "/" + OUTCOME_NAMES[outcome],
+                            summarize(histogram));
+                }
+            }
+        }
+        final int[] uids = new int[MAX_UIDS + 1];
+        final long[] uidCounts = new long[(MAX_UIDS + 1) * mNumOperations];
+        for (int slot = 0; slot <= MAX_UIDS; slot++) {
+            uids[slot] = slot < MAX_UIDS ? mUids.get(slot) - 1 : -1;
+            for (int operation = 0; operation < mNumOperations; operation++) {
+                final int index = slot * mNumOperations + operation;
+                uidCounts[index] = mUidCounts.get(index);
+            }
+        }
+        bundle.putIntArray(KEY_UIDS, uids);
+        bundle.putLongArray(KEY_UID_OPERATION_COUNTS, uidCounts);
+        return bundle;
+    }
+
+    void dump(@NonNull DumpWriter dw) {
+        dw.startSection("operations");
+        dw.print("since_millis", mStartTimeMillis);
+        for (int operation = 0; operation < mNumOperations; operation++) {
+            for (int outcome = 0; outcome < NUM_OUTCOMES; outcome++) {
+                final int histogram = operation * NUM_OUTCOMES + outcome;
+                if (mCounts.get(histogram) == 0) {
+                    continue;
+                }
+                final long[] s = summarize(histogram);
+                if (dw.isCheckin()) {
+                    dw.print(mOperationNames[operation] + "/" + OUTCOME_NAMES[outcome],
+                            s[0] + "," + s[1] + "," + s[2] + "," + s[3] + "," + s[4] + ","
+                                    + s[5]);
+                } else {
+                    dw.print(mOperationNames[operation] + "/" + OUTCOME_NAMES[outcome],
+                            "count=" + s[0] + " avgUs=" + s[1] / s[0] + " p50Us=" + s[2]
+                                    + " p90Us=" + s[3] + " p99Us=" + s[4] + " maxUs=" + s[5]);
+                }
+            }
+        }
+
+        dw.startSection("operations_by_uid");
+        for (int slot = 0; slot <= MAX_UIDS; slot++) {
+            final int uid = slot < MAX_UIDS ? mUids.get(slot) - 1 : -1;
+            if (slot < MAX_UIDS && uid < 0) {
+                continue;
+            }
+            for (int operation = 0; operation < mNumOperations; operation++) {
+                final long count = mUidCounts.get(slot * mNumOperations + operation);
+                if (count > 0) {
+                    dw.print((uid < 0 ? "other" : Integer.toString(uid)) + "."
+                            + mOperationNames[operation], count);
+                }
+            }
+        }
+    }
+}
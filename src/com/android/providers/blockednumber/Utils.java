@@ -24,6 +24,7 @@ import android.location.Country;
 import android.location.CountryDetector;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Trace;
 import android.telecom.PhoneAccount;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
@@ -40,6 +41,11 @@ public class Utils {
     }
 
     public static final int MIN_INDEX_LEN = 8;
+    /**
+     * Trace tag for sections and counters emitted by this provider.  {@link Trace} checks the
+     * tag itself, so a disabled tag costs a single branch per call.
+     */
+    public static final long TRACE_TAG = Trace.TRACE_TAG_DATABASE;
     public static String TAG = "BlockedNumberProvider";
     public static boolean VERBOSE = isLoggable(TAG, android.util.Log.VERBOSE);
 
@@ -69,20 +75,34 @@ public class Utils {
      */
     public static @NonNull String getE164Number(@NonNull Context context,
             @Nullable String rawNumber, @Nullable String incomingE16Number) {
-        if (rawNumber != null && rawNumber.contains("@")) {
-            return rawNumber;
-        }
-        if (!TextUtils.isEmpty(incomingE16Number)) {
-            return incomingE16Number;
-        }
-        if (TextUtils.isEmpty(rawNumber)) {
-            return "";
-        }
-        final String e164 =
-                PhoneNumberUtils.formatNumberToE164(rawNumber, getCurrentCountryIso(context));
-        return e164 == null ? "" : e164;
+        return NumberNormalizer.getE164Number(context, rawNumber, incomingE16Number,
+                E164_FORMATTER);
+    }
+
+    /**
+     * Same as {@link #getE164Number(Context, String, String)} for the given country, for callers
+     * normalizing many numbers at once.
+     */
+    public static @NonNull String getE164NumberForCountry(@NonNull String countryIso,
+            @Nullable String rawNumber, @Nullable String incomingE16Number) {
+        return NumberNormalizer.getE164Number(countryIso, rawNumber, incomingE16Number,
+                COUNTRY_E164_FORMATTER);
     }
 
+    private static final NumberNormalizer.E164Formatter<String> COUNTRY_E164_FORMATTER =
+            (countryIso, rawNumber) -> PhoneNumberUtils.formatNumberToE164(rawNumber, countryIso);
+
+    private static final NumberNormalizer.E164Formatter<Context> E164_FORMATTER =
+            (context, rawNumber) -> {
+                Trace.traceBegin(TRACE_TAG, "BlockedNumbers.getE164Number");
+                try {
+                    return PhoneNumberUtils.formatNumberToE164(
+                            rawNumber, getCurrentCountryIso(context));
+                } finally {
+                    Trace.traceEnd(TRACE_TAG);
+                }
+            };
+
     public static @Nullable String wrapSelectionWithParens(@Nullable String selection) {
         return TextUtils.isEmpty(selection) ? null : "(" + selection + ")";
     }
@@ -109,7 +129,8 @@ public class Utils {
 
             String textToObfuscate = uri.getSchemeSpecificPart();
             if (PhoneAccount.SCHEME_TEL.equals(scheme)) {
-                obfuscatePhoneNumber(sb, textToObfuscate);
+                PhoneNumberRedactor.obfuscatePhoneNumber(
+                        sb, textToObfuscate, NUM_DIALABLE_DIGITS_TO_LOG);
             } else if (PhoneAccount.SCHEME_SIP.equals(scheme)) {
                 for (int i = 0; i < textToObfuscate.length(); i++) {
                     char c = textToObfuscate.charAt(i);
@@ -123,31 +144,12 @@ public class Utils {
             }
         } else if (pii instanceof String) {
             String number = (String) pii;
-            obfuscatePhoneNumber(sb, number);
+            PhoneNumberRedactor.obfuscatePhoneNumber(sb, number, NUM_DIALABLE_DIGITS_TO_LOG);
         }
 
         return sb.toString();
     }
 
-    /**
-     * Obfuscates a phone number, allowing NUM_DIALABLE_DIGITS_TO_LOG digits to be exposed for the
-     * phone number.
-     * @param sb String buffer to write obfuscated number to.
-     * @param phoneNumber The number to obfuscate.
-     */
-    private static void obfuscatePhoneNumber(StringBuilder sb, String phoneNumber) {
-        int numDigitsToObfuscate = getDialableCount(phoneNumber)
-                - NUM_DIALABLE_DIGITS_TO_LOG;
-        for (int i = 0; i < phoneNumber.length(); i++) {
-            char c = phoneNumber.charAt(i);
-            boolean isDialable = PhoneNumberUtils.isDialable(c);
-            if (isDialable) {
-                numDigitsToObfuscate--;
-            }
-            sb.append(isDialable && numDigitsToObfuscate >= 0 ? "*" : c);
-        }
-    }
-
     /**
      * Redact personally identifiable information for production users.
      * If we are running in verbose mode, return the original string,
@@ -159,19 +161,4 @@ public class Utils {
         }
         return "***";
     }
-
-    /**
-     * Determines the number of dialable characters in a string.
-     * @param toCount The string to count dialable characters in.
-     * @return The count of dialable characters.
-     */
-    private static int getDialableCount(String toCount) {
-        int numDialable = 0;
-        for (char c : toCount.toCharArray()) {
-            if (PhoneNumberUtils.isDialable(c)) {
-                numDialable++;
-            }
-        }
-        return numDialable;
-    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class BackupCodecTest {
+
+    @Test
+    public void testReadEmptyState() throws IOException {
+        assertArrayEquals(new int[0],
+                BackupCodec.readState(new ByteArrayInputStream(new byte[0])).ids);
+    }
+
+    @Test
+    public void testReadStateVersion1() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(out);
+        dataOutputStream.writeInt(BackupCodec.STATE_VERSION_1);
+        dataOutputStream.writeInt(3);
+        dataOutputStream.writeInt(10);
+        dataOutputStream.writeInt(200000);
+        dataOutputStream.flush();
+
+        BackupCodec.State state =
+                BackupCodec.readState(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(BackupCodec.STATE_VERSION_1, state.version);
+        assertEquals(BackupCodec.NO_GENERATION, state.generation);
+        assertArrayEquals(new int[] {3, 10, 200000}, state.ids);
+    }
+
+    @Test
+    public void testReadStateVersion4() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(out);
+        dataOutputStream.writeInt(BackupCodec.STATE_VERSION_4);
+        dataOutputStream.writeLong(12);
+        dataOutputStream.writeByte(2); // Id count.
+        dataOutputStream.writeByte(3);
+        dataOutputStream.writeByte(4);
+        dataOutputStream.flush();
+
+        BackupCodec.State state =
+                BackupCodec.readState(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(BackupCodec.STATE_VERSION_4, state.version);
+        assertEquals(0, state.databaseId);
+        assertEquals(12, state.generation);
+        assertArrayEquals(new int[] {3, 7}, state.ids);
+    }
+
+    @Test
+    public void testStateRoundTrip() throws IOException {
+        int[] ids = new int[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + i * 3;
+        }
+        ids[ids.length - 1] = Integer.MAX_VALUE;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupCodec.writeState(out,
+                new BackupCodec.State(BackupCodec.STATE_VERSION_5, -42, 1L << 40, ids));
+
+        // Small gaps take a single byte per id.
+        assertTrue("size=" + out.size(), out.size() < ids.length + 32);
+        BackupCodec.State state =
+                BackupCodec.readState(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(BackupCodec.STATE_VERSION_5, state.version);
+        assertEquals(-42, state.databaseId);
+        assertEquals(1L << 40, state.generation);
+        assertArrayEquals(ids, state.ids);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadTruncatedState() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupCodec.writeState(out, new BackupCodec.State(
+                BackupCodec.STATE_VERSION_5, 7, 5, new int[] {1, 2, 3}));
+        byte[] bytes = out.toByteArray();
+        BackupCodec.readState(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+    }
+
+    @Test
+    public void testBucketRoundTrip() throws IOException {
+        BackupCodec.BucketWriter writer = new BackupCodec.BucketWriter();
+        try {
+            for (int i = 0; i < 100; i++) {
+                writer.add(BackupCodec.BUCKET_SIZE * 3 + i * 2, "650-555-" + (1000 + i),
+                        i == 0 ? null : "+1650555" + (1000 + i));
+            }
+            byte[] data = writer.encode();
+
+            // Similar numbers compress well.
+            assertTrue("size=" + data.length, data.length < 100 * 8);
+            assertEquals(3, BackupCodec.parseBucketKey(BackupCodec.getBucketKey(3)));
+            List<BackupCodec.Entry> entries = BackupCodec.decodeBucket(3, data);
+            assertEquals(100, entries.size());
+            assertEquals(BackupCodec.BUCKET_SIZE * 3, entries.get(0).id);
+            assertEquals("650-555-1000", entries.get(0).originalNumber);
+            assertNull(entries.get(0).e164Number);
+            assertEquals(BackupCodec.BUCKET_SIZE * 3 + 198, entries.get(99).id);
+            assertEquals("+16505551099", entries.get(99).e164Number);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testBucketExpiry() throws IOException {
+        BackupCodec.BucketWriter writer = new BackupCodec.BucketWriter();
+        try {
+            writer.add(1, "123", null);
+            writer.add(2, "456", null);
+            byte[] data = writer.encode();
+            // Buckets without expiring rows keep the version older releases can restore.
+            assertEquals(BackupCodec.BUCKET_VERSION, ByteBuffer.wrap(data).getInt());
+            assertEquals(BackupCodec.NO_EXPIRY, BackupCodec.decodeBucket(0, data).get(1).expiresAt);
+
+            writer.clear();
+            writer.add(1, "123", null);
+            writer.add(2, "456", null, 1234567890123L);
+            data = writer.encode();
+            assertEquals(BackupCodec.BUCKET_VERSION_EXPIRY, ByteBuffer.wrap(data).getInt());
+            List<BackupCodec.Entry> entries = BackupCodec.decodeBucket(0, data);
+            assertEquals(2, entries.size());
+            assertEquals(BackupCodec.NO_EXPIRY, entries.get(0).expiresAt);
+            assertEquals("456", entries.get(1).originalNumber);
+            assertEquals(1234567890123L, entries.get(1).expiresAt);
+
+            writer.clear();
+            writer.add(3, "789", null);
+            assertEquals(BackupCodec.BUCKET_VERSION, ByteBuffer.wrap(writer.encode()).getInt());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testDecodeSingleRowEntity() throws IOException {
+        byte[] data = BackupCodec.encodeBlockedNumber("123", "+1123");
+        BackupCodec.Entry entry = BackupCodec.decodeBlockedNumber(7, data);
+        assertEquals(7, entry.id);
+        assertEquals("123", entry.originalNumber);
+        assertEquals("+1123", entry.e164Number);
+        assertEquals(-1, BackupCodec.parseBucketKey("7"));
+    }
+}
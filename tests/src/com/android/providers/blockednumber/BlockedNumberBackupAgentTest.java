@@ -16,20 +16,27 @@
 
 package com.android.providers.blockednumber;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import android.app.backup.BackupDataInput;
+import android.app.backup.BackupDataOutput;
+import android.database.MatrixCursor;
+import android.provider.BlockedNumberContract.BlockedNumbers;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -93,4 +100,123 @@ public class BlockedNumberBackupAgentTest {
         mBlockedNumberBackupAgent.onRestore(backupDataInput, Integer.MAX_VALUE, null);
         assertEquals(0, mBlockedNumberBackupAgent.getRestoredCount());
     }
+
+    /**
+     * Verifies that a backup pass rewrites only the buckets whose rows changed, in a single merge
+     * over the id ordered cursor.
+     */
+    @Test
+    public void testRunBackup() throws IOException {
+        final int b = BackupCodec.BUCKET_SIZE;
+        BackupCodec.State oldState = new BackupCodec.State(BackupCodec.STATE_VERSION_5, 7, 10,
+                new int[] {1, 2, b + 1, 2 * b, 4 * b + 1});
+        MatrixCursor cursor = newBlockedNumbersCursor();
+        cursor.addRow(new Object[] {2, "1234", null, null});
+        cursor.addRow(new Object[] {3, "5678", "+15678", null});
+        cursor.addRow(new Object[] {b + 1, "abc@example.com", "abc@example.com", null});
+        cursor.addRow(new Object[] {3 * b, "9012", "+19012", null});
+        BackupDataOutput backupDataOutput = Mockito.mock(BackupDataOutput.class);
+
+        BackupCodec.State newState =
+                BlockedNumberBackupAgent.runBackup(oldState, backupDataOutput, cursor, 7, 20);
+
+        assertEquals(BackupCodec.STATE_VERSION_5, newState.version);
+        assertEquals(7, newState.databaseId);
+        assertEquals(20, newState.generation);
+        assertArrayEquals(new int[] {2, 3, b + 1, 3 * b}, newState.ids);
+        InOrder inOrder = inOrder(backupDataOutput);
+        inOrder.verify(backupDataOutput).writeEntityHeader(eq("bucket_0"), anyInt());
+        inOrder.verify(backupDataOutput).writeEntityHeader("bucket_2", -1);
+        inOrder.verify(backupDataOutput).writeEntityHeader(eq("bucket_3"), anyInt());
+        inOrder.verify(backupDataOutput).writeEntityHeader("bucket_4", -1);
+        // Unchanged.
+        verify(backupDataOutput, never()).writeEntityHeader(eq("bucket_1"), anyInt());
+    }
+
+    /**
+     * Verifies that the single row entities of an older backup are replaced by buckets.
+     */
+    @Test
+    public void testRunBackup_fromSingleRowEntities() throws IOException {
+        BackupCodec.State oldState = new BackupCodec.State(BackupCodec.STATE_VERSION_2, 0,
+                BackupCodec.NO_GENERATION, new int[] {1, 2});
+        MatrixCursor cursor = newBlockedNumbersCursor();
+        cursor.addRow(new Object[] {1, "1234", null, null});
+        cursor.addRow(new Object[] {2, "5678", "+15678", null});
+        BackupDataOutput backupDataOutput = Mockito.mock(BackupDataOutput.class);
+
+        BackupCodec.State newState =
+                BlockedNumberBackupAgent.runBackup(oldState, backupDataOutput, cursor, 7, 2);
+
+        assertEquals(BackupCodec.STATE_VERSION_5, newState.version);
+        assertArrayEquals(new int[] {1, 2}, newState.ids);
+        InOrder inOrder = inOrder(backupDataOutput);
+        inOrder.verify(backupDataOutput).writeEntityHeader("1", -1);
+        inOrder.verify(backupDataOutput).writeEntityHeader("2", -1);
+        inOrder.verify(backupDataOutput).writeEntityHeader(eq("bucket_0"), anyInt());
+    }
+
+    /**
+     * Verifies that every bucket is rewritten when the state was read from another database,
+     * since the same ids may now hold other numbers.
+     */
+    @Test
+    public void testRunBackup_fromOtherDatabase() throws IOException {
+        final int b = BackupCodec.BUCKET_SIZE;
+        BackupCodec.State oldState = new BackupCodec.State(BackupCodec.STATE_VERSION_5, 7, 10,
+                new int[] {1, 2, b + 1, 2 * b + 1});
+        MatrixCursor cursor = newBlockedNumbersCursor();
+        cursor.addRow(new Object[] {1, "1234", null, null});
+        cursor.addRow(new Object[] {2, "5678", "+15678", null});
+        cursor.addRow(new Object[] {b + 1, "9012", "+19012", null});
+        BackupDataOutput backupDataOutput = Mockito.mock(BackupDataOutput.class);
+
+        BackupCodec.State newState =
+                BlockedNumberBackupAgent.runBackup(oldState, backupDataOutput, cursor, 8, 3);
+
+        assertEquals(8, newState.databaseId);
+        assertEquals(3, newState.generation);
+        assertArrayEquals(new int[] {1, 2, b + 1}, newState.ids);
+        InOrder inOrder = inOrder(backupDataOutput);
+        inOrder.verify(backupDataOutput).writeEntityHeader(eq("bucket_0"), anyInt());
+        inOrder.verify(backupDataOutput).writeEntityHeader(eq("bucket_1"), anyInt());
+        inOrder.verify(backupDataOutput).writeEntityHeader("bucket_2", -1);
+    }
+
+    /**
+     * Verifies that an incremental pass rewrites only the buckets named by the change journal.
+     */
+    @Test
+    public void testRunIncrementalBackup() throws IOException {
+        final int b = BackupCodec.BUCKET_SIZE;
+        BackupCodec.State oldState = new BackupCodec.State(BackupCodec.STATE_VERSION_5, 7, 10,
+                new int[] {1, b + 1, 2 * b + 1, 3 * b + 1});
+        BackupDataOutput backupDataOutput = Mockito.mock(BackupDataOutput.class);
+
+        // Bucket 1 gained a row, bucket 2 lost its only row.
+        BackupCodec.State newState = BlockedNumberBackupAgent.runIncrementalBackup(oldState,
+                backupDataOutput, new int[] {2 * b + 1, b + 2}, 12, bucket -> {
+                    MatrixCursor cursor = newBlockedNumbersCursor();
+                    if (bucket == 1) {
+                        cursor.addRow(new Object[] {b + 1, "1234", null, null});
+                        cursor.addRow(new Object[] {b + 2, "5678", "+15678", null});
+                    }
+                    return cursor;
+                });
+
+        assertEquals(7, newState.databaseId);
+        assertEquals(12, newState.generation);
+        assertArrayEquals(new int[] {1, b + 1, b + 2, 3 * b + 1}, newState.ids);
+        InOrder inOrder = inOrder(backupDataOutput);
+        inOrder.verify(backupDataOutput).writeEntityHeader(eq("bucket_1"), anyInt());
+        inOrder.verify(backupDataOutput).writeEntityHeader("bucket_2", -1);
+        verify(backupDataOutput, never()).writeEntityHeader(eq("bucket_0"), anyInt());
+        verify(backupDataOutput, never()).writeEntityHeader(eq("bucket_3"), anyInt());
+    }
+
+    private static MatrixCursor newBlockedNumbersCursor() {
+        return new MatrixCursor(new String[] {BlockedNumbers.COLUMN_ID,
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER, BlockedNumbers.COLUMN_E164_NUMBER,
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT});
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+@RunWith(JUnit4.class)
+public class BlockedNumberBloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        BlockedNumberBloomFilter filter = BlockedNumberBloomFilter.create(10000, 0.01, 1 << 20);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("+1650555" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("+1650555" + i));
+        }
+        assertEquals(10000, filter.getNumKeys());
+    }
+
+    @Test
+    public void testFalsePositiveRateIsNearTarget() {
+        BlockedNumberBloomFilter filter = BlockedNumberBloomFilter.create(10000, 0.01, 1 << 20);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("+1650555" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("+1408444" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("falsePositives=" + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void testSizeIsCapped() {
+        BlockedNumberBloomFilter filter = BlockedNumberBloomFilter.create(1000000, 0.001, 4096);
+        assertEquals(4096, filter.getSizeBytes());
+    }
+
+    @Test
+    public void testPersistRoundTrip() throws IOException {
+        BlockedNumberBloomFilter filter = BlockedNumberBloomFilter.create(100, 0.01, 1 << 20);
+        filter.put("123");
+        filter.put("+14084541111");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+        BlockedNumberBloomFilter read = BlockedNumberBloomFilter.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(filter.getNumBits(), read.getNumBits());
+        assertEquals(filter.getNumHashes(), read.getNumHashes());
+        assertEquals(2, read.getNumKeys());
+        assertTrue(read.mightContain("123"));
+        assertTrue(read.mightContain("+14084541111"));
+        assertFalse(read.mightContain("1234") && read.mightContain("12345")
+                && read.mightContain("123456"));
+    }
+}
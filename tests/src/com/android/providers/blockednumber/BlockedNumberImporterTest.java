@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.BlockedNumberContract.BlockedNumbers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@RunWith(JUnit4.class)
+public class BlockedNumberImporterTest {
+
+    @Test
+    public void testParseLine() {
+        ContentValues cv = BlockedNumberImporter.parseLine("650-555-1234", 1, "US");
+        assertEquals("650-555-1234", cv.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER));
+        assertEquals("+16505551234", cv.getAsString(BlockedNumbers.COLUMN_E164_NUMBER));
+
+        cv = BlockedNumberImporter.parseLine(" \"123\" , \"+1123\" ,ignored", 2, "US");
+        assertEquals("123", cv.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER));
+        assertEquals("+1123", cv.getAsString(BlockedNumbers.COLUMN_E164_NUMBER));
+
+        cv = BlockedNumberImporter.parseLine("abc@example.com", 2, "US");
+        assertEquals("", cv.getAsString(BlockedNumbers.COLUMN_E164_NUMBER));
+
+        // A header is only skipped on the first line.
+        ContentValues header = BlockedNumberImporter.parseLine("original_number,e164_number",
+                1, "US");
+        assertSame(header, BlockedNumberImporter.parseLine("# comment", 5, "US"));
+        assertSame(header, BlockedNumberImporter.parseLine("   ", 5, "US"));
+        assertEquals("original_number", BlockedNumberImporter.parseLine(
+                "original_number", 2, "US").getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER));
+
+        assertNull(BlockedNumberImporter.parseLine(",+16505551234", 3, "US"));
+        assertNull(BlockedNumberImporter.parseLine("\"\"", 3, "US"));
+    }
+
+    @Test
+    public void testParseLine_quotedCommas() {
+        // Commas inside quotes do not split fields.
+        ContentValues cv = BlockedNumberImporter.parseLine(
+                "\"650,555,1234\",\"+16505551234\",\"a, b\"", 2, "US");
+        assertEquals("650,555,1234", cv.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER));
+        assertEquals("+16505551234", cv.getAsString(BlockedNumbers.COLUMN_E164_NUMBER));
+
+        cv = BlockedNumberImporter.parseLine("\"say \"\"hi\"\", bye\"", 2, "US");
+        assertEquals("say \"hi\", bye", cv.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER));
+
+        cv = BlockedNumberImporter.parseLine("123, \"+1,123\"", 2, "US");
+        assertEquals("123", cv.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER));
+
+        // Unterminated quotes and text after a closing quote are malformed.
+        assertNull(BlockedNumberImporter.parseLine("\"650,555,1234", 2, "US"));
+        assertNull(BlockedNumberImporter.parseLine("\"650\"555,+1650", 2, "US"));
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        final List<String> inserted = new ArrayList<>();
+        final BlockedNumberImporter.BatchInserter inserter = batch -> {
+            for (ContentValues cv : batch) {
+                if ("bad".equals(cv.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER))) {
+                    throw new IllegalArgumentException("bad");
+                }
+            }
+            for (ContentValues cv : batch) {
+                inserted.add(cv.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER));
+            }
+        };
+
+        final StringBuilder input = new StringBuilder("original_number,e164_number\n");
+        final int count = BlockedNumberImporter.BATCH_SIZE * 2 + 10;
+        for (int i = 0; i < count; i++) {
+            input.append(i == 1500 ? "bad" : Integer.toString(i)).append('\n');
+        }
+        input.append(",\n");
+
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createReliablePipe();
+        final BlockedNumberImporter.Status status = new BlockedNumberImporter.Status();
+        final ExecutorService parseExecutor = Executors.newFixedThreadPool(2);
+        final Thread importer = new Thread(new BlockedNumberImporter(pipe[0], "US", inserter,
+                status, parseExecutor, 2));
+        importer.start();
+        try (OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1])) {
+            out.write(input.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        importer.join();
+        parseExecutor.shutdown();
+
+        final Bundle res = status.toBundle();
+        assertTrue(res.getBoolean(BlockedNumberImporter.KEY_DONE));
+        assertNull(res.getString(BlockedNumberImporter.KEY_ERROR));
+        assertEquals(count + 2, res.getInt(BlockedNumberImporter.KEY_LINES));
+        assertEquals(count - 1, res.getInt(BlockedNumberImporter.KEY_INSERTED));
+        assertEquals(2, res.getInt(BlockedNumberImporter.KEY_REJECTED));
+        assertArrayEquals(new int[] {1502, count + 2},
+                res.getIntArray(BlockedNumberImporter.KEY_REJECTED_LINES));
+        assertEquals(count - 1, inserted.size());
+    }
+}
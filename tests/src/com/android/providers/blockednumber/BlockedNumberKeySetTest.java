@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BlockedNumberKeySetTest {
+
+    @Test
+    public void testAddAndContains() {
+        // Starts small so that the table is rehashed several times.
+        BlockedNumberKeySet keys = new BlockedNumberKeySet(0);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(keys.add("+1650555" + i));
+        }
+        assertEquals(10000, keys.size());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(keys.contains("+1650555" + i));
+            assertFalse(keys.add("+1650555" + i));
+        }
+        assertEquals(10000, keys.size());
+        assertFalse(keys.contains("+16505559999999"));
+        assertFalse(keys.contains("abc@example.com"));
+    }
+}
@@ -18,12 +18,14 @@ package com.android.providers.blockednumber;
 import static android.os.UserHandle.MIN_SECONDARY_USER_ID;
 import static android.os.UserHandle.USER_SYSTEM;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -31,6 +33,8 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.app.AppOpsManager;
+import android.app.backup.BackupDataInput;
+import android.app.backup.BackupDataOutput;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -41,7 +45,10 @@ import android.database.sqlite.SQLiteException;
 import android.location.Country;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.os.PersistableBundle;
+import android.os.SharedMemory;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserManager;
 import android.provider.BlockedNumberContract;
@@ -58,6 +65,19 @@ import androidx.test.filters.MediumTest;
 
 import junit.framework.Assert;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -171,6 +191,31 @@ public class BlockedNumberProviderTest extends AndroidTestCase {
         assertContents(8, "12345", "");
     }
 
+    public void testInsert_identicalNumberKeepsRow() {
+        Uri uri = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-408-454-2222"));
+        final long generation = mMockContext.getDbHelper().getChangeGeneration();
+        reset(mMockContext.mBackupManager);
+
+        // Same values: the existing row is returned untouched.
+        assertEquals(uri, insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-408-454-2222")));
+        assertEquals(uri, insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-408-454-2222",
+                BlockedNumbers.COLUMN_E164_NUMBER, "+14084542222")));
+        // Unchanged rows are not counted as inserted.
+        assertEquals(0, mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, new ContentValues[] {
+                cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-408-454-2222")}));
+
+        assertRowCount(1, BlockedNumbers.CONTENT_URI);
+        assertEquals(generation, mMockContext.getDbHelper().getChangeGeneration());
+        verify(mMockContext.mBackupManager, never()).dataChanged();
+
+        // A different E164 number replaces the row.
+        Uri replaced = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-408-454-2222",
+                BlockedNumbers.COLUMN_E164_NUMBER, "+814084542222"));
+        assertFalse(uri.equals(replaced));
+        assertRowCount(1, BlockedNumbers.CONTENT_URI);
+        verify(mMockContext.mBackupManager, times(1)).dataChanged();
+    }
+
     public void testChangesNotified() throws Exception {
         Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI, null, null, null, null);
 
@@ -196,6 +241,828 @@ public class BlockedNumberProviderTest extends AndroidTestCase {
         }
     }
 
+    public void testBulkInsert() {
+        ContentValues[] values = new ContentValues[] {
+                cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"),
+                cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111"),
+                cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "045-381-1111",
+                        BlockedNumbers.COLUMN_E164_NUMBER, "+81453811111"),
+        };
+
+        assertEquals(3, mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, values));
+
+        assertRowCount(3, BlockedNumbers.CONTENT_URI);
+        assertContents(1, "123", "");
+        assertContents(2, "+1-408-454-1111", "+14084541111");
+        assertContents(3, "045-381-1111", "+81453811111");
+        assertIsBlocked(true, "+1-408-454-1111");
+        // One notification for the whole batch.
+        verify(mMockContext.mBackupManager, times(1)).dataChanged();
+
+        // An invalid row fails the whole batch.
+        try {
+            mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, new ContentValues[] {
+                    cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"),
+                    cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, ""),
+            });
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertRowCount(3, BlockedNumbers.CONTENT_URI);
+        verify(mMockContext.mBackupManager, times(1)).dataChanged();
+
+        // Only the rows that changed are counted.
+        assertEquals(1, mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, new ContentValues[] {
+                cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"),
+                cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "045-381-1111",
+                        BlockedNumbers.COLUMN_E164_NUMBER, "+81453811112"),
+        }));
+        assertRowCount(3, BlockedNumbers.CONTENT_URI);
+        verify(mMockContext.mBackupManager, times(2)).dataChanged();
+    }
+
+    public void testRestore_skipsDuplicatesAcrossBatches() throws Exception {
+        // Enough full buckets to flush the first batch before the last bucket is read.
+        final int buckets = BlockedNumberBackupAgent.RESTORE_BATCH_SIZE
+                / BackupCodec.BUCKET_SIZE + 1;
+        final Map<String, byte[]> backup = new LinkedHashMap<>();
+        final BackupCodec.BucketWriter bucketWriter = new BackupCodec.BucketWriter();
+        try {
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                for (int i = 1; i < BackupCodec.BUCKET_SIZE; i++) {
+                    final int id = bucket * BackupCodec.BUCKET_SIZE + i;
+                    bucketWriter.add(id, "1-650-555-" + (10000 + id), null);
+                }
+                backup.put(BackupCodec.getBucketKey(bucket), bucketWriter.encode());
+                bucketWriter.clear();
+            }
+            // Already written by the first batch.
+            bucketWriter.add(buckets * BackupCodec.BUCKET_SIZE + 1, "1-650-555-10001", null);
+            backup.put(BackupCodec.getBucketKey(buckets), bucketWriter.encode());
+        } finally {
+            bucketWriter.close();
+        }
+
+        final BlockedNumberBackupAgent agent = newBackupAgent();
+        restore(agent, backup);
+
+        final int count = buckets * (BackupCodec.BUCKET_SIZE - 1);
+        assertEquals(1, agent.getRestoreSkippedCount());
+        assertEquals(count, agent.getRestoreInsertedCount());
+        assertRowCount(count, BlockedNumbers.CONTENT_URI);
+    }
+
+    public void testRestore_replacesManagedRows() throws Exception {
+        importNumbers(Uri.withAppendedPath(BlockedNumbers.CONTENT_URI, "import/test")
+                .buildUpon()
+                .appendQueryParameter(BlockedNumberProvider.SOURCE_PARAM_KEY, "carrier")
+                .build(), "+1-408-454-1111\n");
+        assertEquals(Arrays.asList("+1-408-454-1111=carrier"), getSources());
+
+        final BackupCodec.BucketWriter bucketWriter = new BackupCodec.BucketWriter();
+        bucketWriter.add(1, "+1-408-454-1111", "+14084541111");
+        final Map<String, byte[]> backup = new LinkedHashMap<>();
+        backup.put(BackupCodec.getBucketKey(0), bucketWriter.encode());
+        bucketWriter.close();
+
+        final BlockedNumberBackupAgent agent = newBackupAgent();
+        restore(agent, backup);
+
+        // The user's block takes over the row, so it stays when the source drops the number.
+        assertEquals(0, agent.getRestoreSkippedCount());
+        assertEquals(1, agent.getRestoreInsertedCount());
+        assertEquals(Arrays.asList("+1-408-454-1111=null"), getSources());
+        importNumbers(Uri.withAppendedPath(BlockedNumbers.CONTENT_URI, "import/test")
+                .buildUpon()
+                .appendQueryParameter(BlockedNumberProvider.SOURCE_PARAM_KEY, "carrier")
+                .build(), "456\n");
+        assertEquals(Arrays.asList("+1-408-454-1111=null", "456=carrier"), getSources());
+    }
+
+    public void testRestore_replacesExpiredRows() throws Exception {
+        // Expired, but not swept yet.
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111",
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT,
+                System.currentTimeMillis() - 1000));
+        assertIsBlocked(false, "+1-408-454-1111");
+
+        final BackupCodec.BucketWriter bucketWriter = new BackupCodec.BucketWriter();
+        bucketWriter.add(1, "+1-408-454-1111", "+14084541111");
+        final Map<String, byte[]> backup = new LinkedHashMap<>();
+        backup.put(BackupCodec.getBucketKey(0), bucketWriter.encode());
+        bucketWriter.close();
+
+        final BlockedNumberBackupAgent agent = newBackupAgent();
+        restore(agent, backup);
+
+        assertEquals(0, agent.getRestoreSkippedCount());
+        assertEquals(1, agent.getRestoreInsertedCount());
+        assertIsBlocked(true, "+1-408-454-1111");
+        // Still blocked after the sweep.
+        mMockContext.getProvider().sweepExpiredBlockedNumbers();
+        assertIsBlocked(true, "+1-408-454-1111");
+    }
+
+    public void testRestore_skipsExisting() throws Exception {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111"));
+
+        final BackupCodec.BucketWriter bucketWriter = new BackupCodec.BucketWriter();
+        // Blocked on the device, by E164 number and by original number.
+        bucketWriter.add(1, "+14084541111", null);
+        bucketWriter.add(2, "+1-408-454-1111", "+14084541111");
+        bucketWriter.add(3, "+1-408-454-2222", null);
+        // Queued earlier in this restore, by E164 number.
+        bucketWriter.add(4, "14084542222", null);
+        final Map<String, byte[]> backup = new LinkedHashMap<>();
+        backup.put(BackupCodec.getBucketKey(0), bucketWriter.encode());
+        bucketWriter.close();
+
+        final BlockedNumberBackupAgent agent = newBackupAgent();
+        restore(agent, backup);
+
+        assertEquals(3, agent.getRestoreSkippedCount());
+        assertEquals(1, agent.getRestoredCount());
+        assertEquals(1, agent.getRestoreInsertedCount());
+        assertRowCount(2, BlockedNumbers.CONTENT_URI);
+        assertIsBlocked(true, "+1-408-454-2222");
+    }
+
+    public void testBackup_skipsManagedRows() throws Exception {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+        importNumbers(Uri.withAppendedPath(BlockedNumbers.CONTENT_URI, "import/test")
+                .buildUpon()
+                .appendQueryParameter(BlockedNumberProvider.SOURCE_PARAM_KEY, "carrier")
+                .build(), "456\n");
+        assertEquals(Arrays.asList("123=null", "456=carrier"), getSources());
+
+        final List<BackupCodec.Entry> entries = decodeBackup(backUp(newBackupAgent()));
+        assertEquals(1, entries.size());
+        assertEquals("123", entries.get(0).originalNumber);
+    }
+
+    public void testBackupAndRestore_expiry() throws Exception {
+        final long expiresAt = System.currentTimeMillis() + 3600 * 1000;
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123",
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT, expiresAt));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"));
+        // Ended, but not swept yet.
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "789",
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT,
+                System.currentTimeMillis() - 1000));
+        final Map<String, byte[]> backup = backUp(newBackupAgent());
+        assertEquals(3, decodeBackup(backup).size());
+
+        mMockContext.getDbHelper().wipeForTest();
+        final BlockedNumberBackupAgent agent = newBackupAgent();
+        restore(agent, backup);
+
+        assertEquals(1, agent.getRestoreSkippedCount());
+        assertEquals(2, agent.getRestoreInsertedCount());
+        assertEquals(Arrays.asList("123=" + expiresAt, "456=null"), getExpiries());
+        assertEquals(expiresAt, mMockContext.getDbHelper().getNextExpiry());
+    }
+
+    private List<String> getExpiries() {
+        final List<String> expiries = new ArrayList<>();
+        try (Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI, new String[] {
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT},
+                null, null, BlockedNumbers.COLUMN_ORIGINAL_NUMBER)) {
+            while (c.moveToNext()) {
+                expiries.add(c.getString(0) + "=" + c.getString(1));
+            }
+        }
+        return expiries;
+    }
+
+    public void testBackup_databaseRecreated() throws Exception {
+        final int count = BackupCodec.BUCKET_SIZE + 44;
+        final ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-650-555-" + (1000 + i));
+        }
+        mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, values);
+        final File state = File.createTempFile("state", null, getContext().getCacheDir());
+        try {
+            assertEquals(count, decodeBackup(backUp(newBackupAgent(), state)).size());
+
+            // The ids and generations of the new database start over and catch up with the old
+            // ones, so that its journal alone would only name the last bucket.
+            final BlockedNumberDatabaseHelper oldDbHelper = mMockContext.getDbHelper();
+            mMockContext.getProvider().mDbHelper =
+                    BlockedNumberDatabaseHelper.newInstanceForTest(mMockContext);
+            oldDbHelper.getReadableDatabase().close();
+            final ContentValues[] newValues = new ContentValues[count + 1];
+            for (int i = 0; i < newValues.length; i++) {
+                newValues[i] = cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                        "1-408-555-" + (1000 + i));
+            }
+            mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, newValues);
+
+            final Map<String, byte[]> backup = backUp(newBackupAgent(), state);
+            assertTrue(backup.containsKey(BackupCodec.getBucketKey(0)));
+            final List<BackupCodec.Entry> entries = decodeBackup(backup);
+            assertEquals(count + 1, entries.size());
+            for (BackupCodec.Entry entry : entries) {
+                assertTrue(entry.originalNumber, entry.originalNumber.startsWith("1-408-555-"));
+            }
+        } finally {
+            state.delete();
+        }
+    }
+
+    private BlockedNumberBackupAgent newBackupAgent() {
+        final BlockedNumberBackupAgent agent = new BlockedNumberBackupAgent();
+        agent.attach(mMockContext);
+        agent.setDbHelperForTest(mMockContext.getDbHelper());
+        return agent;
+    }
+
+    /**
+     * Runs a full backup pass of {@code agent}.
+     *
+     * @return The entities written, by key.
+     */
+    private Map<String, byte[]> backUp(BlockedNumberBackupAgent agent) throws Exception {
+        final File state = File.createTempFile("state", null, getContext().getCacheDir());
+        try {
+            return backUp(agent, state);
+        } finally {
+            state.delete();
+        }
+    }
+
+    /**
+     * Runs a backup pass from the state in {@code state}, and replaces it with the new state.
+     */
+    private Map<String, byte[]> backUp(BlockedNumberBackupAgent agent, File state)
+            throws Exception {
+        final Map<String, byte[]> entities = new LinkedHashMap<>();
+        final String[] key = new String[1];
+        final BackupDataOutput backupDataOutput = mock(BackupDataOutput.class);
+        when(backupDataOutput.writeEntityHeader(anyString(), anyInt())).thenAnswer(
+                invocation -> {
+                    key[0] = invocation.getArgument(0);
+                    return 0;
+                });
+        when(backupDataOutput.writeEntityData(any(), anyInt())).thenAnswer(invocation -> {
+            final byte[] data = invocation.getArgument(0);
+            final int size = invocation.getArgument(1);
+            entities.put(key[0], Arrays.copyOf(data, size));
+            return size;
+        });
+
+        final File newState = File.createTempFile("new_state", null, getContext().getCacheDir());
+        try {
+            try (ParcelFileDescriptor oldStateFd = ParcelFileDescriptor.open(state,
+                    ParcelFileDescriptor.MODE_READ_ONLY);
+                    ParcelFileDescriptor newStateFd = ParcelFileDescriptor.open(newState,
+                            ParcelFileDescriptor.MODE_READ_WRITE)) {
+                agent.onBackup(oldStateFd, backupDataOutput, newStateFd);
+            }
+            assertTrue(newState.renameTo(state));
+        } finally {
+            newState.delete();
+        }
+        return entities;
+    }
+
+    private static List<BackupCodec.Entry> decodeBackup(Map<String, byte[]> entities)
+            throws IOException {
+        final List<BackupCodec.Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entity : entities.entrySet()) {
+            entries.addAll(BackupCodec.decodeBucket(
+                    BackupCodec.parseBucketKey(entity.getKey()), entity.getValue()));
+        }
+        return entries;
+    }
+
+    private static void restore(BlockedNumberBackupAgent agent, Map<String, byte[]> entities)
+            throws IOException {
+        final Iterator<Map.Entry<String, byte[]>> iterator = entities.entrySet().iterator();
+        final List<Map.Entry<String, byte[]>> current = new ArrayList<>(1);
+        final BackupDataInput backupDataInput = mock(BackupDataInput.class);
+        when(backupDataInput.readNextHeader()).thenAnswer(invocation -> {
+            current.clear();
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            current.add(iterator.next());
+            return true;
+        });
+        when(backupDataInput.getKey()).thenAnswer(invocation -> current.get(0).getKey());
+        when(backupDataInput.getDataSize()).thenAnswer(
+                invocation -> current.get(0).getValue().length);
+        when(backupDataInput.readEntityData(any(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            final byte[] data = current.get(0).getValue();
+            System.arraycopy(data, 0, invocation.getArgument(0), 0, data.length);
+            return data.length;
+        });
+        agent.onRestore(backupDataInput, 1, null);
+    }
+
+    public void testChangeJournal() {
+        BlockedNumberDatabaseHelper dbHelper = mMockContext.getDbHelper();
+        final long start = dbHelper.getChangeGeneration();
+
+        Uri u1 = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+        Uri u2 = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"));
+        mResolver.delete(u1, null, null);
+        // Replaces the existing row with a new one.
+        Uri u3 = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456",
+                BlockedNumbers.COLUMN_E164_NUMBER, "+1456"));
+
+        BlockedNumberDatabaseHelper.ChangeSet changes = dbHelper.getChangesSince(start);
+        assertNotNull(changes);
+        assertEquals(start + 5, changes.toGeneration);
+        assertEquals(start + 5, dbHelper.getChangeGeneration());
+        final int id1 = (int) ContentUris.parseId(u1);
+        final int id2 = (int) ContentUris.parseId(u2);
+        final int id3 = (int) ContentUris.parseId(u3);
+        MoreAsserts.assertEquals(new int[] {id1, id2, id1, id2, id3}, changes.blockedIds);
+        final int insert = BlockedNumberDatabaseHelper.Changes.CHANGE_TYPE_INSERT;
+        final int delete = BlockedNumberDatabaseHelper.Changes.CHANGE_TYPE_DELETE;
+        MoreAsserts.assertEquals(new int[] {insert, insert, delete, delete, insert},
+                changes.changeTypes);
+
+        changes = dbHelper.getChangesSince(start + 3);
+        MoreAsserts.assertEquals(new int[] {id2, id3}, changes.blockedIds);
+
+        // Nothing changed since the last generation.
+        changes = dbHelper.getChangesSince(start + 5);
+        assertEquals(0, changes.blockedIds.length);
+
+        // A generation from the future means the database was recreated.
+        assertNull(dbHelper.getChangesSince(start + 6));
+    }
+
+    public void testGetBlockedNumberCount() {
+        Bundle res = getBlockedNumberCount();
+        assertEquals(0, res.getLong(BlockedNumberProvider.RES_BLOCKED_NUMBER_COUNT));
+        final long start = res.getLong(BlockedNumberProvider.RES_LIST_GENERATION);
+
+        Uri u1 = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"));
+        // Identical; no change.
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"));
+        // Replaced.
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456",
+                BlockedNumbers.COLUMN_E164_NUMBER, "+1456"));
+        mResolver.delete(u1, null, null);
+
+        res = getBlockedNumberCount();
+        assertEquals(1, res.getLong(BlockedNumberProvider.RES_BLOCKED_NUMBER_COUNT));
+        assertEquals(start + 5, res.getLong(BlockedNumberProvider.RES_LIST_GENERATION));
+        assertEquals(mMockContext.getDbHelper().getChangeGeneration(),
+                res.getLong(BlockedNumberProvider.RES_LIST_GENERATION));
+
+        // A failed batch leaves the count unchanged.
+        try {
+            mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, new ContentValues[] {
+                    cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "789"),
+                    cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, ""),
+            });
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        res = getBlockedNumberCount();
+        assertEquals(1, res.getLong(BlockedNumberProvider.RES_BLOCKED_NUMBER_COUNT));
+        assertEquals(start + 5, res.getLong(BlockedNumberProvider.RES_LIST_GENERATION));
+    }
+
+    private Bundle getBlockedNumberCount() {
+        return mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_BLOCKED_NUMBER_COUNT, null, null);
+    }
+
+    public void testGetChangesSince() {
+        final Bundle count = getBlockedNumberCount();
+        final long start = count.getLong(BlockedNumberProvider.RES_LIST_GENERATION);
+        final long databaseId = count.getLong(BlockedNumberProvider.RES_DATABASE_ID);
+        Uri u1 = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+        Uri u2 = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"));
+        Uri u3 = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "789",
+                BlockedNumbers.COLUMN_E164_NUMBER, "+1789"));
+        mResolver.delete(u1, null, null);
+
+        Bundle res = getChangesSince(databaseId, start);
+        assertFalse(res.getBoolean(BlockedNumberProvider.RES_FULL_RESYNC));
+        assertFalse(res.getBoolean(BlockedNumberProvider.RES_HAS_MORE));
+        MoreAsserts.assertEquals(new long[] {ContentUris.parseId(u2), ContentUris.parseId(u3)},
+                res.getLongArray(BlockedNumberProvider.RES_INSERTED_IDS));
+        MoreAsserts.assertEquals(new String[] {"456", "789"},
+                res.getStringArray(BlockedNumberProvider.RES_INSERTED_ORIGINAL_NUMBERS));
+        assertEquals("+1789",
+                res.getStringArray(BlockedNumberProvider.RES_INSERTED_E164_NUMBERS)[1]);
+        MoreAsserts.assertEquals(new long[] {ContentUris.parseId(u1)},
+                res.getLongArray(BlockedNumberProvider.RES_DELETED_IDS));
+
+        // Continue from the returned generation.
+        final long generation = res.getLong(BlockedNumberProvider.RES_LIST_GENERATION);
+        mResolver.delete(u2, null, null);
+        res = getChangesSince(databaseId, generation);
+        assertEquals(0, res.getLongArray(BlockedNumberProvider.RES_INSERTED_IDS).length);
+        MoreAsserts.assertEquals(new long[] {ContentUris.parseId(u2)},
+                res.getLongArray(BlockedNumberProvider.RES_DELETED_IDS));
+        assertEquals(databaseId, res.getLong(BlockedNumberProvider.RES_DATABASE_ID));
+        res = getChangesSince(databaseId,
+                res.getLong(BlockedNumberProvider.RES_LIST_GENERATION));
+        assertEquals(0, res.getLongArray(BlockedNumberProvider.RES_DELETED_IDS).length);
+
+        // Unknown generations need a full resync.
+        res = getChangesSince(databaseId, generation + 100);
+        assertTrue(res.getBoolean(BlockedNumberProvider.RES_FULL_RESYNC));
+        assertEquals(generation + 1, res.getLong(BlockedNumberProvider.RES_LIST_GENERATION));
+        assertFalse(res.containsKey(BlockedNumberProvider.RES_INSERTED_IDS));
+    }
+
+    public void testGetChangesSince_databaseRecreated() {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+        final Bundle count = getBlockedNumberCount();
+        final long generation = count.getLong(BlockedNumberProvider.RES_LIST_GENERATION);
+        final long databaseId = count.getLong(BlockedNumberProvider.RES_DATABASE_ID);
+
+        // The generations of the new database start over and catch up with the old ones.
+        final BlockedNumberDatabaseHelper oldDbHelper = mMockContext.getDbHelper();
+        mMockContext.getProvider().mDbHelper =
+                BlockedNumberDatabaseHelper.newInstanceForTest(mMockContext);
+        oldDbHelper.getReadableDatabase().close();
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "789"));
+        final long newDatabaseId = mMockContext.getDbHelper().getDatabaseId();
+        assertTrue(newDatabaseId != databaseId);
+        assertTrue(mMockContext.getDbHelper().getChangeGeneration() > generation);
+
+        Bundle res = getChangesSince(databaseId, generation);
+        assertTrue(res.getBoolean(BlockedNumberProvider.RES_FULL_RESYNC));
+        assertEquals(newDatabaseId, res.getLong(BlockedNumberProvider.RES_DATABASE_ID));
+        assertEquals(mMockContext.getDbHelper().getChangeGeneration(),
+                res.getLong(BlockedNumberProvider.RES_LIST_GENERATION));
+
+        // Without a database id the generation cannot be trusted either.
+        Bundle extras = new Bundle();
+        extras.putLong(BlockedNumberProvider.EXTRA_GENERATION, generation);
+        res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_CHANGES_SINCE, null, extras);
+        assertTrue(res.getBoolean(BlockedNumberProvider.RES_FULL_RESYNC));
+
+        res = getChangesSince(newDatabaseId, generation);
+        assertFalse(res.getBoolean(BlockedNumberProvider.RES_FULL_RESYNC));
+    }
+
+    private Bundle getChangesSince(long databaseId, long generation) {
+        Bundle extras = new Bundle();
+        extras.putLong(BlockedNumberProvider.EXTRA_DATABASE_ID, databaseId);
+        extras.putLong(BlockedNumberProvider.EXTRA_GENERATION, generation);
+        return mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_CHANGES_SINCE, null, extras);
+    }
+
+    public void testGetSnapshot() throws Exception {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111"));
+
+        Bundle res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_SNAPSHOT, null, null);
+        SharedMemory versionCell = res.getParcelable(BlockedNumberProvider.RES_SNAPSHOT_VERSION);
+        SharedMemory snapshot = res.getParcelable(BlockedNumberProvider.RES_SNAPSHOT);
+        ByteBuffer version = versionCell.mapReadOnly().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer keys = snapshot.mapReadOnly();
+        try {
+            assertEquals(version.getLong(0), BlockedNumberSnapshot.getGeneration(keys));
+            assertEquals(3, BlockedNumberSnapshot.getKeyCount(keys));
+            assertTrue(BlockedNumberSnapshot.contains(keys, "123"));
+            assertTrue(BlockedNumberSnapshot.contains(keys, "+14084541111"));
+            assertFalse(BlockedNumberSnapshot.contains(keys, "456"));
+
+            // The version cell moves on with the list; the old snapshot stays as it was.
+            insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"));
+            assertEquals(BlockedNumberSnapshot.getGeneration(keys) + 1, version.getLong(0));
+            assertFalse(BlockedNumberSnapshot.contains(keys, "456"));
+        } finally {
+            SharedMemory.unmap(keys);
+        }
+
+        res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_SNAPSHOT, null, null);
+        snapshot = res.getParcelable(BlockedNumberProvider.RES_SNAPSHOT);
+        keys = snapshot.mapReadOnly();
+        try {
+            assertEquals(version.getLong(0), BlockedNumberSnapshot.getGeneration(keys));
+            assertTrue(BlockedNumberSnapshot.contains(keys, "456"));
+        } finally {
+            SharedMemory.unmap(keys);
+            SharedMemory.unmap(version);
+        }
+    }
+
+    public void testGetSnapshot_expiry() throws Exception {
+        final long expiresAt = System.currentTimeMillis() + 3600 * 1000;
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123",
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT, expiresAt));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456"));
+
+        final Bundle res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_SNAPSHOT, null, null);
+        final SharedMemory snapshot = res.getParcelable(BlockedNumberProvider.RES_SNAPSHOT);
+        final ByteBuffer keys = snapshot.mapReadOnly();
+        try {
+            // The temporary block ends in the snapshot itself, without waiting for the sweep.
+            assertEquals(2, BlockedNumberSnapshot.getKeyCount(keys));
+            assertTrue(BlockedNumberSnapshot.contains(keys, "123", expiresAt - 1));
+            assertFalse(BlockedNumberSnapshot.contains(keys, "123", expiresAt));
+            assertTrue(BlockedNumberSnapshot.contains(keys, "456", expiresAt));
+        } finally {
+            SharedMemory.unmap(keys);
+        }
+    }
+
+    public void testImport() throws Exception {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+
+        final Bundle res = importNumbers(Uri.withAppendedPath(BlockedNumbers.CONTENT_URI,
+                "import/test"), "original_number\n123\n+1-408-454-1111\n\n,\n456\n");
+        assertEquals(6, res.getInt(BlockedNumberImporter.KEY_LINES));
+        assertEquals(3, res.getInt(BlockedNumberImporter.KEY_INSERTED));
+        MoreAsserts.assertEquals(new int[] {5},
+                res.getIntArray(BlockedNumberImporter.KEY_REJECTED_LINES));
+
+        assertRowCount(3, BlockedNumbers.CONTENT_URI);
+        assertContents(1, "123", "");
+        assertContents(2, "+1-408-454-1111", "+14084541111");
+        assertContents(3, "456", "");
+
+        try {
+            mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                    BlockedNumberProvider.METHOD_GET_IMPORT_STATUS, "unknown", null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testImport_replaceSource() throws Exception {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+        final Uri uri = Uri.withAppendedPath(BlockedNumbers.CONTENT_URI, "import/test")
+                .buildUpon()
+                .appendQueryParameter(BlockedNumberProvider.SOURCE_PARAM_KEY, "carrier")
+                .build();
+
+        importNumbers(uri, "123\n456\n789\n789\n");
+        // The user's own row is left alone.
+        assertEquals(Arrays.asList("123=null", "456=carrier", "789=carrier"), getSources());
+        final long id789 = getBlockedId("789");
+        assertIsBlocked(true, "456");
+
+        importNumbers(uri, "789\n000\n");
+        assertEquals(Arrays.asList("000=carrier", "123=null", "789=carrier"), getSources());
+        assertEquals(id789, getBlockedId("789"));
+        assertIsBlocked(false, "456");
+        assertIsBlocked(true, "000");
+
+        // Blocking a number takes it over from the source.
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "789"));
+        importNumbers(uri, "");
+        assertEquals(Arrays.asList("123=null", "789=null"), getSources());
+
+        // The source is only returned when asked for.
+        assertContents(1, "123", "");
+        try {
+            insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "456",
+                    BlockedNumberDatabaseHelper.BlockedColumns.SOURCE, "carrier"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private Bundle importNumbers(Uri uri, String input) throws Exception {
+        try (OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(
+                mResolver.openFileDescriptor(uri, "w"))) {
+            out.write(input.getBytes(StandardCharsets.UTF_8));
+        }
+
+        final String token = uri.getLastPathSegment();
+        Bundle res;
+        final long deadline = SystemClock.uptimeMillis() + 5000;
+        do {
+            res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                    BlockedNumberProvider.METHOD_GET_IMPORT_STATUS, token, null);
+            if (res.getBoolean(BlockedNumberImporter.KEY_DONE)) {
+                break;
+            }
+            Thread.sleep(10);
+        } while (SystemClock.uptimeMillis() < deadline);
+
+        assertTrue(res.getBoolean(BlockedNumberImporter.KEY_DONE));
+        assertNull(res.getString(BlockedNumberImporter.KEY_ERROR));
+        return res;
+    }
+
+    /** @return "original_number=source" for every row, sorted. */
+    private List<String> getSources() {
+        final List<String> sources = new ArrayList<>();
+        try (Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI, new String[] {
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                BlockedNumberDatabaseHelper.BlockedColumns.SOURCE},
+                null, null, BlockedNumbers.COLUMN_ORIGINAL_NUMBER)) {
+            while (c.moveToNext()) {
+                sources.add(c.getString(0) + "=" + c.getString(1));
+            }
+        }
+        return sources;
+    }
+
+    private long getBlockedId(String originalNumber) {
+        try (Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI,
+                new String[] {BlockedNumbers.COLUMN_ID},
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=?", new String[] {originalNumber},
+                null)) {
+            assertTrue(c.moveToFirst());
+            return c.getLong(0);
+        }
+    }
+
+    public void testExport() throws Exception {
+        final int count = BlockedNumberExporter.PAGE_SIZE + 1;
+        final ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-" + (1000 + i));
+        }
+        mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, values);
+        mResolver.delete(BlockedNumbers.CONTENT_URI,
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=?", new String[] {"+1-408-454-1001"});
+
+        final Uri uri = Uri.withAppendedPath(BlockedNumbers.CONTENT_URI, "export");
+        assertEquals(BlockedNumberProvider.EXPORT_MIME_TYPE, mResolver.getType(uri));
+        try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(
+                mResolver.openFileDescriptor(uri, "r"))) {
+            final ExportCodec.Reader reader = new ExportCodec.Reader(in);
+            final List<String> columns = Arrays.asList(reader.getColumns());
+            final int originalIndex = columns.indexOf(BlockedNumbers.COLUMN_ORIGINAL_NUMBER);
+            final int e164Index = columns.indexOf(BlockedNumbers.COLUMN_E164_NUMBER);
+            assertFalse(columns.contains(BlockedNumbers.COLUMN_ID));
+
+            long lastId = 0;
+            int rows = 0;
+            ExportCodec.Row row;
+            while ((row = reader.next()) != null) {
+                assertTrue(row.id > lastId);
+                lastId = row.id;
+                final int i = (int) row.id - 1;
+                assertEquals("+1-408-454-" + (1000 + i), row.values[originalIndex]);
+                assertEquals("+1408454" + (1000 + i), row.values[e164Index]);
+                rows++;
+            }
+            assertEquals(count - 1, rows);
+        }
+
+        try {
+            mResolver.openFileDescriptor(uri, "w");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testQuery_paging() {
+        for (String number : new String[] {"500", "100", "400", "200", "300"}) {
+            insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, number));
+        }
+
+        Bundle args = new Bundle();
+        args.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, BlockedNumbers.COLUMN_ID);
+        args.putInt(ContentResolver.QUERY_ARG_LIMIT, 2);
+        args.putInt(ContentResolver.QUERY_ARG_OFFSET, 1);
+        try (Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI, null, args, null)) {
+            MoreAsserts.assertEquals(new String[] {"100", "400"}, getOriginalNumbers(c));
+            MoreAsserts.assertContentsInAnyOrder(Arrays.asList(
+                    c.getExtras().getStringArray(ContentResolver.EXTRA_HONORED_ARGS)),
+                    ContentResolver.QUERY_ARG_LIMIT, ContentResolver.QUERY_ARG_OFFSET);
+        }
+
+        // Keyset pagination by id, in both directions.
+        args = new Bundle();
+        args.putLong(BlockedNumberProvider.QUERY_ARG_AFTER_ID, 2);
+        args.putInt(ContentResolver.QUERY_ARG_LIMIT, 2);
+        try (Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI, null, args, null)) {
+            MoreAsserts.assertEquals(new String[] {"400", "200"}, getOriginalNumbers(c));
+        }
+        args.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER,
+                BlockedNumbers.COLUMN_ID + " DESC");
+        try (Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI, null, args, null)) {
+            MoreAsserts.assertEquals(new String[] {"500"}, getOriginalNumbers(c));
+        }
+        // Any integer type is read as a long.
+        args.putInt(BlockedNumberProvider.QUERY_ARG_AFTER_ID, 2);
+        try (Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI, null, args, null)) {
+            MoreAsserts.assertEquals(new String[] {"500"}, getOriginalNumbers(c));
+        }
+        args.putString(BlockedNumberProvider.QUERY_ARG_AFTER_ID, "2");
+        try {
+            mResolver.query(BlockedNumbers.CONTENT_URI, null, args, null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // Keyset pagination by number, combined with a selection.
+        args = new Bundle();
+        args.putString(BlockedNumberProvider.QUERY_ARG_AFTER_ORIGINAL_NUMBER, "200");
+        args.putString(ContentResolver.QUERY_ARG_SQL_SELECTION,
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "<>?");
+        args.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, new String[] {"400"});
+        try (Cursor c = mResolver.query(BlockedNumbers.CONTENT_URI, null, args, null)) {
+            MoreAsserts.assertEquals(new String[] {"300", "500"}, getOriginalNumbers(c));
+        }
+
+        // The keyset must be the sort order.
+        args.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, BlockedNumbers.COLUMN_ID);
+        try {
+            mResolver.query(BlockedNumbers.CONTENT_URI, null, args, null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testQuery_filter() {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-650-555-1234"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "555"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "555-0000"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "408-123-4555"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "408-123-5656"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "abc_5@example.com"));
+        Uri filterUri = Uri.withAppendedPath(BlockedNumbers.CONTENT_URI, "filter");
+
+        // Exact, prefix, suffix then contains.
+        try (Cursor c = mResolver.query(Uri.withAppendedPath(filterUri, "555"), null, null, null,
+                null)) {
+            MoreAsserts.assertEquals(
+                    new String[] {"555", "555-0000", "408-123-4555", "+1-650-555-1234"},
+                    getOriginalNumbers(c));
+        }
+        try (Cursor c = mResolver.query(filterUri.buildUpon().appendPath("(555)")
+                .appendQueryParameter(BlockedNumberProvider.LIMIT_PARAM_KEY, "2").build(),
+                new String[] {BlockedNumbers.COLUMN_ORIGINAL_NUMBER}, null, null, null)) {
+            MoreAsserts.assertEquals(new String[] {"555", "555-0000"}, getOriginalNumbers(c));
+        }
+        // Matches the E164 form too.
+        try (Cursor c = mResolver.query(Uri.withAppendedPath(filterUri, "16505"), null, null,
+                null, null)) {
+            MoreAsserts.assertEquals(new String[] {"+1-650-555-1234"}, getOriginalNumbers(c));
+        }
+        // Shorter than a trigram.
+        try (Cursor c = mResolver.query(Uri.withAppendedPath(filterUri, "56"), null, null, null,
+                null)) {
+            MoreAsserts.assertEquals(new String[] {"408-123-5656"}, getOriginalNumbers(c));
+        }
+        // No digits; "_" is not a wildcard.
+        try (Cursor c = mResolver.query(Uri.withAppendedPath(filterUri, "c_"), null, null, null,
+                null)) {
+            MoreAsserts.assertEquals(new String[] {"abc_5@example.com"}, getOriginalNumbers(c));
+        }
+
+        // The index follows deletes and replaces.
+        mResolver.delete(BlockedNumbers.CONTENT_URI,
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=?", new String[] {"555-0000"});
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "555",
+                BlockedNumbers.COLUMN_E164_NUMBER, "+1777"));
+        try (Cursor c = mResolver.query(Uri.withAppendedPath(filterUri, "555"), null, null, null,
+                null)) {
+            MoreAsserts.assertEquals(new String[] {"555", "408-123-4555", "+1-650-555-1234"},
+                    getOriginalNumbers(c));
+        }
+        try (Cursor c = mResolver.query(Uri.withAppendedPath(filterUri, "777"), null, null, null,
+                null)) {
+            MoreAsserts.assertEquals(new String[] {"555"}, getOriginalNumbers(c));
+        }
+
+        // The best matches of a short query, past the limit.
+        try (Cursor c = mResolver.query(filterUri.buildUpon().appendPath("55")
+                .appendQueryParameter(BlockedNumberProvider.LIMIT_PARAM_KEY, "2").build(),
+                null, null, null, null)) {
+            MoreAsserts.assertEquals(new String[] {"555", "408-123-4555"},
+                    getOriginalNumbers(c));
+        }
+        try (Cursor c = mResolver.query(filterUri.buildUpon().appendPath("555")
+                .appendQueryParameter(BlockedNumberProvider.LIMIT_PARAM_KEY, "0").build(),
+                null, null, null, null)) {
+            assertEquals(0, c.getCount());
+        }
+        try {
+            mResolver.query(filterUri.buildUpon().appendPath("555")
+                    .appendQueryParameter(BlockedNumberProvider.LIMIT_PARAM_KEY, "-1").build(),
+                    null, null, null, null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static String[] getOriginalNumbers(Cursor c) {
+        final String[] numbers = new String[c.getCount()];
+        final int column = c.getColumnIndexOrThrow(BlockedNumbers.COLUMN_ORIGINAL_NUMBER);
+        for (int i = 0; c.moveToNext(); i++) {
+            numbers[i] = c.getString(column);
+        }
+        return numbers;
+    }
+
     private Uri insert(ContentValues cv) {
         final Uri uri = mResolver.insert(BlockedNumbers.CONTENT_URI, cv);
         assertNotNull(uri);
@@ -616,6 +1483,83 @@ public class BlockedNumberProviderTest extends AndroidTestCase {
         assertIsBlocked(false, "abcdef@gmail.com");
     }
 
+    public void testIsBlocked_numbersInsertedAfterBloomFilterLoaded() {
+        // The first lookup loads the (empty) bloom filter.
+        assertIsBlocked(false, "+1-500-454-1111");
+
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-500-454-1111"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "045-111-2222",
+                BlockedNumbers.COLUMN_E164_NUMBER, "+81451112222"));
+
+        assertIsBlocked(true, "+1-500-454-1111");
+        assertIsBlocked(true, "500-454 1111");
+        assertIsBlocked(true, "+81 45 111 2222");
+        assertIsBlocked(false, "500-454 2222");
+
+        assertEquals(1, BlockedNumberContract.unblock(mMockContext, "5004541111"));
+        assertIsBlocked(false, "+1-500-454-1111");
+    }
+
+    public void testGetOperationStats() {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123"));
+        assertIsBlocked(true, "123");
+        assertIsBlocked(false, "1234");
+
+        Bundle stats = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_OPERATION_STATS, null, null);
+
+        long[] insertStats = stats.getLongArray("insert/ok");
+        assertNotNull(insertStats);
+        assertEquals(1, insertStats[0]);
+        long[] isBlockedStats = stats.getLongArray(BlockedNumberContract.METHOD_IS_BLOCKED + "/ok");
+        assertNotNull(isBlockedStats);
+        assertEquals(2, isBlockedStats[0]);
+        // p50 <= p90 <= p99 <= max
+        assertTrue(isBlockedStats[2] <= isBlockedStats[3]);
+        assertTrue(isBlockedStats[3] <= isBlockedStats[4]);
+        assertTrue(isBlockedStats[4] <= isBlockedStats[5]);
+    }
+
+    public void testGetHeavyHitters() {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111"));
+        for (int i = 0; i < 3; i++) {
+            assertIsBlocked(true, "+1-408-454-1111");
+        }
+        // Unblocked numbers count too, and separators are ignored.
+        assertEquals(BlockedNumberContract.STATUS_NOT_BLOCKED,
+                SystemContract.shouldSystemBlockNumber(mMockContext, "+1-408-454-2222", null));
+        assertEquals(BlockedNumberContract.STATUS_NOT_BLOCKED,
+                SystemContract.shouldSystemBlockNumber(mMockContext, "+14084542222", null));
+        assertIsBlocked(false, "+1-408-454-3333");
+
+        Bundle res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_HEAVY_HITTERS, null, null);
+        assertEquals(6, res.getLong(BlockedNumberProvider.RES_TOTAL));
+        // Only hashes unless the caller asks for numbers.
+        assertNull(res.getStringArray(BlockedNumberProvider.RES_NUMBERS));
+        final long[] hashes = res.getLongArray(BlockedNumberProvider.RES_HASHES);
+        assertEquals(3, hashes.length);
+        MoreAsserts.assertEquals(new long[] {3, 2, 1},
+                res.getLongArray(BlockedNumberProvider.RES_COUNTS));
+        MoreAsserts.assertEquals(new long[] {0, 0, 0},
+                res.getLongArray(BlockedNumberProvider.RES_ERRORS));
+
+        final Bundle extras = new Bundle();
+        extras.putStringArray(BlockedNumberProvider.EXTRA_NUMBERS,
+                new String[] {"+14084541111", "+1-408-454-3333", "+1-408-454-4444"});
+        res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_HEAVY_HITTERS, null, extras);
+        MoreAsserts.assertEquals(hashes, res.getLongArray(BlockedNumberProvider.RES_HASHES));
+        MoreAsserts.assertEquals(new String[] {"+14084541111", null, "+1-408-454-3333"},
+                res.getStringArray(BlockedNumberProvider.RES_NUMBERS));
+
+        extras.putInt(BlockedNumberProvider.EXTRA_LIMIT, 1);
+        res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_HEAVY_HITTERS, null, extras);
+        MoreAsserts.assertEquals(new String[] {"+14084541111"},
+                res.getStringArray(BlockedNumberProvider.RES_NUMBERS));
+    }
+
     public void testUnblock() {
         insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-500-454-1111"));
         insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1500-454-1111"));
@@ -632,6 +1576,110 @@ public class BlockedNumberProviderTest extends AndroidTestCase {
         assertIsBlocked(false, "abc.def@gmail.com");
     }
 
+    public void testCarrierBlocklist() {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111"));
+        final Bundle extras = new Bundle();
+        extras.putStringArray(BlockedNumberProvider.EXTRA_ADDED_NUMBERS,
+                new String[] {"+14084541111", "+14084542222", "+14084543333"});
+        extras.putStringArray(BlockedNumberProvider.EXTRA_REMOVED_NUMBERS,
+                new String[] {"+14084543333"});
+        mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_UPDATE_CARRIER_BLOCKLIST, null, extras);
+
+        // The user's own list comes first.
+        assertEquals(BlockedNumberContract.STATUS_BLOCKED_IN_LIST,
+                SystemContract.shouldSystemBlockNumber(mMockContext, "+1-408-454-1111", null));
+        assertEquals(BlockedNumberProvider.STATUS_BLOCKED_CARRIER_LIST,
+                SystemContract.shouldSystemBlockNumber(mMockContext, "+1-408-454-2222", null));
+        assertIsBlocked(true, "+1-408-454-2222");
+        assertEquals(BlockedNumberContract.STATUS_NOT_BLOCKED,
+                SystemContract.shouldSystemBlockNumber(mMockContext, "+1-408-454-3333", null));
+
+        extras.putStringArray(BlockedNumberProvider.EXTRA_ADDED_NUMBERS, new String[] {"123"});
+        try {
+            mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                    BlockedNumberProvider.METHOD_UPDATE_CARRIER_BLOCKLIST, null, extras);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testExpiry() {
+        final long now = System.currentTimeMillis();
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111",
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT, now - 1000));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-2222",
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT, now + 3600 * 1000));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-3333"));
+
+        // Expired rows stop blocking before the sweep deletes them.
+        assertIsBlocked(false, "+1-408-454-1111");
+        assertIsBlocked(true, "+1-408-454-2222");
+        assertIsBlocked(true, "+1-408-454-3333");
+        assertEquals(now - 1000, mMockContext.getDbHelper().getNextExpiry());
+
+        insertExpectingFailure(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123",
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT, 0L));
+        insertExpectingFailure(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123",
+                BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT, "tomorrow"));
+    }
+
+    public void testExpirySweep() {
+        final long expired = System.currentTimeMillis() - 1000;
+        final int count = BlockedNumberProvider.EXPIRY_SWEEP_BATCH_SIZE * 2 + 1;
+        final ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-408-555-" + (1000 + i),
+                    BlockedNumberDatabaseHelper.BlockedColumns.EXPIRES_AT, expired);
+        }
+        assertEquals(count, mResolver.bulkInsert(BlockedNumbers.CONTENT_URI, values));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111"));
+        verify(mMockContext.mBackupManager, times(2)).dataChanged();
+
+        assertEquals(count, mMockContext.getProvider().sweepExpiredBlockedNumbers());
+        assertRowCount(1, BlockedNumbers.CONTENT_URI);
+        assertIsBlocked(true, "+1-408-454-1111");
+        assertEquals(BlockedNumberDatabaseHelper.NO_EXPIRY,
+                mMockContext.getDbHelper().getNextExpiry());
+        // One notification for the whole sweep.
+        verify(mMockContext.mBackupManager, times(3)).dataChanged();
+
+        assertEquals(0, mMockContext.getProvider().sweepExpiredBlockedNumbers());
+        verify(mMockContext.mBackupManager, times(3)).dataChanged();
+    }
+
+    public void testHitCounts() {
+        final Uri uri = insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "+1-408-454-1111"));
+        final long before = System.currentTimeMillis();
+        assertIsBlocked(true, "+1-408-454-1111");
+        assertIsBlocked(true, "+14084541111");
+        assertIsBlocked(false, "+1-408-454-2222");
+
+        final String[] projection = new String[] {
+                BlockedNumberDatabaseHelper.BlockedColumns.HIT_COUNT,
+                BlockedNumberDatabaseHelper.BlockedColumns.LAST_HIT_AT};
+        // Written behind.
+        try (Cursor c = mResolver.query(uri, projection, null, null, null)) {
+            assertTrue(c.moveToFirst());
+            assertEquals(0, c.getLong(0));
+            assertTrue(c.isNull(1));
+        }
+
+        mMockContext.getProvider().flushHits();
+        try (Cursor c = mResolver.query(uri, projection, null, null, null)) {
+            assertTrue(c.moveToFirst());
+            assertEquals(2, c.getLong(0));
+            assertTrue(c.getLong(1) >= before);
+        }
+        // Hits are not list changes.
+        verify(mMockContext.mBackupManager, times(1)).dataChanged();
+
+        insertExpectingFailure(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123",
+                BlockedNumberDatabaseHelper.BlockedColumns.HIT_COUNT, 5));
+        insertExpectingFailure(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "123",
+                BlockedNumberDatabaseHelper.BlockedColumns.LAST_HIT_AT, before));
+    }
+
     public void testNumberBlockingWorksWithoutTelephony() {
         doThrow(new IllegalStateException()).when(mMockContext.mTelephonyManager)
                 .isEmergencyNumber(anyString());
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(JUnit4.class)
+public class BlockedNumberSnapshotTest {
+
+    @Test
+    public void testWriteAndLookup() {
+        byte[][] keys = BlockedNumberSnapshot.sortKeys(Arrays.asList(
+                "123", "+1123", "abc@example.com", "123", "é@example.com"));
+        ByteBuffer snapshot = ByteBuffer.allocate(BlockedNumberSnapshot.getSize(keys));
+        BlockedNumberSnapshot.write(snapshot, 42, keys);
+
+        assertEquals(42, BlockedNumberSnapshot.getGeneration(snapshot));
+        assertEquals(4, BlockedNumberSnapshot.getKeyCount(snapshot));
+        assertTrue(BlockedNumberSnapshot.contains(snapshot, "123"));
+        assertTrue(BlockedNumberSnapshot.contains(snapshot, "+1123"));
+        assertTrue(BlockedNumberSnapshot.contains(snapshot, "abc@example.com"));
+        assertTrue(BlockedNumberSnapshot.contains(snapshot, "é@example.com"));
+        assertFalse(BlockedNumberSnapshot.contains(snapshot, "12"));
+        assertFalse(BlockedNumberSnapshot.contains(snapshot, "1234"));
+        assertFalse(BlockedNumberSnapshot.contains(snapshot, ""));
+    }
+
+    @Test
+    public void testExpiringKeys() {
+        byte[][] keys = BlockedNumberSnapshot.sortKeys(Arrays.asList("123", "456", "789"));
+        long[] expiresAt = {1000, BlockedNumberSnapshot.NO_EXPIRY, 2000};
+        ByteBuffer snapshot = ByteBuffer.allocate(BlockedNumberSnapshot.getSize(keys, expiresAt));
+        BlockedNumberSnapshot.write(snapshot, 7, keys, expiresAt);
+
+        assertEquals(7, BlockedNumberSnapshot.getGeneration(snapshot));
+        assertEquals(3, BlockedNumberSnapshot.getKeyCount(snapshot));
+        assertTrue(BlockedNumberSnapshot.contains(snapshot, "123", 999));
+        assertFalse(BlockedNumberSnapshot.contains(snapshot, "123", 1000));
+        assertTrue(BlockedNumberSnapshot.contains(snapshot, "456", Long.MAX_VALUE - 1));
+        assertTrue(BlockedNumberSnapshot.contains(snapshot, "789", 1000));
+        assertFalse(BlockedNumberSnapshot.contains(snapshot, "789", 2000));
+        assertFalse(BlockedNumberSnapshot.contains(snapshot, "12", 0));
+    }
+
+    @Test
+    public void testEmpty() {
+        byte[][] keys = BlockedNumberSnapshot.sortKeys(Collections.emptyList());
+        ByteBuffer snapshot = ByteBuffer.allocate(BlockedNumberSnapshot.getSize(keys));
+        BlockedNumberSnapshot.write(snapshot, 0, keys);
+
+        assertFalse(BlockedNumberSnapshot.contains(snapshot, "123"));
+    }
+
+    @Test
+    public void testInvalidSnapshot() {
+        try {
+            BlockedNumberSnapshot.contains(ByteBuffer.allocate(64), "123");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+
+@RunWith(JUnit4.class)
+public class CarrierBlocklistTest {
+    private File mDir;
+
+    /** Runs merges only when asked to. */
+    private final Executor mNoMerges = runnable -> { };
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = Files.createTempDirectory("carrier_blocklist").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void testUpdateAndMerge() throws Exception {
+        final CarrierBlocklist blocklist = new CarrierBlocklist(mDir, mNoMerges);
+        blocklist.update(new String[] {"+14084541111", "+14084542222"}, null);
+        blocklist.update(new String[] {"+14084543333"}, new String[] {"+14084541111"});
+        assertFalse(blocklist.contains("+14084541111"));
+        assertTrue(blocklist.contains("+14084542222"));
+        assertTrue(blocklist.contains("+14084543333"));
+
+        blocklist.merge();
+        assertTrue(new File(mDir, CarrierBlocklist.BASE_FILE_NAME).exists());
+        assertFalse(blocklist.contains("+14084541111"));
+        assertTrue(blocklist.contains("+14084542222"));
+        assertTrue(blocklist.contains("+14084543333"));
+
+        // A delta overrides the base.
+        blocklist.update(new String[] {"+14084541111"}, new String[] {"+14084542222"});
+        assertTrue(blocklist.contains("+14084541111"));
+        assertFalse(blocklist.contains("+14084542222"));
+
+        // Everything is read back from the files.
+        final CarrierBlocklist reloaded = new CarrierBlocklist(mDir, mNoMerges);
+        assertTrue(reloaded.contains("+14084541111"));
+        assertFalse(reloaded.contains("+14084542222"));
+        assertTrue(reloaded.contains("+14084543333"));
+        assertFalse(reloaded.contains("+14084544444"));
+        assertFalse(reloaded.contains("4084543333"));
+    }
+
+    @Test
+    public void testReloadIgnoresMergedDeltas() throws Exception {
+        final CarrierBlocklist blocklist = new CarrierBlocklist(mDir, mNoMerges);
+        blocklist.update(new String[] {"+14084541111"}, null);
+        final File oldDelta = new File(mDir, "delta_1");
+        final byte[] oldDeltaBytes = Files.readAllBytes(oldDelta.toPath());
+        blocklist.update(null, new String[] {"+14084541111"});
+        blocklist.merge();
+        assertFalse(oldDelta.exists());
+
+        // A crash after the swap left the older delta behind without the newer one.
+        Files.write(oldDelta.toPath(), oldDeltaBytes);
+        final CarrierBlocklist reloaded = new CarrierBlocklist(mDir, mNoMerges);
+        assertFalse(reloaded.contains("+14084541111"));
+        assertFalse(oldDelta.exists());
+
+        // Later deltas follow the merged ones, so they are not mistaken for them.
+        reloaded.update(new String[] {"+14084542222"}, null);
+        assertTrue(new CarrierBlocklist(mDir, mNoMerges).contains("+14084542222"));
+    }
+
+    @Test
+    public void testMergeScheduled() throws Exception {
+        final CarrierBlocklist blocklist = new CarrierBlocklist(mDir, Runnable::run);
+        for (int i = 0; i <= CarrierBlocklist.MAX_DELTAS; i++) {
+            blocklist.update(new String[] {"+1408454" + (1000 + i)}, null);
+        }
+        assertTrue(new File(mDir, CarrierBlocklist.BASE_FILE_NAME).exists());
+        for (int i = 0; i <= CarrierBlocklist.MAX_DELTAS; i++) {
+            assertTrue(blocklist.contains("+1408454" + (1000 + i)));
+        }
+    }
+
+    @Test
+    public void testInvalidNumber() throws Exception {
+        final CarrierBlocklist blocklist = new CarrierBlocklist(null, mNoMerges);
+        try {
+            blocklist.update(new String[] {"+1-408-454-1111"}, null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.provider.BlockedNumberContract;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(JUnit4.class)
+public class DecisionJournalTest {
+
+    @Test
+    public void testDumpKeepsOnlyLatestRecords() {
+        DecisionJournal journal = new DecisionJournal(4);
+        for (int i = 0; i < 6; i++) {
+            journal.record("650555121" + i, BlockedNumberContract.STATUS_NOT_BLOCKED,
+                    DecisionJournal.RULE_NO_MATCH, SystemClock.elapsedRealtimeNanos());
+        }
+        journal.record("6505551212", BlockedNumberContract.STATUS_BLOCKED_IN_LIST,
+                DecisionJournal.RULE_MATCH_E164, SystemClock.elapsedRealtimeNanos());
+
+        String dump = dump(journal);
+        assertEquals(7, journal.getCount());
+        assertEquals(5, dump.split("\n").length);
+        assertTrue(dump.contains("rule=MATCH_E164"));
+    }
+
+    @Test
+    public void testDumpDoesNotContainNumbers() {
+        DecisionJournal journal = new DecisionJournal(8);
+        journal.record("6505551212", BlockedNumberContract.STATUS_BLOCKED_IN_LIST,
+                DecisionJournal.RULE_MATCH_ORIGINAL, SystemClock.elapsedRealtimeNanos());
+
+        assertFalse(dump(journal).contains("6505551212"));
+    }
+
+    private static String dump(DecisionJournal journal) {
+        StringWriter writer = new StringWriter();
+        PrintWriter pw = new PrintWriter(writer);
+        journal.dump(pw);
+        pw.flush();
+        return writer.toString();
+    }
+}
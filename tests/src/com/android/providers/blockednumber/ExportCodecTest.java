@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class ExportCodecTest {
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExportCodec.Writer writer = new ExportCodec.Writer(out,
+                new String[] {"original_number", "e164_number"});
+        writer.add(1, new String[] {"123", null});
+        writer.add(300, new String[] {"+1-408-454-1111", "+14084541111"});
+        writer.add(5000000000L, new String[] {"abc@example.com", ""});
+        writer.finish();
+
+        ExportCodec.Reader reader = new ExportCodec.Reader(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertArrayEquals(new String[] {"original_number", "e164_number"}, reader.getColumns());
+        ExportCodec.Row row = reader.next();
+        assertEquals(1, row.id);
+        assertArrayEquals(new String[] {"123", null}, row.values);
+        row = reader.next();
+        assertEquals(300, row.id);
+        assertArrayEquals(new String[] {"+1-408-454-1111", "+14084541111"}, row.values);
+        row = reader.next();
+        assertEquals(5000000000L, row.id);
+        assertArrayEquals(new String[] {"abc@example.com", ""}, row.values);
+        assertNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExportCodec.Writer writer = new ExportCodec.Writer(out, new String[] {"original_number"});
+        writer.add(1, new String[] {"123"});
+        writer.finish();
+        byte[] data = out.toByteArray();
+
+        ExportCodec.Reader reader = new ExportCodec.Reader(
+                new ByteArrayInputStream(Arrays.copyOf(data, data.length - 1)));
+        reader.next();
+        try {
+            reader.next();
+            fail();
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void testOutOfOrder() throws IOException {
+        ExportCodec.Writer writer = new ExportCodec.Writer(new ByteArrayOutputStream(),
+                new String[] {"original_number"});
+        writer.add(2, new String[] {"123"});
+        try {
+            writer.add(2, new String[] {"456"});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
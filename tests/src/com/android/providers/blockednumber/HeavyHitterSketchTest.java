@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class HeavyHitterSketchTest {
+    private static final long WINDOW = 1000;
+
+    @Test
+    public void testExactCounts() {
+        final HeavyHitterSketch sketch = new HeavyHitterSketch(4, WINDOW, 42);
+        for (int i = 0; i < 5; i++) {
+            sketch.record("+1-408-454-1111", 0);
+        }
+        sketch.record("+14084541111", 0);
+        sketch.record("+1-408-454-2222", 0);
+        sketch.record("abc.def@gmail.com", 0);
+
+        final List<HeavyHitterSketch.Entry> top = sketch.getTop(10, 0);
+        assertEquals(3, top.size());
+        assertEquals(sketch.getHash("+1-408-454-1111"), top.get(0).hash);
+        assertEquals(sketch.getHash("+14084541111"), top.get(0).hash);
+        assertEquals(6, top.get(0).count);
+        assertEquals(0, top.get(0).error);
+        assertEquals(1, top.get(1).count);
+        assertEquals(8, sketch.getTotal(0));
+        assertEquals(1, sketch.getTop(1, 0).size());
+    }
+
+    @Test
+    public void testFindsHeavyHittersInSkewedTraffic() {
+        final HeavyHitterSketch sketch = new HeavyHitterSketch(32, WINDOW, 42);
+        final int numbers = 100000;
+        final int[] exact = new int[numbers];
+        final Random random = new Random(1);
+        for (int i = 0; i < 1000000; i++) {
+            // Most traffic comes from few numbers.
+            final int n = (int) Math.min(numbers - 1,
+                    Math.pow(random.nextDouble(), 3) * numbers);
+            exact[n]++;
+            sketch.record("+1408" + n, 0);
+        }
+
+        final List<HeavyHitterSketch.Entry> top = sketch.getTop(5, 0);
+        for (int i = 0; i < top.size(); i++) {
+            final HeavyHitterSketch.Entry entry = top.get(i);
+            assertEquals(sketch.getHash("+1408" + i), entry.hash);
+            final int count = exact[i];
+            assertTrue(entry.count >= count);
+            assertTrue(entry.count - entry.error <= count);
+        }
+    }
+
+    @Test
+    public void testDecay() {
+        final HeavyHitterSketch sketch = new HeavyHitterSketch(4, WINDOW, 42);
+        for (int i = 0; i < 8; i++) {
+            sketch.record("+14084541111", 0);
+        }
+        sketch.record("+14084542222", WINDOW - 1);
+        assertEquals(9, sketch.getTotal(WINDOW - 1));
+
+        // Halved once per window.
+        assertEquals(4, sketch.getTop(1, WINDOW).get(0).count);
+        assertEquals(2, sketch.getTop(1, WINDOW * 2).get(0).count);
+        // Numbers decayed to nothing are dropped.
+        assertEquals(1, sketch.getTop(10, WINDOW * 2).size());
+
+        // Recent traffic overtakes older traffic.
+        for (int i = 0; i < 3; i++) {
+            sketch.record("+14084543333", WINDOW * 2);
+        }
+        assertEquals(sketch.getHash("+14084543333"), sketch.getTop(1, WINDOW * 2).get(0).hash);
+        assertEquals(0, sketch.getTop(10, WINDOW * 100).size());
+    }
+
+    @Test
+    public void testConcurrentRecords() throws Exception {
+        final HeavyHitterSketch sketch = new HeavyHitterSketch(32, WINDOW, 42);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    sketch.record("+1408454" + (i % 10), 0);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, sketch.getTotal(0));
+        final List<HeavyHitterSketch.Entry> top = sketch.getTop(32, 0);
+        assertEquals(10, top.size());
+        for (HeavyHitterSketch.Entry entry : top) {
+            assertEquals(4000, entry.count);
+        }
+    }
+
+    @Test
+    public void testKeyedHashes() {
+        final HeavyHitterSketch sketch = new HeavyHitterSketch(4, WINDOW, 42);
+        assertTrue(sketch.getHash("+14084541111")
+                != new HeavyHitterSketch(4, WINDOW, 43).getHash("+14084541111"));
+        assertTrue(sketch.getHash("+14084541111") != sketch.getHash("+14084542222"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new HeavyHitterSketch(0, WINDOW, 42);
+    }
+}
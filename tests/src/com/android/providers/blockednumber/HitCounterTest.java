@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+
+@RunWith(JUnit4.class)
+public class HitCounterTest {
+
+    @Test
+    public void testRecordAndDrain() {
+        final HitCounter counter = new HitCounter();
+        assertTrue(counter.record(5, 1000));
+        assertFalse(counter.record(5, 3000));
+        assertFalse(counter.record(5, 2000));
+        assertFalse(counter.record(7, 1500));
+        assertEquals(2, counter.size());
+
+        final HashMap<Long, long[]> hits = toMap(counter.drain());
+        assertEquals(2, hits.size());
+        assertEquals(3, hits.get(5L)[0]);
+        assertEquals(3000, hits.get(5L)[1]);
+        assertEquals(1, hits.get(7L)[0]);
+        assertEquals(1500, hits.get(7L)[1]);
+
+        assertEquals(0, counter.size());
+        assertEquals(0, counter.drain().size);
+        // The first hit after a drain asks for a flush again.
+        assertTrue(counter.record(7, 4000));
+    }
+
+    @Test
+    public void testManyRows() {
+        final HitCounter counter = new HitCounter();
+        final int rows = 10000;
+        for (int round = 0; round < 3; round++) {
+            for (long id = 1; id <= rows; id++) {
+                counter.record(id, round);
+            }
+        }
+        assertEquals(rows, counter.size());
+
+        final HashMap<Long, long[]> hits = toMap(counter.drain());
+        assertEquals(rows, hits.size());
+        for (long id = 1; id <= rows; id++) {
+            assertEquals(3, hits.get(id)[0]);
+            assertEquals(2, hits.get(id)[1]);
+        }
+    }
+
+    @Test
+    public void testConcurrentRecords() throws InterruptedException {
+        final HitCounter counter = new HitCounter();
+        final int threads = 4;
+        final int hitsPerThread = 20000;
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < hitsPerThread; i++) {
+                    counter.record(1 + i % 100, i);
+                }
+            });
+            workers[t].start();
+        }
+        long total = 0;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        final HitCounter.Batch batch = counter.drain();
+        for (int i = 0; i < batch.size; i++) {
+            total += batch.counts[i];
+        }
+        assertEquals((long) threads * hitsPerThread, total);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidId() {
+        new HitCounter().record(0, 1000);
+    }
+
+    private static HashMap<Long, long[]> toMap(HitCounter.Batch batch) {
+        final HashMap<Long, long[]> map = new HashMap<>();
+        for (int i = 0; i < batch.size; i++) {
+            map.put(batch.ids[i], new long[] {batch.counts[i], batch.lastHitMillis[i]});
+        }
+        return map;
+    }
+}
@@ -150,6 +150,14 @@ public class MyMockContext extends MockContext {
         return packageName;
     }
 
+    BlockedNumberDatabaseHelper getDbHelper() {
+        return mProvider.mDbHelper;
+    }
+
+    BlockedNumberProviderTestable getProvider() {
+        return mProvider;
+    }
+
     public void shutdown() {
         mProvider.shutdown();
     }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class NumberSearchTest {
+
+    @Test
+    public void testGetTrigrams() {
+        // Separators are skipped, and trigrams shared by both forms appear once.
+        assertArrayEquals(new int[] {55, 123, 165, 234, 505, 512, 551, 555, 650},
+                NumberSearch.getTrigrams("+1 650-555-1234", "+16505551234"));
+        assertArrayEquals(new int[0], NumberSearch.getTrigrams("12", null, "abc@example.com"));
+    }
+
+    @Test
+    public void testGetMatchRank() {
+        assertEquals(NumberSearch.RANK_EXACT,
+                NumberSearch.getMatchRank("6505551234", "650-555-1234", "+16505551234"));
+        assertEquals(NumberSearch.RANK_PREFIX,
+                NumberSearch.getMatchRank("1650", "650-555-1234", "+16505551234"));
+        assertEquals(NumberSearch.RANK_SUFFIX,
+                NumberSearch.getMatchRank("1234", "650-555-1234", null));
+        assertEquals(NumberSearch.RANK_CONTAINS,
+                NumberSearch.getMatchRank("555", "650-555-1234", "+16505551234"));
+        // All trigrams present, in a different order.
+        assertEquals(NumberSearch.NO_MATCH,
+                NumberSearch.getMatchRank("5556", "650-555-1234", "+16505551234"));
+        assertEquals(NumberSearch.NO_MATCH,
+                NumberSearch.getMatchRank("555", "abc@example.com", "abc@example.com"));
+    }
+}
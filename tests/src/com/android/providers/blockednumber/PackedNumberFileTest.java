@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.blockednumber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.PrimitiveIterator;
+
+@RunWith(JUnit4.class)
+public class PackedNumberFileTest {
+
+    @Test
+    public void testPack() {
+        assertEquals(14084541111L, PackedNumberFile.pack("+14084541111"));
+        assertEquals("+14084541111", PackedNumberFile.unpack(14084541111L));
+        assertEquals(999999999999999L, PackedNumberFile.pack("+999999999999999"));
+        assertEquals(PackedNumberFile.NOT_PACKABLE, PackedNumberFile.pack(null));
+        assertEquals(PackedNumberFile.NOT_PACKABLE, PackedNumberFile.pack("+"));
+        assertEquals(PackedNumberFile.NOT_PACKABLE, PackedNumberFile.pack("4084541111"));
+        assertEquals(PackedNumberFile.NOT_PACKABLE, PackedNumberFile.pack("+04084541111"));
+        assertEquals(PackedNumberFile.NOT_PACKABLE, PackedNumberFile.pack("+1-408-454-1111"));
+        assertEquals(PackedNumberFile.NOT_PACKABLE, PackedNumberFile.pack("+1234567890123456"));
+    }
+
+    @Test
+    public void testWriteAndLookup() throws IOException {
+        // Several blocks, the last one partial, with large and small gaps.
+        final int count = PackedNumberFile.BLOCK_SIZE * 3 + 5;
+        final long[] numbers = new long[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = 14080000000L + (long) i * i * 7919;
+        }
+        final PackedNumberFile.Reader reader = write(numbers);
+        assertEquals(count, reader.size());
+        for (long n : numbers) {
+            assertTrue(reader.contains(n));
+            assertFalse(reader.contains(n + 1));
+        }
+        assertFalse(reader.contains(1));
+        assertFalse(reader.contains(Long.MAX_VALUE));
+
+        final PrimitiveIterator.OfLong it = reader.iterator();
+        final long[] read = new long[count];
+        for (int i = 0; i < count; i++) {
+            read[i] = it.nextLong();
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(numbers, read);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final PackedNumberFile.Reader reader = write(new long[0]);
+        assertEquals(0, reader.size());
+        assertFalse(reader.contains(14084541111L));
+        assertFalse(reader.iterator().hasNext());
+    }
+
+    @Test
+    public void testOutOfOrder() throws IOException {
+        final PackedNumberFile.Writer writer =
+                new PackedNumberFile.Writer(new ByteArrayOutputStream());
+        writer.add(2);
+        try {
+            writer.add(2);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testNotANumberFile() {
+        try {
+            new PackedNumberFile.Reader(ByteBuffer.allocate(64));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testSeq() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PackedNumberFile.Writer writer = new PackedNumberFile.Writer(out);
+        writer.add(14084541111L);
+        writer.finish(42);
+        final PackedNumberFile.Reader reader =
+                new PackedNumberFile.Reader(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(42, reader.getSeq());
+        assertTrue(reader.contains(14084541111L));
+        assertEquals(0, write(new long[] {1}).getSeq());
+    }
+
+    @Test
+    public void testReadVersion1() {
+        // One number, only in the index, and the footer without a sequence number.
+        final ByteBuffer buffer = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(14084541111L).putInt(0);
+        buffer.putLong(0).putLong(1).putInt(1).putInt(PackedNumberFile.BLOCK_SIZE).putInt(1)
+                .putInt(PackedNumberFile.MAGIC);
+        final PackedNumberFile.Reader reader = new PackedNumberFile.Reader(buffer);
+        assertEquals(1, reader.size());
+        assertEquals(0, reader.getSeq());
+        assertTrue(reader.contains(14084541111L));
+    }
+
+    @Test
+    public void testDelta() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PackedNumberFile.writeDelta(out, new PackedNumberFile.Delta(
+                new long[] {1, 14084541111L}, new long[] {3}));
+        final PackedNumberFile.Delta delta = PackedNumberFile.readDelta(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertArrayEquals(new long[] {1, 14084541111L}, delta.added);
+        assertArrayEquals(new long[] {3}, delta.removed);
+    }
+
+    private static PackedNumberFile.Reader write(long[] numbers) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PackedNumberFile.Writer writer = new PackedNumberFile.Writer(out);
+        for (long n : numbers) {
+            writer.add(n);
+        }
+        writer.finish();
+        return new PackedNumberFile.Reader(ByteBuffer.wrap(out.toByteArray()));
+    }
+}